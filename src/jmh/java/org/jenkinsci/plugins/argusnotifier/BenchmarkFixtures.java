@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import hudson.EnvVars;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.metrics.impl.TimeInQueueAction;
+import jenkins.model.Jenkins;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocked Jenkins objects shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+    static final String ROOT_URL = "https://jenkins.example.com:8443/jenkins/";
+
+    private BenchmarkFixtures() {
+        // no instance necessary
+    }
+
+    static Jenkins jenkins() {
+        Jenkins jenkins = mock(Jenkins.class);
+        when(jenkins.getRootUrl()).thenReturn(ROOT_URL);
+        return jenkins;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Run run() throws Exception {
+        Job job = mock(Job.class);
+        when(job.getFullName()).thenReturn("team folder/service-build %2F main");
+        TimeInQueueAction timeInQueueAction = mock(TimeInQueueAction.class);
+        when(timeInQueueAction.getQueuingDurationMillis()).thenReturn(1500L);
+
+        Run run = mock(Run.class);
+        when(run.getParent()).thenReturn(job);
+        when(run.getNumber()).thenReturn(4242);
+        when(run.getResult()).thenReturn(Result.SUCCESS);
+        when(run.getUrl()).thenReturn("job/team%20folder/job/service-build/4242/");
+        when(run.getStartTimeInMillis()).thenReturn(System.currentTimeMillis() - 60_000L);
+        when(run.getAction(TimeInQueueAction.class)).thenReturn(timeInQueueAction);
+        when(run.getEnvironment(any(TaskListener.class)))
+                .thenReturn(new EnvVars("GIT_COMMIT", "0123456789abcdef0123456789abcdef01234567"));
+        return run;
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a completed run into metrics and annotations, and of the helpers on that path. Run with the gc
+ * profiler (the default in the benchmark profile) to see the allocation rate next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricConstructionBenchmark {
+
+    private Jenkins jenkins;
+    private Run run;
+    private RunSnapshot runSnapshot;
+    private List<Metric> buildMetrics;
+
+    @Setup
+    public void setup() throws Exception {
+        jenkins = BenchmarkFixtures.jenkins();
+        run = BenchmarkFixtures.run();
+        runSnapshot = RunSnapshot.of(jenkins, run);
+        buildMetrics = buildMetrics();
+    }
+
+    /**
+     * The whole completion path: snapshot, build metrics and their annotations.
+     */
+    @Benchmark
+    public List<Annotation> runCompletion() {
+        RunSnapshot snapshot = RunSnapshot.of(jenkins, run);
+        BuildMetricFactory buildMetricFactory = new BuildMetricFactory(run, snapshot, 42L, "scope");
+        List<Metric> metrics = new ArrayList<>(buildMetricFactory.getBuildStatusMetrics());
+        metrics.addAll(buildMetricFactory.getBuildTimeMetrics());
+        return new AnnotationFactory(snapshot, 42L, "scope", null).getAnnotationsFor(metrics);
+    }
+
+    @Benchmark
+    public List<Metric> buildMetricFactory() {
+        return buildMetrics();
+    }
+
+    @Benchmark
+    public List<Annotation> annotationFactory() {
+        return new AnnotationFactory(runSnapshot, 42L, "scope", null).getAnnotationsFor(buildMetrics);
+    }
+
+    @Benchmark
+    public Map<String, String> buildStatusTags() {
+        return TagFactory.buildStatusTags(runSnapshot.hostName, runSnapshot.projectName, runSnapshot.buildNumber,
+                runSnapshot.result, runSnapshot.gitCommitHash);
+    }
+
+    @Benchmark
+    public String swapWithDash() {
+        return InvalidCharSwap.swapWithDash(runSnapshot.projectName);
+    }
+
+    @Benchmark
+    public String getHostName() {
+        return JenkinsFormatter.getHostName(jenkins);
+    }
+
+    private List<Metric> buildMetrics() {
+        BuildMetricFactory buildMetricFactory = new BuildMetricFactory(run, runSnapshot, 42L, "scope");
+        List<Metric> metrics = new ArrayList<>(buildMetricFactory.getBuildStatusMetrics());
+        metrics.addAll(buildMetricFactory.getBuildTimeMetrics());
+        return metrics;
+    }
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one periodic walk over a registry of numeric gauges, as done by {@link PeriodicJenkinsMetricsSender} every
+ * minute.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistryWalkBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int gaugeCount;
+
+    private MetricRegistry metricRegistry;
+    private SystemMetricFactory systemMetricFactory;
+
+    @Setup
+    public void setup() {
+        Jenkins jenkins = BenchmarkFixtures.jenkins();
+        systemMetricFactory = new SystemMetricFactory(jenkins, 42L, "scope");
+        metricRegistry = new MetricRegistry();
+        for (int i = 0; i < gaugeCount; i++) {
+            final long value = i;
+            metricRegistry.register("jenkins.benchmark.gauge." + i, (Gauge<Long>) () -> value);
+        }
+    }
+
+    @Benchmark
+    public List<Metric> allGauges() {
+        return PeriodicJenkinsMetricsSender.collectMetrics(metricRegistry, systemMetricFactory,
+                MetricNameFilter.ACCEPT_ALL, (GaugeDeltaTracker) null, 0.0);
+    }
+}
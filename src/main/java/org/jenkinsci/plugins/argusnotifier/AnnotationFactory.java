@@ -7,6 +7,7 @@ import com.salesforce.dva.argus.sdk.entity.Metric;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -18,17 +19,46 @@ class AnnotationFactory {
     static final String BUILD_NUMBER_LABEL = "Build Number";
     static final String URL_LABEL = "URL";
 
+    /**
+     * Which annotations are sent for a completed build.
+     */
+    enum Mode {
+        PER_METRIC("One annotation per build metric"),
+        PER_BUILD("One annotation per build"),
+        TRANSITIONS_ONLY("One annotation per build, only when the status changes");
+
+        private final String displayName;
+
+        Mode(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
     private final long metricTimestamp;
     private final String scope;
-    private final JenkinsRunFormatter jenkinsRunFormatter;
+    private final RunSnapshot runSnapshot;
     private final String source;
 
     AnnotationFactory(Jenkins jenkins, Run run, long metricTimestamp, String scope, String source) {
-        this.jenkinsRunFormatter = new JenkinsRunFormatter(jenkins, run);
+        this(RunSnapshot.of(jenkins, run), metricTimestamp, scope, source);
+    }
+
+    /**
+     * @param runSnapshot snapshot of the run, shared with the {@link BuildMetricFactory}
+     * @param metricTimestamp used for all annotations
+     * @param scope scope to be utilized for the annotations
+     * @param source annotation source, the Jenkins host name if empty
+     */
+    AnnotationFactory(RunSnapshot runSnapshot, long metricTimestamp, String scope, String source) {
+        this.runSnapshot = runSnapshot;
         this.metricTimestamp = metricTimestamp;
         this.scope = scope;
         if (source == null || source.trim().equals("")) {
-            this.source = JenkinsFormatter.getHostName(jenkins);
+            this.source = runSnapshot.hostName;
         } else {
             this.source = source;
         }
@@ -38,21 +68,53 @@ class AnnotationFactory {
         Annotation annotation = new Annotation();
         annotation.setScope(scope);
         annotation.setTimestamp(metricTimestamp);
-        annotation.setId(UUID.randomUUID().toString());
+        annotation.setId(annotationId(metric.getMetric()));
         annotation.setSource(source);
         annotation.setType(BUILD_ANNOTATION_TYPE);
         annotation.setMetric(metric.getMetric());
         annotation.setTags(metric.getTags());
         Map<String, String> fields =
                 ImmutableMap.<String, String>builder()
-                        .put(NUMERIC_BUILD_STATUS_LABEL, jenkinsRunFormatter.getContextualResult())
-                        .put(BUILD_NUMBER_LABEL, jenkinsRunFormatter.getBuildNumberString())
-                        .put(URL_LABEL, jenkinsRunFormatter.getRunUrl())
+                        .put(NUMERIC_BUILD_STATUS_LABEL, runSnapshot.contextualResult)
+                        .put(BUILD_NUMBER_LABEL, runSnapshot.buildNumber)
+                        .put(URL_LABEL, runSnapshot.runUrl)
                         .build();
         annotation.setFields(fields);
         return annotation;
     }
 
+    /**
+     * Id derived from the project, build number and metric, so that a retried or replayed annotation has the same id
+     * as the original. Name based UUIDs also avoid the shared {@code SecureRandom} behind random ones.
+     */
+    private String annotationId(String metricName) {
+        String name = runSnapshot.projectName + '#' + runSnapshot.buildNumber + '#' + metricName;
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * @param metrics build metrics to annotate
+     * @param mode which annotations to create
+     * @return one annotation per metric, a single annotation on the build status metric (or the first metric if
+     * there is none), or that single annotation only if the build changed status
+     */
+    List<Annotation> getAnnotationsFor(List<Metric> metrics, Mode mode) {
+        if (mode == Mode.PER_METRIC) {
+            return getAnnotationsFor(metrics);
+        }
+        if (metrics.isEmpty() || (mode == Mode.TRANSITIONS_ONLY && !runSnapshot.statusTransition)) {
+            return ImmutableList.of();
+        }
+        Metric annotated = metrics.get(0);
+        for (Metric metric : metrics) {
+            if (BuildMetricFactory.BUILD_STATUS.equals(metric.getMetric())) {
+                annotated = metric;
+                break;
+            }
+        }
+        return ImmutableList.of(getAnnotationFor(annotated));
+    }
+
     List<Annotation> getAnnotationsFor(List<Metric> metrics) {
         ImmutableList.Builder<Annotation> annotations = ImmutableList.builder();
         for (Metric metric : metrics) {
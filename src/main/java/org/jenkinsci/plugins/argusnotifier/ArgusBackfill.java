@@ -0,0 +1,375 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the build metrics and annotations of builds that started before the plugin was set up, so Argus has their
+ * history too. Started by an administrator from the {@link ArgusBackfillLink} page.
+ * <p>
+ * Only jobs whose builds are sent when they complete are backfilled: all jobs if {@code Send for all builds?} is
+ * checked, otherwise the jobs with the Argus Notifier post-build action, as configured now. Jobs are walked one build
+ * at a time with {@link Run#getNextBuild()}, so build records are loaded lazily and can be released again; at most one
+ * batch of metrics (the configured batch size) is held at any time. Each run gets the same metrics and annotations as
+ * when it completes, timestamped with its own completion time, except that the git commit is only taken from what the
+ * run recorded (see {@link RunSnapshot#ofRecorded}). Batches are sent synchronously to the main and any additional
+ * targets and throttled to a number of metrics per second. After every batch the last build sent per job is
+ * checkpointed, so a backfill that was cancelled, failed or interrupted by a restart continues where it stopped.
+ */
+class ArgusBackfill {
+    private static final Logger logger = Logger.getLogger(ArgusBackfill.class.getName());
+    private static final String BACKFILL_THREAD_NAME = "Argus Notifier Backfill";
+
+    enum State {
+        IDLE, RUNNING, FINISHED, CANCELLED, FAILED
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), BACKFILL_THREAD_NAME));
+    private final BiFunction<ArgusPayload, RetryPolicy, ArgusPayload> sender;
+    private final AtomicLong runsSent = new AtomicLong();
+    private final AtomicLong metricsSent = new AtomicLong();
+    private volatile State state = State.IDLE;
+    private volatile String message = "";
+    private volatile boolean cancelled;
+    /**
+     * Checkpoint of the running backfill, null when none runs.
+     */
+    private volatile BackfillCheckpoint runningCheckpoint;
+
+    ArgusBackfill() {
+        this(ArgusDataSender::sendWithRetry);
+    }
+
+    /**
+     * @param sender sends a payload with retries and returns the part that could not be sent, or null
+     */
+    ArgusBackfill(BiFunction<ArgusPayload, RetryPolicy, ArgusPayload> sender) {
+        this.sender = sender;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    long getRunsSent() {
+        return runsSent.get();
+    }
+
+    long getMetricsSent() {
+        return metricsSent.get();
+    }
+
+    /**
+     * Start a backfill in the background unless one is running already.
+     *
+     * @param metricsPerSecond upper bound on the send rate
+     * @return false if a backfill is running already or the notifier is not configured
+     */
+    synchronized boolean start(int metricsPerSecond) {
+        if (state == State.RUNNING) {
+            return false;
+        }
+        Jenkins jenkins = Jenkins.getInstance();
+        ArgusNotifier.DescriptorImpl descriptor = jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl.class);
+        if (descriptor == null || !descriptor.isNotifierConfigured()) {
+            message = "The Argus Notifier is not configured.";
+            return false;
+        }
+        BackfillCheckpoint checkpoint;
+        try {
+            checkpoint = BackfillCheckpoint.load(checkpointFile(jenkins));
+            // normally recorded when the notifier was set up; otherwise now is the earliest time known to be safe
+            checkpoint.recordCutoff(System.currentTimeMillis());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Argus Notifier: Backfill could not read or write its checkpoint", e);
+            message = "Could not read or write the checkpoint: " + e.getMessage();
+            return false;
+        }
+        cancelled = false;
+        runsSent.set(0);
+        metricsSent.set(0);
+        runningCheckpoint = checkpoint;
+        state = State.RUNNING;
+        message = "";
+        executor.submit(() -> run(jenkins, descriptor, checkpoint, Math.max(1, metricsPerSecond)));
+        return true;
+    }
+
+    /**
+     * Stop after the batch that is being sent.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Forget the progress so that the next backfill starts from the first build of every job.
+     *
+     * @return false if a backfill is running
+     * @throws IOException if the checkpoint cannot be deleted
+     */
+    synchronized boolean reset() throws IOException {
+        if (state == State.RUNNING) {
+            return false;
+        }
+        BackfillCheckpoint.load(checkpointFile(Jenkins.getInstance())).clearProgress();
+        state = State.IDLE;
+        message = "";
+        return true;
+    }
+
+    /**
+     * Move the progress of a renamed or moved job to its new name, so its builds are not sent again.
+     *
+     * @param oldFullName full name before the job was renamed or moved
+     * @param newFullName full name now
+     * @throws IOException if the checkpoint cannot be read or written
+     */
+    synchronized void renameJob(String oldFullName, String newFullName) throws IOException {
+        BackfillCheckpoint checkpoint = runningCheckpoint;
+        if (checkpoint == null) {
+            checkpoint = BackfillCheckpoint.load(checkpointFile(Jenkins.getInstance()));
+        }
+        checkpoint.rename(oldFullName, newFullName);
+    }
+
+    /**
+     * Forget the progress of a deleted job.
+     *
+     * @param jobFullName full name of the deleted job
+     * @throws IOException if the checkpoint cannot be read or written
+     */
+    synchronized void removeJob(String jobFullName) throws IOException {
+        BackfillCheckpoint checkpoint = runningCheckpoint;
+        if (checkpoint == null) {
+            checkpoint = BackfillCheckpoint.load(checkpointFile(Jenkins.getInstance()));
+        }
+        checkpoint.remove(jobFullName);
+    }
+
+    static Path checkpointFile(Jenkins jenkins) {
+        return jenkins.getRootDir().toPath().resolve(ArgusSpool.PLUGIN_DIRECTORY)
+                .resolve(BackfillCheckpoint.CHECKPOINT_FILE);
+    }
+
+    /**
+     * Remember when the notifier was set up, unless that was recorded before, so a later backfill sends only the builds
+     * that started before it.
+     *
+     * @param jenkins Jenkins instance for the checkpoint file
+     * @param nowMillis current time
+     * @throws IOException if the checkpoint cannot be read or written
+     */
+    static void recordSetupTime(Jenkins jenkins, long nowMillis) throws IOException {
+        BackfillCheckpoint.load(checkpointFile(jenkins)).recordCutoff(nowMillis);
+    }
+
+    /**
+     * @param configuration current configuration
+     * @param job job to check
+     * @return true if builds of the job are sent when they complete, so its past builds may be backfilled
+     */
+    static boolean isSentOnCompletion(ArgusConfiguration configuration, Job<?, ?> job) {
+        return configuration.isSendForAllBuilds() || job instanceof AbstractProject &&
+                ((AbstractProject<?, ?>) job).getPublishersList().get(ArgusNotifier.class) != null;
+    }
+
+    private void run(Jenkins jenkins, ArgusNotifier.DescriptorImpl descriptor, BackfillCheckpoint checkpoint,
+                     int metricsPerSecond) {
+        try {
+            long cutoffMillis = checkpoint.getCutoffMillis();
+            Batch batch = new Batch(descriptor.getBatchSize());
+            for (Job<?, ?> job : jenkins.allItems(Job.class)) {
+                if (!backfillJob(jenkins, descriptor, job, checkpoint, cutoffMillis, batch, metricsPerSecond)) {
+                    finish(State.FAILED, "Sending to Argus failed; start again to resume.");
+                    return;
+                }
+                if (cancelled) {
+                    finish(State.CANCELLED, "Cancelled; start again to resume.");
+                    return;
+                }
+            }
+            if (!batch.isEmpty() && !send(descriptor, batch, checkpoint, metricsPerSecond)) {
+                finish(State.FAILED, "Sending to Argus failed; start again to resume.");
+                return;
+            }
+            finish(State.FINISHED, "");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Argus Notifier: Backfill could not read or write its checkpoint", e);
+            finish(State.FAILED, "Could not read or write the checkpoint: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(State.CANCELLED, "Interrupted; start again to resume.");
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Argus Notifier: Backfill failed", e);
+            finish(State.FAILED, String.valueOf(e.getMessage()));
+        } finally {
+            ReusableGzipOutputStream.releaseForCurrentThread();
+        }
+    }
+
+    /**
+     * @return false if sending a batch failed
+     */
+    private boolean backfillJob(Jenkins jenkins, ArgusNotifier.DescriptorImpl descriptor, Job<?, ?> job,
+                                BackfillCheckpoint checkpoint, long cutoffMillis, Batch batch, int metricsPerSecond)
+            throws IOException, InterruptedException {
+        if (!isSentOnCompletion(descriptor.getConfiguration(), job)) {
+            return true;
+        }
+        int lastBuild = checkpoint.getLastBuild(job.getFullName());
+        Run<?, ?> run = lastBuild > 0 ? job.getNearestBuild(lastBuild + 1) : job.getFirstBuild();
+        while (run != null && !cancelled) {
+            if (run.isBuilding() || run.getStartTimeInMillis() >= cutoffMillis) {
+                // later builds are reported when they complete
+                break;
+            }
+            addRun(jenkins, descriptor.getConfiguration(), run, batch);
+            if (batch.isFull() && !send(descriptor, batch, checkpoint, metricsPerSecond)) {
+                return false;
+            }
+            run = run.getNextBuild();
+        }
+        return true;
+    }
+
+    private static void addRun(Jenkins jenkins, ArgusConfiguration configuration, Run<?, ?> run, Batch batch) {
+        long metricTimestamp = completionTimestamp(run);
+        RunSnapshot runSnapshot = RunSnapshot.ofRecorded(jenkins, run);
+        BuildMetricFactory buildMetricFactory =
+                new BuildMetricFactory(run, runSnapshot, metricTimestamp, configuration.getScope());
+        List<Metric> metrics = new ArrayList<>(buildMetricFactory.getBuildStatusMetrics());
+        metrics.addAll(buildMetricFactory.getBuildTimeMetrics());
+        AnnotationFactory annotationFactory = new AnnotationFactory(runSnapshot, metricTimestamp,
+                configuration.getScope(), configuration.getSource());
+        batch.add(run.getParent().getFullName(), run.getNumber(), metrics,
+                annotationFactory.getAnnotationsFor(metrics, configuration.getAnnotationMode()));
+    }
+
+    /**
+     * @param run a completed run
+     * @return when the run completed, in seconds
+     */
+    static long completionTimestamp(Run<?, ?> run) {
+        return TimeUnit.MILLISECONDS.toSeconds(run.getStartTimeInMillis() + run.getDuration());
+    }
+
+    /**
+     * Send the batch to every target, checkpoint it and wait long enough to stay under the send rate.
+     *
+     * @return false if a target could not be sent to; the batch is not checkpointed then
+     */
+    private boolean send(ArgusNotifier.DescriptorImpl descriptor, Batch batch, BackfillCheckpoint checkpoint,
+                         int metricsPerSecond) throws IOException, InterruptedException {
+        ArgusConfiguration configuration = descriptor.getConfiguration();
+        descriptor.getTagCardinalityGuard().apply(batch.metrics, batch.annotations,
+                configuration.getTagCardinalitySettings());
+        RetryPolicy retryPolicy = configuration.getRetryPolicy();
+        if (sender.apply(new ArgusPayload(configuration.getArgusConnectionInfo(), batch.metrics, batch.annotations),
+                retryPolicy) != null) {
+            return false;
+        }
+        for (ArgusTargetPipeline pipeline : descriptor.getTargetPipelines()) {
+            List<Metric> targetMetrics = pipeline.forTarget(batch.metrics);
+            List<Annotation> targetAnnotations = pipeline.forTargetAnnotations(batch.annotations);
+            if ((!targetMetrics.isEmpty() || !targetAnnotations.isEmpty()) &&
+                    sender.apply(new ArgusPayload(pipeline.getArgusConnectionInfo(), targetMetrics,
+                            targetAnnotations), retryPolicy) != null) {
+                return false;
+            }
+        }
+        checkpoint.save(batch.lastBuilds);
+        runsSent.addAndGet(batch.runs);
+        metricsSent.addAndGet(batch.metrics.size());
+        message = MessageFormat.format("Sent up to {0} #{1,number,#}", batch.lastJob, batch.lastBuildNumber);
+        long items = batch.size();
+        batch.clear();
+        Thread.sleep(items * 1000L / metricsPerSecond);
+        return true;
+    }
+
+    private void finish(State finalState, String finalMessage) {
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info(MessageFormat.format("Argus Notifier: Backfill {0} after {1} builds", finalState,
+                    runsSent.get()));
+        }
+        runningCheckpoint = null;
+        message = finalMessage;
+        state = finalState;
+    }
+
+    /**
+     * Metrics and annotations of the runs collected since the last send, with the last run per job for the
+     * checkpoint.
+     */
+    static final class Batch {
+        final int maxItems;
+        final List<Metric> metrics = new ArrayList<>();
+        final List<Annotation> annotations = new ArrayList<>();
+        final Map<String, Integer> lastBuilds = new LinkedHashMap<>();
+        int runs;
+        String lastJob;
+        int lastBuildNumber;
+
+        /**
+         * @param maxItems metrics and annotations to collect before the batch is sent
+         */
+        Batch(int maxItems) {
+            this.maxItems = Math.max(1, maxItems);
+        }
+
+        void add(String jobFullName, int buildNumber, List<Metric> runMetrics, List<Annotation> runAnnotations) {
+            metrics.addAll(runMetrics);
+            annotations.addAll(runAnnotations);
+            lastBuilds.put(jobFullName, buildNumber);
+            lastJob = jobFullName;
+            lastBuildNumber = buildNumber;
+            runs++;
+        }
+
+        int size() {
+            return metrics.size() + annotations.size();
+        }
+
+        boolean isEmpty() {
+            return runs == 0;
+        }
+
+        boolean isFull() {
+            return size() >= maxItems;
+        }
+
+        void clear() {
+            metrics.clear();
+            annotations.clear();
+            lastBuilds.clear();
+            runs = 0;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.ManagementLink;
+import hudson.model.listeners.ItemListener;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Page under {@code Manage Jenkins} to send the history of past builds to Argus (see {@link ArgusBackfill}).
+ */
+@Extension
+public class ArgusBackfillLink extends ManagementLink {
+    private static final Logger logger = Logger.getLogger(ArgusBackfillLink.class.getName());
+
+    private final ArgusBackfill backfill = new ArgusBackfill();
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Argus Backfill";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Send the metrics and annotations of past builds to Argus.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "argus-notifier-backfill";
+    }
+
+    @Nonnull
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.ADMINISTER;
+    }
+
+    @Nonnull
+    @Override
+    public Category getCategory() {
+        return Category.TOOLS;
+    }
+
+    public String getState() {
+        return backfill.getState().name();
+    }
+
+    public boolean isRunning() {
+        return backfill.getState() == ArgusBackfill.State.RUNNING;
+    }
+
+    public String getMessage() {
+        return backfill.getMessage();
+    }
+
+    public long getRunsSent() {
+        return backfill.getRunsSent();
+    }
+
+    public long getMetricsSent() {
+        return backfill.getMetricsSent();
+    }
+
+    public int getDefaultMetricsPerSecond() {
+        ArgusNotifier.DescriptorImpl descriptor =
+                Jenkins.getInstance().getDescriptorByType(ArgusNotifier.DescriptorImpl.class);
+        return descriptor == null ? ArgusSpool.DEFAULT_REPLAY_METRICS_PER_SECOND :
+                descriptor.getSpoolReplayMetricsPerSecond();
+    }
+
+    @RequirePOST
+    public HttpResponse doStart(@QueryParameter int metricsPerSecond) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        backfill.start(metricsPerSecond);
+        return HttpResponses.redirectToDot();
+    }
+
+    @RequirePOST
+    public HttpResponse doCancel() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        backfill.cancel();
+        return HttpResponses.redirectToDot();
+    }
+
+    @RequirePOST
+    public HttpResponse doReset() throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        backfill.reset();
+        return HttpResponses.redirectToDot();
+    }
+
+    /**
+     * Keeps the backfill progress, which is kept per full job name, in step with jobs that are renamed, moved or
+     * deleted.
+     */
+    @Extension
+    public static class JobListener extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof Job) {
+                try {
+                    ExtensionList.lookupSingleton(ArgusBackfillLink.class).backfill.renameJob(oldFullName,
+                            newFullName);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Argus Notifier: Could not move the backfill progress of " +
+                            oldFullName + " to " + newFullName, e);
+                }
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                try {
+                    ExtensionList.lookupSingleton(ArgusBackfillLink.class).backfill.removeJob(item.getFullName());
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Argus Notifier: Could not remove the backfill progress of " +
+                            item.getFullName(), e);
+                }
+            }
+        }
+    }
+}
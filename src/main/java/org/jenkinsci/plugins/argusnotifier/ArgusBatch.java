@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects payloads from many builds/intervals so they can be sent with a single putMetrics and a single
+ * putAnnotations call per Argus connection.
+ */
+class ArgusBatch {
+
+    private final List<ArgusPayload> payloads = new ArrayList<>();
+    private int size;
+
+    void add(ArgusPayload payload) {
+        payloads.add(payload);
+        size += payload.metrics.size() + payload.annotations.size();
+    }
+
+    /**
+     * @return number of metrics and annotations in this batch
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return payloads.isEmpty();
+    }
+
+    /**
+     * @return the payloads as they were added
+     */
+    List<ArgusPayload> getPayloads() {
+        return payloads;
+    }
+
+    /**
+     * Merge the payloads of this batch into one payload per connection, with one metric per series (see
+     * {@link MetricSeriesMerger}). The merged payload keeps the creation time of the oldest payload it contains.
+     *
+     * @return merged payloads, in the order their connection was first seen
+     */
+    List<ArgusPayload> merge() {
+        if (payloads.size() == 1) {
+            return payloads;
+        }
+        Map<ArgusConnectionInfo, List<ArgusPayload>> byConnection = new LinkedHashMap<>();
+        for (ArgusPayload payload : payloads) {
+            byConnection.computeIfAbsent(payload.argusConnectionInfo, connectionInfo -> new ArrayList<>()).add(payload);
+        }
+        List<ArgusPayload> merged = new ArrayList<>(byConnection.size());
+        for (Map.Entry<ArgusConnectionInfo, List<ArgusPayload>> entry : byConnection.entrySet()) {
+            merged.add(merge(entry.getKey(), entry.getValue()));
+        }
+        return merged;
+    }
+
+    private static ArgusPayload merge(ArgusConnectionInfo argusConnectionInfo, List<ArgusPayload> payloads) {
+        if (payloads.size() == 1) {
+            return payloads.get(0);
+        }
+        int metricCount = 0;
+        int annotationCount = 0;
+        long createdMillis = Long.MAX_VALUE;
+        for (ArgusPayload payload : payloads) {
+            metricCount += payload.metrics.size();
+            annotationCount += payload.annotations.size();
+            createdMillis = Math.min(createdMillis, payload.createdMillis);
+        }
+        List<Metric> metrics = new ArrayList<>(metricCount);
+        List<Annotation> annotations = new ArrayList<>(annotationCount);
+        for (ArgusPayload payload : payloads) {
+            metrics.addAll(payload.metrics);
+            annotations.addAll(payload.annotations);
+        }
+        return new ArgusPayload(argusConnectionInfo, MetricSeriesMerger.merge(metrics), annotations, createdMillis);
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.ManagementLink;
+import hudson.model.listeners.ItemListener;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Status page under {@code Manage Jenkins} with the estimated number of distinct {@code build_number} and
+ * {@code git_commit} values per project, the threshold and what happens to the tags above it.
+ */
+@Extension
+public class ArgusCardinalityLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Argus Tag Cardinality";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Estimated distinct build number and git commit tag values sent to Argus per project.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "argus-notifier-cardinality";
+    }
+
+    @Nonnull
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.ADMINISTER;
+    }
+
+    @Nonnull
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    private static ArgusNotifier.DescriptorImpl getNotifierDescriptor() {
+        return Jenkins.getInstance().getDescriptorByType(ArgusNotifier.DescriptorImpl.class);
+    }
+
+    public List<TagCardinalityGuard.Estimate> getEstimates() {
+        ArgusNotifier.DescriptorImpl descriptor = getNotifierDescriptor();
+        return descriptor == null ? Collections.emptyList() : descriptor.getTagCardinalityGuard().getEstimates();
+    }
+
+    public int getThreshold() {
+        ArgusNotifier.DescriptorImpl descriptor = getNotifierDescriptor();
+        return descriptor == null ? TagCardinalityGuard.DEFAULT_THRESHOLD : descriptor.getTagCardinalityThreshold();
+    }
+
+    /**
+     * @param tag tag name as on the metrics, e.g. {@code build_number}
+     * @return display name of the policy for the tag
+     */
+    public String getPolicyDisplayName(String tag) {
+        ArgusNotifier.DescriptorImpl descriptor = getNotifierDescriptor();
+        if (descriptor == null) {
+            return TagCardinalityGuard.Policy.KEEP.getDisplayName();
+        }
+        TagCardinalityGuard.Settings settings = descriptor.getConfiguration().getTagCardinalitySettings();
+        for (TagFactory.Tag guarded : TagCardinalityGuard.GUARDED_TAGS) {
+            if (guarded.lower().equals(tag)) {
+                return settings.policyFor(guarded).getDisplayName();
+            }
+        }
+        return TagCardinalityGuard.Policy.KEEP.getDisplayName();
+    }
+
+    /**
+     * Forgets the estimates of jobs that are renamed, moved or deleted, so they do not pile up.
+     */
+    @Extension
+    public static class JobListener extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof Job) {
+                forget(oldFullName);
+            }
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                forget(item.getFullName());
+            }
+        }
+
+        private static void forget(String fullName) {
+            ArgusNotifier.DescriptorImpl descriptor = getNotifierDescriptor();
+            if (descriptor != null) {
+                descriptor.getTagCardinalityGuard().forgetProject(fullName);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker for one Argus endpoint. After a number of consecutive failures the breaker opens and sends are
+ * short-circuited (failed immediately, so they go to the spool) instead of tying up sender threads. Once the open
+ * period is over a single probe is let through; its result closes the breaker again or re-opens it.
+ */
+class ArgusCircuitBreaker {
+    private static final Logger logger = Logger.getLogger(ArgusCircuitBreaker.class.getName());
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_SECONDS = 60;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ConcurrentMap<String, ArgusCircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private static volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private static volatile long openMillis = TimeUnit.SECONDS.toMillis(DEFAULT_OPEN_SECONDS);
+
+    private final String argusUrl;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong shortCircuitedCount = new AtomicLong();
+    private volatile long openedAtMillis;
+
+    private ArgusCircuitBreaker(String argusUrl) {
+        this.argusUrl = argusUrl;
+    }
+
+    /**
+     * @param argusUrl Argus web service URL
+     * @return the breaker for that endpoint
+     */
+    static ArgusCircuitBreaker forEndpoint(String argusUrl) {
+        return breakers.computeIfAbsent(argusUrl, ArgusCircuitBreaker::new);
+    }
+
+    /**
+     * @return all breakers by endpoint URL
+     */
+    static Map<String, ArgusCircuitBreaker> all() {
+        return Collections.unmodifiableMap(breakers);
+    }
+
+    /**
+     * Update the thresholds used by all breakers.
+     *
+     * @param threshold consecutive failures that open a breaker
+     * @param openSeconds how long a breaker stays open before letting a probe through
+     */
+    static void configure(int threshold, long openSeconds) {
+        failureThreshold = threshold;
+        openMillis = TimeUnit.SECONDS.toMillis(openSeconds);
+    }
+
+    /**
+     * @return whether a send may be attempted now
+     */
+    boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.currentTimeMillis() - openedAtMillis >= openMillis &&
+                state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info(MessageFormat.format("Argus Notifier: probing {0}", argusUrl));
+            }
+            return true;
+        }
+        shortCircuitedCount.incrementAndGet();
+        return false;
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.getAndSet(State.CLOSED) != State.CLOSED && logger.isLoggable(Level.INFO)) {
+            logger.info(MessageFormat.format("Argus Notifier: {0} is reachable again, circuit closed", argusUrl));
+        }
+    }
+
+    void onFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if ((current == State.HALF_OPEN || (current == State.CLOSED && failures >= failureThreshold)) &&
+                state.compareAndSet(current, State.OPEN)) {
+            openedAtMillis = System.currentTimeMillis();
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.warning(MessageFormat.format(
+                        "Argus Notifier: {0} failed {1} times in a row, circuit open for {2} seconds",
+                        argusUrl, failures, TimeUnit.MILLISECONDS.toSeconds(openMillis)));
+            }
+        }
+    }
+
+    void onRetry() {
+        retryCount.incrementAndGet();
+    }
+
+    State getState() {
+        return state.get();
+    }
+
+    long getRetryCount() {
+        return retryCount.get();
+    }
+
+    long getShortCircuitedCount() {
+        return shortCircuitedCount.get();
+    }
+
+    int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+}
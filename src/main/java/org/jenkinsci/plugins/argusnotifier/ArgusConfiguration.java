@@ -0,0 +1,270 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Immutable snapshot of the global configuration as used when building and sending data. The descriptor builds a new
+ * snapshot at load and after every configuration change and publishes it through a single volatile reference, so a
+ * build completing while the configuration is saved sees either the old or the new settings, never a mix of both.
+ * <p>
+ * Everything that can be derived once is derived here: the connection info with its resolved credentials, the
+ * compiled metric name filter, the parsed snapshot quantiles and the annotation source. The host name is not, since
+ * it follows the Jenkins root URL, which is configured elsewhere (see {@link JenkinsFormatter#getHostInfo}).
+ * <p>
+ * The send queue, retry and spool settings and the additional targets are part of the snapshot too, so the send
+ * queues and target pipelines are built from one consistent set of settings.
+ */
+final class ArgusConfiguration {
+
+    private final String credentialsId;
+    private final ArgusConnectionInfo argusConnectionInfo;
+    private final String scope;
+    private final String source;
+    private final boolean notifierConfigured;
+    private final boolean sendForAllBuilds;
+    private final boolean sendSystemMetrics;
+    private final boolean sendPipelineStageMetrics;
+    private final boolean sendRunningBuildMetrics;
+    private final boolean sendLabelMetrics;
+    private final AnnotationFactory.Mode annotationMode;
+    private final int batchSize;
+    private final MetricNameFilter metricNameFilter;
+    private final double[] snapshotQuantiles;
+    private final int samplingIntervalSeconds;
+    private final GaugeSampler.Aggregation sampleAggregation;
+    private final boolean sendChangedGaugesOnly;
+    private final double gaugeChangeEpsilon;
+    private final int fullRefreshIntervals;
+    private final TagCardinalityGuard.Settings tagCardinalitySettings;
+    private final ArgusSendQueue.Settings sendQueueSettings;
+    private final RetryPolicy retryPolicy;
+    private final boolean spoolEnabled;
+    private final long spoolMaxMegabytes;
+    private final long spoolMaxAgeHours;
+    private final int spoolReplayMetricsPerSecond;
+    private final List<ArgusTarget> additionalTargets;
+    private final long createdAtNanos;
+
+    /**
+     * @param descriptor descriptor to take the settings from; must not be changed while this runs
+     * @param createdAtNanos {@link System#nanoTime()} now, when the credentials are resolved
+     */
+    ArgusConfiguration(ArgusNotifier.DescriptorImpl descriptor, long createdAtNanos) {
+        this.credentialsId = descriptor.getCredentialsId();
+        this.argusConnectionInfo = new ArgusConnectionInfo(descriptor.getArgusUrl(),
+                CredentialsCache.get().getCredentials(credentialsId), descriptor.isCompressRequests());
+        this.scope = descriptor.getScope();
+        this.source = sourceOrNull(descriptor.getSource());
+        this.notifierConfigured = isConfigured(descriptor.getCredentialsId(), descriptor.getArgusUrl(), scope);
+        this.sendForAllBuilds = descriptor.isSendForAllBuilds();
+        this.sendSystemMetrics = descriptor.isSendSystemMetrics();
+        this.sendPipelineStageMetrics = descriptor.isSendPipelineStageMetrics();
+        this.sendRunningBuildMetrics = descriptor.isSendRunningBuildMetrics();
+        this.sendLabelMetrics = descriptor.isSendLabelMetrics();
+        this.annotationMode = descriptor.getAnnotationMode();
+        this.batchSize = descriptor.getBatchSize();
+        this.metricNameFilter = MetricNameFilter.compile(descriptor.getMetricIncludes(),
+                descriptor.getMetricExcludes());
+        this.snapshotQuantiles = SystemMetricFactory.parseQuantiles(descriptor.getSnapshotQuantiles());
+        this.samplingIntervalSeconds = descriptor.getSamplingIntervalSeconds();
+        this.sampleAggregation = descriptor.getSampleAggregation();
+        this.sendChangedGaugesOnly = descriptor.isSendChangedGaugesOnly();
+        this.gaugeChangeEpsilon = descriptor.getGaugeChangeEpsilon();
+        this.fullRefreshIntervals = descriptor.getFullRefreshIntervals();
+        this.tagCardinalitySettings = descriptor.getTagCardinalitySettings();
+        this.sendQueueSettings = new ArgusSendQueue.Settings(descriptor.getSendQueueCapacity(),
+                descriptor.getSendWorkerCount(), descriptor.getSendQueueOverflowPolicy(), descriptor.getBatchSize(),
+                descriptor.getBatchLingerMillis());
+        this.retryPolicy = new RetryPolicy(descriptor.getRetryMaxAttempts(), descriptor.getRetryInitialDelayMillis(),
+                descriptor.getRetryMaxDelayMillis());
+        this.spoolEnabled = descriptor.isSpoolEnabled();
+        this.spoolMaxMegabytes = descriptor.getSpoolMaxMegabytes();
+        this.spoolMaxAgeHours = descriptor.getSpoolMaxAgeHours();
+        this.spoolReplayMetricsPerSecond = descriptor.getSpoolReplayMetricsPerSecond();
+        this.additionalTargets = ImmutableList.copyOf(descriptor.getAdditionalTargets());
+        this.createdAtNanos = createdAtNanos;
+    }
+
+    private ArgusConfiguration(ArgusConfiguration other, ArgusConnectionInfo argusConnectionInfo,
+                               long createdAtNanos) {
+        this.credentialsId = other.credentialsId;
+        this.argusConnectionInfo = argusConnectionInfo;
+        this.scope = other.scope;
+        this.source = other.source;
+        this.notifierConfigured = other.notifierConfigured;
+        this.sendForAllBuilds = other.sendForAllBuilds;
+        this.sendSystemMetrics = other.sendSystemMetrics;
+        this.sendPipelineStageMetrics = other.sendPipelineStageMetrics;
+        this.sendRunningBuildMetrics = other.sendRunningBuildMetrics;
+        this.sendLabelMetrics = other.sendLabelMetrics;
+        this.annotationMode = other.annotationMode;
+        this.batchSize = other.batchSize;
+        this.metricNameFilter = other.metricNameFilter;
+        this.snapshotQuantiles = other.snapshotQuantiles;
+        this.samplingIntervalSeconds = other.samplingIntervalSeconds;
+        this.sampleAggregation = other.sampleAggregation;
+        this.sendChangedGaugesOnly = other.sendChangedGaugesOnly;
+        this.gaugeChangeEpsilon = other.gaugeChangeEpsilon;
+        this.fullRefreshIntervals = other.fullRefreshIntervals;
+        this.tagCardinalitySettings = other.tagCardinalitySettings;
+        this.sendQueueSettings = other.sendQueueSettings;
+        this.retryPolicy = other.retryPolicy;
+        this.spoolEnabled = other.spoolEnabled;
+        this.spoolMaxMegabytes = other.spoolMaxMegabytes;
+        this.spoolMaxAgeHours = other.spoolMaxAgeHours;
+        this.spoolReplayMetricsPerSecond = other.spoolReplayMetricsPerSecond;
+        this.additionalTargets = other.additionalTargets;
+        this.createdAtNanos = createdAtNanos;
+    }
+
+    /**
+     * Resolve the credentials again without reading the descriptor, which may be in the middle of a change.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return a copy of this snapshot with the credentials resolved now
+     */
+    ArgusConfiguration withRefreshedCredentials(long nowNanos) {
+        return new ArgusConfiguration(this, new ArgusConnectionInfo(argusConnectionInfo.argusUrl,
+                CredentialsCache.get().getCredentials(credentialsId), argusConnectionInfo.compressRequests), nowNanos);
+    }
+
+    /**
+     * @return true if the credentials id, URL and scope are all filled in
+     */
+    static boolean isConfigured(String credentialsId, String argusUrl, String scope) {
+        return credentialsId != null && !credentialsId.trim().isEmpty() &&
+                argusUrl != null && !argusUrl.trim().isEmpty() &&
+                scope != null && !scope.trim().isEmpty();
+    }
+
+    /**
+     * @return the source, or null if it is empty so that the Jenkins host name is used
+     */
+    static String sourceOrNull(String source) {
+        return source == null || source.trim().isEmpty() ? null : source;
+    }
+
+    ArgusConnectionInfo getArgusConnectionInfo() {
+        return argusConnectionInfo;
+    }
+
+    String getScope() {
+        return scope;
+    }
+
+    /**
+     * @return annotation source, null to use the Jenkins host name
+     */
+    String getSource() {
+        return source;
+    }
+
+    boolean isNotifierConfigured() {
+        return notifierConfigured;
+    }
+
+    boolean isSendForAllBuilds() {
+        return sendForAllBuilds;
+    }
+
+    boolean isSendSystemMetrics() {
+        return sendSystemMetrics;
+    }
+
+    boolean isSendPipelineStageMetrics() {
+        return sendPipelineStageMetrics;
+    }
+
+    boolean isSendRunningBuildMetrics() {
+        return sendRunningBuildMetrics;
+    }
+
+    boolean isSendLabelMetrics() {
+        return sendLabelMetrics;
+    }
+
+    AnnotationFactory.Mode getAnnotationMode() {
+        return annotationMode;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    MetricNameFilter getMetricNameFilter() {
+        return metricNameFilter;
+    }
+
+    /**
+     * @return parsed quantiles; shared, so not to be modified
+     */
+    double[] getSnapshotQuantiles() {
+        return snapshotQuantiles;
+    }
+
+    int getSamplingIntervalSeconds() {
+        return samplingIntervalSeconds;
+    }
+
+    GaugeSampler.Aggregation getSampleAggregation() {
+        return sampleAggregation;
+    }
+
+    boolean isSendChangedGaugesOnly() {
+        return sendChangedGaugesOnly;
+    }
+
+    double getGaugeChangeEpsilon() {
+        return gaugeChangeEpsilon;
+    }
+
+    int getFullRefreshIntervals() {
+        return fullRefreshIntervals;
+    }
+
+    TagCardinalityGuard.Settings getTagCardinalitySettings() {
+        return tagCardinalitySettings;
+    }
+
+    ArgusSendQueue.Settings getSendQueueSettings() {
+        return sendQueueSettings;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    boolean isSpoolEnabled() {
+        return spoolEnabled;
+    }
+
+    long getSpoolMaxMegabytes() {
+        return spoolMaxMegabytes;
+    }
+
+    long getSpoolMaxAgeHours() {
+        return spoolMaxAgeHours;
+    }
+
+    int getSpoolReplayMetricsPerSecond() {
+        return spoolReplayMetricsPerSecond;
+    }
+
+    /**
+     * @return the additional targets as configured, including ones that are not completely filled in
+     */
+    List<ArgusTarget> getAdditionalTargets() {
+        return additionalTargets;
+    }
+
+    /**
+     * @param nowNanos current {@link System#nanoTime()}
+     * @param ttlNanos how long resolved credentials may be used
+     * @return true if the credentials were resolved longer ago than the time-to-live
+     */
+    boolean isOlderThan(long nowNanos, long ttlNanos) {
+        return nowNanos - createdAtNanos >= ttlNanos;
+    }
+}
@@ -2,16 +2,53 @@ package org.jenkinsci.plugins.argusnotifier;
 
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 
+import java.util.Objects;
+
 /**
- * Simple value holder class
+ * Simple value holder class. Two instances are equal when they point at the same URL with the same username and
+ * password and the same compression setting, which makes this usable as a key for cached {@link ArgusSession}s.
  */
 class ArgusConnectionInfo {
 
     final String argusUrl;
     final UsernamePasswordCredentials credentials;
+    final boolean compressRequests;
 
     ArgusConnectionInfo(String argusUrl, UsernamePasswordCredentials credentials) {
+        this(argusUrl, credentials, false);
+    }
+
+    /**
+     * @param compressRequests whether to send gzip-compressed, streamed requests (see {@link ArgusHttpTransport})
+     *                         instead of going through the Argus SDK
+     */
+    ArgusConnectionInfo(String argusUrl, UsernamePasswordCredentials credentials, boolean compressRequests) {
         this.argusUrl = argusUrl;
         this.credentials = credentials;
+        this.compressRequests = compressRequests;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ArgusConnectionInfo that = (ArgusConnectionInfo) o;
+        if (!Objects.equals(argusUrl, that.argusUrl) || compressRequests != that.compressRequests) {
+            return false;
+        }
+        if (credentials == null || that.credentials == null) {
+            return credentials == that.credentials;
+        }
+        return Objects.equals(credentials.getUsername(), that.credentials.getUsername()) &&
+                Objects.equals(credentials.getPassword(), that.credentials.getPassword());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(argusUrl, credentials == null ? null : credentials.getUsername());
     }
 }
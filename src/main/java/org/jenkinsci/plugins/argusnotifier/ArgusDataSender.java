@@ -1,25 +1,30 @@
 package org.jenkinsci.plugins.argusnotifier;
 
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import com.codahale.metrics.Timer;
 import com.salesforce.dva.argus.sdk.ArgusService;
+import com.salesforce.dva.argus.sdk.ArgusServiceException;
 import com.salesforce.dva.argus.sdk.entity.Annotation;
 import com.salesforce.dva.argus.sdk.entity.Metric;
 import com.salesforce.dva.argus.sdk.exceptions.TokenExpiredException;
-import hudson.util.Secret;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Responsible for sending Argus data and handling the connection each time.
+ * Responsible for sending Argus data over the shared {@link ArgusSession}s.
  */
 class ArgusDataSender {
     private static final Logger logger = Logger.getLogger(ArgusDataSender.class.getName());
     private static final String UNKNOWN_HOST_MESSAGE = "Host not found! Check your Argus server configuration in Manage Jenkins -> Configure " +
             "System or your network configuration";
     private static final String SEND_SUCCESS_MESSAGE = "Argus Notifier: Sent metrics/annotations to Argus successfully!";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
 
     /**
      * Marked private since there is no need for an instance
@@ -29,46 +34,202 @@ class ArgusDataSender {
     }
 
     /**
-     * Send metrics and annotations to Argus via the provided argusUrl and credentials.
+     * Result of a call to Argus, telling whether sending the same data again can help.
+     */
+    enum Outcome {
+        SENT,
+        /**
+         * The call failed on the way there, with a server error (5xx), an expired token or any other error that is not
+         * a refusal by Argus. Worth trying again, and spooled if retrying does not help.
+         */
+        FAILED,
+        /**
+         * Argus refused the data itself (4xx). Sending it again gets the same answer.
+         */
+        REJECTED
+    }
+
+    /**
+     * A put call against an authenticated session.
+     */
+    private interface Put {
+        void put(ArgusSession session, boolean compressed) throws IOException, TokenExpiredException;
+    }
+
+    /**
+     * Send metrics to Argus via the provided argusUrl and credentials. The authenticated session for the connection
+     * info is reused between calls.
      *
      * @param argusConnectionInfo ArgusConnectionInfo to use to authenticate with the Argus web service
      * @param metrics Metrics to publish to Argus
-     * @param annotations Annotations to publish to Argus (associated with the metrics)
+     * @return how the call went (the failure is logged)
      */
-    static void sendArgusData(ArgusConnectionInfo argusConnectionInfo,
-                              List<Metric> metrics,
-                              List<Annotation> annotations) {
-        try (
-                ArgusService service = ArgusService.getInstance(argusConnectionInfo.argusUrl, 1)
-        ) {
-            UsernamePasswordCredentials credentials = argusConnectionInfo.credentials;
-            service.getAuthService().login(credentials.getUsername(),
-                    Secret.toString(credentials.getPassword()));
-
-            service.getMetricService().putMetrics(metrics);
+    static Outcome putMetrics(ArgusConnectionInfo argusConnectionInfo, List<Metric> metrics) {
+        return put(argusConnectionInfo, ArgusNotifierMetrics.CALL_PUT_METRICS, (session, compressed) -> {
+            // uncompressed data goes through the SDK, also once the server turned out to refuse compression
+            if (!compressed || !session.getHttpTransport().putMetrics(metrics)) {
+                session.execute(service -> {
+                    service.getMetricService().putMetrics(metrics);
+                    return null;
+                });
+            }
+        });
+    }
 
-            if (annotations != null && !annotations.isEmpty()) {
-                service.getAnnotationService().putAnnotations(annotations);
+    /**
+     * Send annotations to Argus via the provided argusUrl and credentials.
+     *
+     * @param argusConnectionInfo ArgusConnectionInfo to use to authenticate with the Argus web service
+     * @param annotations Annotations to publish to Argus (associated with the metrics)
+     * @return how the call went (the failure is logged)
+     */
+    static Outcome putAnnotations(ArgusConnectionInfo argusConnectionInfo, List<Annotation> annotations) {
+        return put(argusConnectionInfo, ArgusNotifierMetrics.CALL_PUT_ANNOTATIONS, (session, compressed) -> {
+            // uncompressed data goes through the SDK, also once the server turned out to refuse compression
+            if (!compressed || !session.getHttpTransport().putAnnotations(annotations)) {
+                session.execute(service -> {
+                    service.getAnnotationService().putAnnotations(annotations);
+                    return null;
+                });
             }
+        });
+    }
 
-            if (logger.isLoggable(Level.INFO)) {
-                logger.info(SEND_SUCCESS_MESSAGE);
+    private static Outcome put(ArgusConnectionInfo argusConnectionInfo, String callType, Put put) {
+        try {
+            ArgusSession session = ArgusSessionManager.acquireSession(argusConnectionInfo);
+            try (Timer.Context ignored = ArgusNotifierMetrics.callTimer(callType).time()) {
+                put.put(session, argusConnectionInfo.compressRequests);
+            } finally {
+                session.release();
             }
-            service.getAuthService().logout();
+            return Outcome.SENT;
         } catch (TokenExpiredException tokenExpired) {
-            //TODO: do something?
+            ArgusNotifierMetrics.onFailure(tokenExpired);
             if (logger.isLoggable(Level.WARNING)) {
-                logger.warning("Token expired.");
+                logger.log(Level.WARNING, "Argus Notifier: Token still expired after logging in again", tokenExpired);
             }
+            return Outcome.FAILED;
         } catch (UnknownHostException unknownHostException) {
+            ArgusNotifierMetrics.onFailure(unknownHostException);
             if (logger.isLoggable(Level.SEVERE)) {
                 logger.log(Level.SEVERE, UNKNOWN_HOST_MESSAGE, unknownHostException);
             }
+            return Outcome.FAILED;
         } catch (Exception e) {
+            ArgusNotifierMetrics.onFailure(e);
+            Outcome outcome = classify(e);
             if (logger.isLoggable(Level.SEVERE)) {
-                logger.log(Level.SEVERE, "Argus Notifier: Error", e);
+                logger.log(Level.SEVERE, outcome == Outcome.REJECTED ?
+                        "Argus Notifier: Argus rejected the data, it is not sent again" : "Argus Notifier: Error", e);
+            }
+            return outcome;
+        }
+    }
+
+    /**
+     * Only an answer from Argus is a rejection. Anything else, including runtime errors of the SDK while Argus is
+     * struggling, may go away, so it is retried and the data is spooled rather than dropped.
+     *
+     * @param failure what a call to Argus threw
+     * @return {@link Outcome#REJECTED} for client errors other than authentication, timeouts and rate limiting;
+     * {@link Outcome#FAILED} otherwise
+     */
+    static Outcome classify(Exception failure) {
+        int status = statusOf(failure);
+        boolean clientError = status >= 400 && status < 500 && status != HttpURLConnection.HTTP_UNAUTHORIZED &&
+                status != HttpURLConnection.HTTP_CLIENT_TIMEOUT && status != HTTP_TOO_MANY_REQUESTS;
+        return clientError ? Outcome.REJECTED : Outcome.FAILED;
+    }
+
+    private static int statusOf(Exception failure) {
+        if (failure instanceof ArgusHttpTransport.HttpStatusException) {
+            return ((ArgusHttpTransport.HttpStatusException) failure).getStatus();
+        }
+        if (failure instanceof ArgusServiceException) {
+            return ((ArgusServiceException) failure).getStatus();
+        }
+        return 0;
+    }
+
+    /**
+     * Send a payload, retrying failed attempts with backoff according to the retry policy. Attempts go through the
+     * endpoint's {@link ArgusCircuitBreaker}; while it is open the send fails right away without contacting Argus.
+     * <p>
+     * Metrics and annotations are separate calls. A part that was sent is not sent again by a retry, and a part that
+     * Argus rejected is dropped rather than retried, since it would be rejected again. Rejections do not count
+     * against the circuit breaker: the endpoint is up.
+     *
+     * @param payload payload to send
+     * @param retryPolicy how often and how long to retry
+     * @return what is left to send later: null if everything was sent or rejected, otherwise the payload or the part
+     * of it that could not be sent
+     */
+    static ArgusPayload sendWithRetry(ArgusPayload payload, RetryPolicy retryPolicy) {
+        ArgusCircuitBreaker circuitBreaker =
+                ArgusCircuitBreaker.forEndpoint(payload.argusConnectionInfo.argusUrl);
+        List<Metric> metrics = payload.metrics;
+        List<Annotation> annotations = payload.annotations;
+        List<Metric> sentMetrics = Collections.emptyList();
+        List<Annotation> sentAnnotations = Collections.emptyList();
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Argus Notifier: circuit open, not sending to " + payload.argusConnectionInfo.argusUrl);
+                }
+                return unsent(payload, metrics, annotations);
+            }
+            Outcome outcome = Outcome.SENT;
+            if (!metrics.isEmpty()) {
+                outcome = putMetrics(payload.argusConnectionInfo, metrics);
+                if (outcome == Outcome.SENT) {
+                    sentMetrics = metrics;
+                } else if (outcome == Outcome.REJECTED) {
+                    ArgusNotifierMetrics.onRejected(metrics.size());
+                }
+                if (outcome != Outcome.FAILED) {
+                    metrics = Collections.emptyList();
+                }
+            }
+            if (outcome != Outcome.FAILED && !annotations.isEmpty()) {
+                outcome = putAnnotations(payload.argusConnectionInfo, annotations);
+                if (outcome == Outcome.SENT) {
+                    sentAnnotations = annotations;
+                } else if (outcome == Outcome.REJECTED) {
+                    ArgusNotifierMetrics.onRejected(annotations.size());
+                }
+                if (outcome != Outcome.FAILED) {
+                    annotations = Collections.emptyList();
+                }
+            }
+            if (outcome != Outcome.FAILED) {
+                circuitBreaker.onSuccess();
+                ArgusNotifierMetrics.onSent(new ArgusPayload(payload.argusConnectionInfo, sentMetrics,
+                        sentAnnotations, payload.createdMillis));
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info(SEND_SUCCESS_MESSAGE);
+                }
+                return null;
             }
+            circuitBreaker.onFailure();
+            if (!retryPolicy.canRetry(attempt)) {
+                return unsent(payload, metrics, annotations);
+            }
+            circuitBreaker.onRetry();
+            try {
+                Thread.sleep(retryPolicy.delayMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return unsent(payload, metrics, annotations);
+            }
+        }
+    }
+
+    private static ArgusPayload unsent(ArgusPayload payload, List<Metric> metrics, List<Annotation> annotations) {
+        if (metrics == payload.metrics && annotations == payload.annotations) {
+            return payload;
         }
+        return new ArgusPayload(payload.argusConnectionInfo, metrics, annotations, payload.createdMillis);
     }
 
     /**
@@ -81,6 +242,8 @@ class ArgusDataSender {
     static boolean testConnection(String argusUrl, UsernamePasswordCredentials credentials) {
         try (ArgusService service = ArgusService.getInstance(argusUrl, 1)) {
             service.getAuthService().login(credentials.getUsername(), credentials.getPassword().getPlainText());
+            // a working connection means there is no reason to keep short-circuiting sends
+            ArgusCircuitBreaker.forEndpoint(argusUrl).onSuccess();
             return true;
         } catch (UnknownHostException unknownHostException) {
             if (logger.isLoggable(Level.SEVERE)) {
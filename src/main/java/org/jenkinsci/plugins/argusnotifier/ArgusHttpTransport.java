@@ -0,0 +1,251 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.util.Secret;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Sends metrics and annotations to the Argus web service without the SDK. The JSON is written with a streaming
+ * generator straight into a gzip-compressed, chunked request body, so a large batch is never held in memory as a
+ * whole. If the server rejects compressed bodies (HTTP 415, or HTTP 400 with an error about the encoding), this
+ * transport stops sending for good and leaves the data to the caller, which sends it uncompressed through the SDK.
+ * Other errors are left to the caller as well, so a batch with bad data does not turn compression off.
+ * <p>
+ * The REST paths are pinned to the Argus web service API that argus-sdk 2.22.0 talks to: token login and logout
+ * under {@code /v2/auth} and the {@code /collection} endpoints. Check them against the SDK when upgrading it.
+ */
+class ArgusHttpTransport {
+    private static final Logger logger = Logger.getLogger(ArgusHttpTransport.class.getName());
+
+    // Argus web service API of argus-sdk 2.22.0
+    static final String LOGIN_PATH = "/v2/auth/login";
+    static final String LOGOUT_PATH = "/v2/auth/logout";
+    static final String METRICS_PATH = "/collection/metrics";
+    static final String ANNOTATIONS_PATH = "/collection/annotations";
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final int MAX_ERROR_BODY_CHARS = 4096;
+    private static final Pattern ENCODING_ERROR = Pattern.compile("gzip|encoding|compress", Pattern.CASE_INSENSITIVE);
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+
+    private final ArgusConnectionInfo argusConnectionInfo;
+    private volatile String accessToken;
+    private volatile boolean compressionSupported = true;
+
+    ArgusHttpTransport(ArgusConnectionInfo argusConnectionInfo) {
+        this.argusConnectionInfo = argusConnectionInfo;
+    }
+
+    /**
+     * @param metrics metrics to send
+     * @return false if the server does not accept compressed requests and nothing was sent
+     */
+    boolean putMetrics(List<Metric> metrics) throws IOException {
+        return post(METRICS_PATH, metrics);
+    }
+
+    /**
+     * @param annotations annotations to send
+     * @return false if the server does not accept compressed requests and nothing was sent
+     */
+    boolean putAnnotations(List<Annotation> annotations) throws IOException {
+        return post(ANNOTATIONS_PATH, annotations);
+    }
+
+    boolean isCompressionSupported() {
+        return compressionSupported;
+    }
+
+    private boolean post(String path, List<?> entities) throws IOException {
+        if (!compressionSupported) {
+            return false;
+        }
+        if (accessToken == null) {
+            login();
+        }
+        Response response = send(path, entities);
+        if (response.status == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            login();
+            response = send(path, entities);
+        }
+        if (isEncodingRejected(response.status, response.errorBody)) {
+            compressionSupported = false;
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("Argus Notifier: " + argusConnectionInfo.argusUrl +
+                        " does not accept compressed requests, sending uncompressed through the SDK from now on");
+            }
+            return false;
+        }
+        if (!isSuccess(response.status)) {
+            throw new HttpStatusException(response.status, argusConnectionInfo.argusUrl + path);
+        }
+        return true;
+    }
+
+    /**
+     * @param status status of a compressed request
+     * @param errorBody start of the error response, may be null
+     * @return true if the server refused the request because it was compressed, rather than because of its content
+     */
+    static boolean isEncodingRejected(int status, String errorBody) {
+        return status == HttpURLConnection.HTTP_UNSUPPORTED_TYPE ||
+                (status == HttpURLConnection.HTTP_BAD_REQUEST && errorBody != null &&
+                        ENCODING_ERROR.matcher(errorBody).find());
+    }
+
+    /**
+     * Log out the access token, if there is one. Failures are only logged, the token expires anyway.
+     */
+    synchronized void logout() {
+        String token = accessToken;
+        accessToken = null;
+        if (token == null) {
+            return;
+        }
+        try (Timer.Context ignored = ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_LOGOUT).time()) {
+            HttpURLConnection connection = open(LOGOUT_PATH);
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+            connection.setFixedLengthStreamingMode(0);
+            connection.getOutputStream().close();
+            drain(connection);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Argus Notifier: Error logging out", e);
+        }
+    }
+
+    private synchronized void login() throws IOException {
+        try (Timer.Context ignored = ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_LOGIN).time()) {
+            accessToken = null;
+            HttpURLConnection connection = open(LOGIN_PATH);
+            byte[] body = MAPPER.writeValueAsBytes(MAPPER.createObjectNode()
+                    .put("username", argusConnectionInfo.credentials.getUsername())
+                    .put("password", Secret.toString(argusConnectionInfo.credentials.getPassword())));
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            if (!isSuccess(status)) {
+                drain(connection);
+                throw new IOException("Argus Notifier: login failed with HTTP " + status);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                JsonNode token = MAPPER.readTree(in).get("accessToken");
+                if (token == null) {
+                    throw new IOException("Argus Notifier: no access token in login response");
+                }
+                accessToken = token.asText();
+            }
+        }
+    }
+
+    private Response send(String path, List<?> entities) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setChunkedStreamingMode(CHUNK_BYTES);
+        try (OutputStream out = ReusableGzipOutputStream.forCurrentThread().start(connection.getOutputStream());
+             JsonGenerator generator = MAPPER.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (Object entity : entities) {
+                MAPPER.writeValue(generator, entity);
+            }
+            generator.writeEndArray();
+        }
+        int status = connection.getResponseCode();
+        return new Response(status, drain(connection));
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(argusConnectionInfo.argusUrl + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    /**
+     * Read the response so the connection can be reused by the keep-alive cache.
+     *
+     * @return the start of the body of an error response, null for a successful one
+     */
+    private static String drain(HttpURLConnection connection) {
+        try {
+            boolean success = isSuccess(connection.getResponseCode());
+            try (InputStream in = success ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in == null) {
+                    return null;
+                }
+                StringBuilder errorBody = success ? null : new StringBuilder();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (errorBody != null && errorBody.length() < MAX_ERROR_BODY_CHARS) {
+                        errorBody.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+                    }
+                }
+                return errorBody == null ? null : errorBody.toString();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Argus Notifier: Error reading response", e);
+            return null;
+        }
+    }
+
+    private static boolean isSuccess(int status) {
+        return status >= 200 && status < 300;
+    }
+
+    private static final class Response {
+        final int status;
+        final String errorBody;
+
+        Response(int status, String errorBody) {
+            this.status = status;
+            this.errorBody = errorBody;
+        }
+    }
+
+    /**
+     * A request that Argus answered with an unsuccessful status.
+     */
+    static class HttpStatusException extends IOException {
+        private final int status;
+
+        HttpStatusException(int status, String url) {
+            super("Argus Notifier: HTTP " + status + " from " + url);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+}
@@ -7,10 +7,12 @@ import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.salesforce.dva.argus.sdk.entity.Annotation;
 import com.salesforce.dva.argus.sdk.entity.Metric;
 import hudson.Extension;
 import hudson.Launcher;
+import hudson.init.Terminator;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
@@ -31,10 +33,16 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -54,6 +62,7 @@ import java.util.logging.Logger;
 public class ArgusNotifier extends Notifier {
 
     private static final Logger logger = Logger.getLogger(ArgusNotifier.class.getName());
+    private static final long SEND_QUEUE_FINISH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
     @DataBoundConstructor
@@ -71,16 +80,18 @@ public class ArgusNotifier extends Notifier {
 
     @Override
     public boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
-        ArgusConnectionInfo argusConnectionInfo = getDescriptor().getArgusConnectionInfo();
-        String scope = getDescriptor().scope;
-        String source = getDescriptor().source;
+        ArgusConfiguration configuration = getDescriptor().getConfiguration();
+        ArgusConnectionInfo argusConnectionInfo = configuration.getArgusConnectionInfo();
+        String scope = configuration.getScope();
+        String source = configuration.getSource();
 
         Jenkins jenkins = Jenkins.getInstance();
 
         OffsetDateTime now = OffsetDateTime.now();
         long metricTimestamp = now.toEpochSecond();
 
-        BuildMetricFactory buildMetricFactory = new BuildMetricFactory(jenkins, build, metricTimestamp, scope);
+        RunSnapshot runSnapshot = RunSnapshot.of(jenkins, build);
+        BuildMetricFactory buildMetricFactory = new BuildMetricFactory(build, runSnapshot, metricTimestamp, scope);
 
         List<Metric> metrics =
                 ImmutableList.<Metric>builder()
@@ -88,10 +99,11 @@ public class ArgusNotifier extends Notifier {
                         .addAll(buildMetricFactory.getBuildTimeMetrics())
                         .build();
 
-        AnnotationFactory annotationFactory = new AnnotationFactory(jenkins, build, metricTimestamp, scope, source);
-        List<Annotation> annotations = annotationFactory.getAnnotationsFor(metrics);
+        AnnotationFactory annotationFactory = new AnnotationFactory(runSnapshot, metricTimestamp, scope, source);
+        List<Annotation> annotations =
+                annotationFactory.getAnnotationsFor(metrics, configuration.getAnnotationMode());
 
-        ArgusDataSender.sendArgusData(argusConnectionInfo, metrics, annotations);
+        getDescriptor().publish(new ArgusPayload(argusConnectionInfo, metrics, annotations));
         return true;
     }
 
@@ -124,6 +136,42 @@ public class ArgusNotifier extends Notifier {
          */
         private String credentialsId, argusUrl, scope, source;
         private boolean sendForAllBuilds = true, sendSystemMetrics = true;
+        private boolean sendPipelineStageMetrics;
+        private boolean sendRunningBuildMetrics;
+        private boolean sendLabelMetrics;
+        private AnnotationFactory.Mode annotationMode = AnnotationFactory.Mode.PER_METRIC;
+        private int sendQueueCapacity = ArgusSendQueue.DEFAULT_CAPACITY;
+        private int sendWorkerCount = ArgusSendQueue.DEFAULT_WORKER_COUNT;
+        private ArgusSendQueue.OverflowPolicy sendQueueOverflowPolicy = ArgusSendQueue.OverflowPolicy.DROP_OLDEST;
+        private int batchSize = ArgusSendQueue.DEFAULT_BATCH_SIZE;
+        private long batchLingerMillis = ArgusSendQueue.DEFAULT_BATCH_LINGER_MILLIS;
+        private boolean spoolEnabled = true;
+        private long spoolMaxMegabytes = ArgusSpool.DEFAULT_MAX_MEGABYTES;
+        private long spoolMaxAgeHours = ArgusSpool.DEFAULT_MAX_AGE_HOURS;
+        private int spoolReplayMetricsPerSecond = ArgusSpool.DEFAULT_REPLAY_METRICS_PER_SECOND;
+        private int retryMaxAttempts = RetryPolicy.DEFAULT_MAX_ATTEMPTS;
+        private long retryInitialDelayMillis = RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS;
+        private long retryMaxDelayMillis = RetryPolicy.DEFAULT_MAX_DELAY_MILLIS;
+        private int circuitBreakerFailureThreshold = ArgusCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+        private long circuitBreakerOpenSeconds = ArgusCircuitBreaker.DEFAULT_OPEN_SECONDS;
+        private boolean sendChangedGaugesOnly;
+        private double gaugeChangeEpsilon = GaugeDeltaTracker.DEFAULT_EPSILON;
+        private int fullRefreshIntervals = GaugeDeltaTracker.DEFAULT_FULL_REFRESH_INTERVALS;
+        private String snapshotQuantiles = SystemMetricFactory.DEFAULT_QUANTILES;
+        private String metricIncludes, metricExcludes;
+        private int samplingIntervalSeconds = GaugeSampler.DEFAULT_INTERVAL_SECONDS;
+        private GaugeSampler.Aggregation sampleAggregation = GaugeSampler.Aggregation.SUMMARY;
+        private boolean compressRequests;
+        private int tagCardinalityThreshold = TagCardinalityGuard.DEFAULT_THRESHOLD;
+        private TagCardinalityGuard.Policy buildNumberTagPolicy = TagCardinalityGuard.Policy.KEEP;
+        private TagCardinalityGuard.Policy gitCommitTagPolicy = TagCardinalityGuard.Policy.KEEP;
+        private List<ArgusTarget> additionalTargets = new ArrayList<>();
+
+        private transient volatile ArgusSendQueue sendQueue;
+        private transient volatile List<ArgusTargetPipeline> targetPipelines;
+        private transient volatile ArgusConfiguration configuration;
+        private final transient TagCardinalityGuard tagCardinalityGuard = new TagCardinalityGuard();
+        private transient volatile ArgusSpool spool;
 
         public String getCredentialsId() {
             return credentialsId;
@@ -143,14 +191,467 @@ public class ArgusNotifier extends Notifier {
         public boolean isSendSystemMetrics() {
             return sendSystemMetrics;
         }
+        public boolean isSendPipelineStageMetrics() {
+            return sendPipelineStageMetrics;
+        }
+        public boolean isSendRunningBuildMetrics() {
+            return sendRunningBuildMetrics;
+        }
+        public boolean isSendLabelMetrics() {
+            return sendLabelMetrics;
+        }
+        public AnnotationFactory.Mode getAnnotationMode() {
+            return annotationMode == null ? AnnotationFactory.Mode.PER_METRIC : annotationMode;
+        }
+        public int getSendQueueCapacity() {
+            return sendQueueCapacity;
+        }
+        public int getSendWorkerCount() {
+            return sendWorkerCount;
+        }
+        public ArgusSendQueue.OverflowPolicy getSendQueueOverflowPolicy() {
+            return sendQueueOverflowPolicy;
+        }
+        public int getBatchSize() {
+            return batchSize;
+        }
+        public long getBatchLingerMillis() {
+            return batchLingerMillis;
+        }
+        public boolean isSpoolEnabled() {
+            return spoolEnabled;
+        }
+        public long getSpoolMaxMegabytes() {
+            return spoolMaxMegabytes;
+        }
+        public long getSpoolMaxAgeHours() {
+            return spoolMaxAgeHours;
+        }
+        public int getSpoolReplayMetricsPerSecond() {
+            return spoolReplayMetricsPerSecond;
+        }
+        public int getRetryMaxAttempts() {
+            return retryMaxAttempts;
+        }
+        public long getRetryInitialDelayMillis() {
+            return retryInitialDelayMillis;
+        }
+        public long getRetryMaxDelayMillis() {
+            return retryMaxDelayMillis;
+        }
+        public int getCircuitBreakerFailureThreshold() {
+            return circuitBreakerFailureThreshold;
+        }
+        public long getCircuitBreakerOpenSeconds() {
+            return circuitBreakerOpenSeconds;
+        }
+
+        public boolean isSendChangedGaugesOnly() {
+            return sendChangedGaugesOnly;
+        }
+        public double getGaugeChangeEpsilon() {
+            return gaugeChangeEpsilon;
+        }
+        public int getFullRefreshIntervals() {
+            return fullRefreshIntervals;
+        }
+        public String getSnapshotQuantiles() {
+            return snapshotQuantiles;
+        }
+        public String getMetricIncludes() {
+            return metricIncludes;
+        }
+        public String getMetricExcludes() {
+            return metricExcludes;
+        }
+        public int getSamplingIntervalSeconds() {
+            return samplingIntervalSeconds;
+        }
+        public GaugeSampler.Aggregation getSampleAggregation() {
+            return sampleAggregation;
+        }
+        public boolean isCompressRequests() {
+            return compressRequests;
+        }
+        public int getTagCardinalityThreshold() {
+            return tagCardinalityThreshold;
+        }
+        public TagCardinalityGuard.Policy getBuildNumberTagPolicy() {
+            return buildNumberTagPolicy == null ? TagCardinalityGuard.Policy.KEEP : buildNumberTagPolicy;
+        }
+        public TagCardinalityGuard.Policy getGitCommitTagPolicy() {
+            return gitCommitTagPolicy == null ? TagCardinalityGuard.Policy.KEEP : gitCommitTagPolicy;
+        }
+        TagCardinalityGuard.Settings getTagCardinalitySettings() {
+            return new TagCardinalityGuard.Settings(tagCardinalityThreshold, ImmutableMap.of(
+                    TagFactory.Tag.BUILD_NUMBER, getBuildNumberTagPolicy(),
+                    TagFactory.Tag.GIT_COMMIT, getGitCommitTagPolicy()));
+        }
+        /**
+         * @return distinct tag value estimates, shown on the {@link ArgusCardinalityLink} page
+         */
+        TagCardinalityGuard getTagCardinalityGuard() {
+            return tagCardinalityGuard;
+        }
+
+        /**
+         * Remember when the notifier was first configured, so a backfill sends only the builds that started before
+         * (see {@link ArgusBackfill}).
+         */
+        private void recordBackfillCutoff() {
+            if (!isNotifierConfigured()) {
+                return;
+            }
+            try {
+                ArgusBackfill.recordSetupTime(Jenkins.getInstance(), System.currentTimeMillis());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Argus Notifier: Could not record the setup time for the backfill", e);
+            }
+        }
+
+        private void loadTagCardinalityEstimates() {
+            try {
+                tagCardinalityGuard.load(getPluginDirectory().resolve(TagCardinalityGuard.ESTIMATES_FILE));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Argus Notifier: Could not load the tag cardinality estimates", e);
+            }
+        }
+
+        /**
+         * Save the tag cardinality estimates if they changed, so limited tags stay limited after a restart. Called
+         * every minute and at shutdown.
+         */
+        void saveTagCardinalityEstimates() {
+            try {
+                tagCardinalityGuard.save(getPluginDirectory().resolve(TagCardinalityGuard.ESTIMATES_FILE));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Argus Notifier: Could not save the tag cardinality estimates", e);
+            }
+        }
+        public List<ArgusTarget> getAdditionalTargets() {
+            return additionalTargets == null ? Collections.emptyList() : additionalTargets;
+        }
+
+        /**
+         * Snapshot of the settings used to build and send data, replaced as a whole at load and on every
+         * configuration change. Hot paths should read it once and use that snapshot throughout. The credentials
+         * in it are resolved again once they are older than the {@link CredentialsCache} time-to-live.
+         *
+         * @return the current configuration
+         */
+        ArgusConfiguration getConfiguration() {
+            ArgusConfiguration current = configuration;
+            long now = System.nanoTime();
+            if (current.isOlderThan(now, CredentialsCache.get().getTtlNanos())) {
+                current = refreshCredentials(current, now);
+            }
+            return current;
+        }
+
+        /**
+         * Resolve the credentials of the current configuration again, e.g. after the credentials have changed.
+         */
+        void refreshCredentials() {
+            refreshCredentials(configuration, System.nanoTime());
+        }
+
+        private ArgusConfiguration refreshCredentials(ArgusConfiguration expected, long now) {
+            ArgusConfiguration refreshed;
+            synchronized (this) {
+                // a configuration change may have replaced the snapshot in the meantime, which is fresh anyway
+                if (configuration != expected) {
+                    return configuration;
+                }
+                refreshed = expected.withRefreshedCredentials(now);
+                configuration = refreshed;
+            }
+            // credentials can change without a configuration change; retire the sessions for the old ones
+            ArgusSessionManager.retainOnly(getAllConnectionInfos(), sendWorkerCount);
+            return refreshed;
+        }
+
+        private synchronized void updateConfiguration() {
+            configuration = new ArgusConfiguration(this, System.nanoTime());
+        }
+
+        /**
+         * Human readable state of the circuit breaker of the configured Argus endpoint, shown in the global
+         * configuration.
+         *
+         * @return breaker state, consecutive failures, retries and short-circuited sends
+         */
+        public String getCircuitBreakerStatus() {
+            if (argusUrl == null || argusUrl.trim().isEmpty()) {
+                return "";
+            }
+            ArgusCircuitBreaker circuitBreaker = ArgusCircuitBreaker.forEndpoint(argusUrl);
+            return MessageFormat.format("{0} ({1} consecutive failures, {2} retries, {3} sends short-circuited)",
+                    circuitBreaker.getState(), circuitBreaker.getConsecutiveFailures(),
+                    circuitBreaker.getRetryCount(), circuitBreaker.getShortCircuitedCount());
+        }
+
         ArgusConnectionInfo getArgusConnectionInfo() {
-            return new ArgusConnectionInfo(argusUrl, getCredentialsById(getCredentialsId()));
+            return getConfiguration().getArgusConnectionInfo();
+        }
+
+        /**
+         * Queue that sends Argus data off of the calling thread. Created on first use and rebuilt when the queue
+         * settings change.
+         *
+         * @return the send queue
+         */
+        ArgusSendQueue getSendQueue() {
+            ArgusSendQueue queue = sendQueue;
+            if (queue == null) {
+                synchronized (this) {
+                    queue = sendQueue;
+                    if (queue == null) {
+                        queue = new ArgusSendQueue(getConfiguration().getSendQueueSettings(), this::send,
+                                this::spool);
+                        sendQueue = queue;
+                    }
+                }
+            }
+            return queue;
+        }
+
+        /**
+         * Send pipelines of the additional targets of the {@link #getConfiguration() configuration}. Created on first
+         * use and rebuilt when the targets or the queue settings change.
+         *
+         * @return one pipeline per configured additional target
+         */
+        List<ArgusTargetPipeline> getTargetPipelines() {
+            List<ArgusTargetPipeline> pipelines = targetPipelines;
+            if (pipelines == null) {
+                synchronized (this) {
+                    pipelines = targetPipelines;
+                    if (pipelines == null) {
+                        pipelines = createTargetPipelines();
+                        targetPipelines = pipelines;
+                    }
+                }
+            }
+            return pipelines;
+        }
+
+        private List<ArgusTargetPipeline> createTargetPipelines() {
+            ArgusConfiguration current = getConfiguration();
+            deleteUnusedTargetDirectories();
+            List<ArgusTargetPipeline> pipelines = new ArrayList<>();
+            Set<String> targetKeys = new HashSet<>();
+            for (ArgusTarget target : current.getAdditionalTargets()) {
+                if (!target.isConfigured()) {
+                    continue;
+                }
+                // configure() rejects duplicates, but a configuration saved before it did may still have them
+                if (!targetKeys.add(ArgusTargetPipeline.targetKey(target))) {
+                    logger.warning("Argus Notifier: Ignoring duplicate target " + target.getArgusUrl() +
+                            " with scope " + target.getScope());
+                    continue;
+                }
+                ArgusSpool targetSpool = ArgusTargetPipeline.createSpool(getPluginDirectory(), target,
+                        current.getSpoolMaxMegabytes(), current.getSpoolMaxAgeHours());
+                pipelines.add(new ArgusTargetPipeline(target, target::getArgusConnectionInfo,
+                        current.getSendQueueSettings(), targetSpool, current.isSpoolEnabled(),
+                        () -> getConfiguration().getRetryPolicy()));
+            }
+            return Collections.unmodifiableList(pipelines);
+        }
+
+        private synchronized void deleteUnusedTargetDirectories() {
+            ArgusTargetPipeline.deleteUnusedDirectories(getPluginDirectory(),
+                    getConfiguration().getAdditionalTargets());
+        }
+
+        /**
+         * Queue a payload for the main target and every additional target. Never blocks; each target has its own
+         * queue, so a slow target does not hold up the others. Tags with a value per build are limited first (see
+         * {@link TagCardinalityGuard}).
+         *
+         * @param payload payload built for the main target
+         */
+        void publish(ArgusPayload payload) {
+            tagCardinalityGuard.apply(payload.metrics, payload.annotations,
+                    getConfiguration().getTagCardinalitySettings());
+            getSendQueue().enqueue(payload);
+            for (ArgusTargetPipeline pipeline : getTargetPipelines()) {
+                pipeline.offer(payload);
+            }
+        }
+
+        long getSendQueueDepth() {
+            ArgusSendQueue queue = sendQueue;
+            long depth = queue == null ? 0L : queue.size();
+            List<ArgusTargetPipeline> pipelines = targetPipelines;
+            if (pipelines != null) {
+                for (ArgusTargetPipeline pipeline : pipelines) {
+                    depth += pipeline.getSendQueue().size();
+                }
+            }
+            return depth;
+        }
+
+        long getDroppedPayloadCount() {
+            ArgusSendQueue queue = sendQueue;
+            long dropped = queue == null ? 0L : queue.getDroppedCount();
+            List<ArgusTargetPipeline> pipelines = targetPipelines;
+            if (pipelines != null) {
+                for (ArgusTargetPipeline pipeline : pipelines) {
+                    dropped += pipeline.getSendQueue().getDroppedCount();
+                }
+            }
+            return dropped;
+        }
+
+        long getSpoolSizeInBytes() {
+            long size = ArgusNotifierMetrics.sizeOrZero(spool);
+            List<ArgusTargetPipeline> pipelines = targetPipelines;
+            if (pipelines != null) {
+                for (ArgusTargetPipeline pipeline : pipelines) {
+                    size += ArgusNotifierMetrics.sizeOrZero(pipeline.getSpool());
+                }
+            }
+            return size;
+        }
+
+        private synchronized void updateSendQueue() {
+            ArgusSendQueue queue = sendQueue;
+            ArgusSendQueue.Settings settings = getConfiguration().getSendQueueSettings();
+            if (queue != null && !queue.getSettings().equals(settings)) {
+                sendQueue = queue.replaceWith(settings);
+            }
+        }
+
+        /**
+         * Apply a configuration change to the running target pipelines: new spool limits are applied in place, any
+         * other change to the targets, the queue settings or spooling rebuilds them.
+         */
+        private synchronized void updateTargetPipelines(ArgusConfiguration previous) {
+            List<ArgusTargetPipeline> pipelines = targetPipelines;
+            if (pipelines == null) {
+                return;
+            }
+            ArgusConfiguration current = getConfiguration();
+            if (!previous.getSendQueueSettings().equals(current.getSendQueueSettings()) ||
+                    previous.isSpoolEnabled() != current.isSpoolEnabled() ||
+                    !previous.getAdditionalTargets().equals(current.getAdditionalTargets())) {
+                resetTargetPipelines();
+                return;
+            }
+            for (ArgusTargetPipeline pipeline : pipelines) {
+                if (pipeline.getSpool() != null) {
+                    pipeline.getSpool().setLimits(current.getSpoolMaxMegabytes(), current.getSpoolMaxAgeHours());
+                }
+            }
+        }
+
+        /**
+         * Rebuild the target pipelines on next use. Anything still queued for a target that is still configured is
+         * spooled to the target's spool directory, which the new pipeline for the same URL and scope picks up again.
+         * Pipelines of removed targets are retired instead: they send what is queued and then their directory is
+         * deleted.
+         */
+        private synchronized void resetTargetPipelines() {
+            List<ArgusTargetPipeline> pipelines = targetPipelines;
+            targetPipelines = null;
+            if (pipelines == null) {
+                return;
+            }
+            Set<String> targetKeys = new HashSet<>();
+            for (ArgusTarget target : getConfiguration().getAdditionalTargets()) {
+                targetKeys.add(ArgusTargetPipeline.targetKey(target));
+            }
+            for (ArgusTargetPipeline pipeline : pipelines) {
+                if (targetKeys.contains(ArgusTargetPipeline.targetKey(pipeline.getTarget()))) {
+                    pipeline.shutdown();
+                } else {
+                    pipeline.retire(this::deleteUnusedTargetDirectories);
+                }
+            }
+        }
+
+        /**
+         * Send what is queued while Jenkins stops, for a little while. Only what is left after that is spooled, so
+         * queued data is not lost on restart unless Argus is unreachable and the spool is disabled.
+         */
+        private synchronized void shutdownSendQueue() {
+            resetTargetPipelines();
+            if (sendQueue != null) {
+                sendQueue.finish(SEND_QUEUE_FINISH_TIMEOUT_MILLIS);
+                for (ArgusPayload pending : sendQueue.drainPending()) {
+                    spool(pending);
+                }
+                sendQueue = null;
+            }
+            if (spool != null) {
+                spool.close();
+            }
+        }
+
+        /**
+         * Send the payload with retries. What could not be sent is written to the spool by the queue.
+         *
+         * @return the part of the payload that could not be sent, or null
+         */
+        private ArgusPayload send(ArgusPayload payload) {
+            return ArgusDataSender.sendWithRetry(payload, getConfiguration().getRetryPolicy());
+        }
+
+        private void spool(ArgusPayload payload) {
+            ArgusSpool currentSpool = getConfiguration().isSpoolEnabled() ? getSpool() : null;
+            if (currentSpool != null) {
+                currentSpool.append(payload);
+            }
+        }
+
+        /**
+         * Disk spool under JENKINS_HOME for payloads that could not be sent. It is there even when spooling is turned
+         * off, so that what was spooled before is still replayed; nothing new is written to it then.
+         *
+         * @return the spool, or null if the spool directory cannot be used
+         */
+        ArgusSpool getSpool() {
+            ArgusSpool currentSpool = spool;
+            if (currentSpool == null) {
+                synchronized (this) {
+                    currentSpool = spool;
+                    if (currentSpool == null) {
+                        try {
+                            ArgusConfiguration current = getConfiguration();
+                            currentSpool = new ArgusSpool(getPluginDirectory().resolve(ArgusSpool.SPOOL_DIRECTORY),
+                                    current.getSpoolMaxMegabytes(), current.getSpoolMaxAgeHours());
+                            spool = currentSpool;
+                        } catch (IOException e) {
+                            logger.log(Level.SEVERE, "Argus Notifier: Could not read the spool directory", e);
+                        }
+                    }
+                }
+            }
+            return currentSpool;
+        }
+
+        private static Path getPluginDirectory() {
+            return Jenkins.getInstance().getRootDir().toPath().resolve(ArgusSpool.PLUGIN_DIRECTORY);
+        }
+
+        /**
+         * @return connection infos of the main target and all configured additional targets
+         */
+        private Set<ArgusConnectionInfo> getAllConnectionInfos() {
+            ArgusConfiguration current = getConfiguration();
+            Set<ArgusConnectionInfo> connectionInfos = new HashSet<>();
+            connectionInfos.add(current.getArgusConnectionInfo());
+            for (ArgusTarget target : current.getAdditionalTargets()) {
+                if (target.isConfigured()) {
+                    connectionInfos.add(target.getArgusConnectionInfo());
+                }
+            }
+            return connectionInfos;
         }
 
         boolean isNotifierConfigured() {
-            return credentialsId != null && !credentialsId.trim().isEmpty() &&
-                    argusUrl != null && !argusUrl.trim().isEmpty() &&
-                    scope != null && !scope.trim().isEmpty();
+            return getConfiguration().isNotifierConfigured();
         }
 
         /**
@@ -159,6 +660,11 @@ public class ArgusNotifier extends Notifier {
          */
         public DescriptorImpl() {
             load();
+            loadTagCardinalityEstimates();
+            updateConfiguration();
+            recordBackfillCutoff();
+            ArgusSessionManager.retainOnly(Collections.emptySet(), sendWorkerCount);
+            ArgusCircuitBreaker.configure(circuitBreakerFailureThreshold, circuitBreakerOpenSeconds);
         }
 
         /**
@@ -227,18 +733,232 @@ public class ArgusNotifier extends Notifier {
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
             // To persist global configuration information,
             // set that to properties and call save().
+            List<ArgusTarget> newTargets = new ArrayList<>(req.bindJSONToList(ArgusTarget.class,
+                    formData.opt("additionalTargets")));
+            ArgusTarget duplicate = ArgusTargetPipeline.findDuplicate(newTargets);
+            if (duplicate != null) {
+                throw new FormException("There is more than one additional target for " + duplicate.getArgusUrl() +
+                        " with scope " + duplicate.getScope(), "additionalTargets");
+            }
+            ArgusConfiguration previous = getConfiguration();
             credentialsId = formData.getString("credentialsId");
             argusUrl = stripTrailingSlash(formData.getString("argusUrl"));
             scope = formData.getString("scope");
             source = formData.getString("source");
             sendForAllBuilds = formData.getBoolean("sendForAllBuilds");
             sendSystemMetrics = formData.getBoolean("sendSystemMetrics");
+            sendPipelineStageMetrics = formData.optBoolean("sendPipelineStageMetrics", false);
+            sendRunningBuildMetrics = formData.optBoolean("sendRunningBuildMetrics", false);
+            sendLabelMetrics = formData.optBoolean("sendLabelMetrics", false);
+            annotationMode = parseEnum(AnnotationFactory.Mode.class, "annotationMode",
+                    formData.optString("annotationMode"), AnnotationFactory.Mode.PER_METRIC);
+            sendQueueCapacity = Math.max(1, formData.optInt("sendQueueCapacity", ArgusSendQueue.DEFAULT_CAPACITY));
+            sendWorkerCount = Math.max(1, formData.optInt("sendWorkerCount", ArgusSendQueue.DEFAULT_WORKER_COUNT));
+            sendQueueOverflowPolicy = parseEnum(ArgusSendQueue.OverflowPolicy.class, "sendQueueOverflowPolicy",
+                    formData.optString("sendQueueOverflowPolicy"), ArgusSendQueue.OverflowPolicy.DROP_OLDEST);
+            batchSize = Math.max(1, formData.optInt("batchSize", ArgusSendQueue.DEFAULT_BATCH_SIZE));
+            batchLingerMillis = Math.max(0L, formData.optLong("batchLingerMillis", ArgusSendQueue.DEFAULT_BATCH_LINGER_MILLIS));
+            spoolEnabled = formData.optBoolean("spoolEnabled", true);
+            spoolMaxMegabytes = Math.max(1L, formData.optLong("spoolMaxMegabytes", ArgusSpool.DEFAULT_MAX_MEGABYTES));
+            spoolMaxAgeHours = Math.max(1L, formData.optLong("spoolMaxAgeHours", ArgusSpool.DEFAULT_MAX_AGE_HOURS));
+            spoolReplayMetricsPerSecond = Math.max(1,
+                    formData.optInt("spoolReplayMetricsPerSecond", ArgusSpool.DEFAULT_REPLAY_METRICS_PER_SECOND));
+            retryMaxAttempts = Math.max(1, formData.optInt("retryMaxAttempts", RetryPolicy.DEFAULT_MAX_ATTEMPTS));
+            retryInitialDelayMillis = Math.max(0L,
+                    formData.optLong("retryInitialDelayMillis", RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS));
+            retryMaxDelayMillis = Math.max(retryInitialDelayMillis,
+                    formData.optLong("retryMaxDelayMillis", RetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+            circuitBreakerFailureThreshold = Math.max(1,
+                    formData.optInt("circuitBreakerFailureThreshold", ArgusCircuitBreaker.DEFAULT_FAILURE_THRESHOLD));
+            circuitBreakerOpenSeconds = Math.max(1L,
+                    formData.optLong("circuitBreakerOpenSeconds", ArgusCircuitBreaker.DEFAULT_OPEN_SECONDS));
+            sendChangedGaugesOnly = formData.optBoolean("sendChangedGaugesOnly", false);
+            gaugeChangeEpsilon = Math.max(0.0,
+                    formData.optDouble("gaugeChangeEpsilon", GaugeDeltaTracker.DEFAULT_EPSILON));
+            fullRefreshIntervals = Math.max(1,
+                    formData.optInt("fullRefreshIntervals", GaugeDeltaTracker.DEFAULT_FULL_REFRESH_INTERVALS));
+            snapshotQuantiles = formData.optString("snapshotQuantiles", SystemMetricFactory.DEFAULT_QUANTILES);
+            metricIncludes = formData.optString("metricIncludes", null);
+            metricExcludes = formData.optString("metricExcludes", null);
+            samplingIntervalSeconds = Math.max(0,
+                    formData.optInt("samplingIntervalSeconds", GaugeSampler.DEFAULT_INTERVAL_SECONDS));
+            sampleAggregation = parseEnum(GaugeSampler.Aggregation.class, "sampleAggregation",
+                    formData.optString("sampleAggregation"), GaugeSampler.Aggregation.SUMMARY);
+            compressRequests = formData.optBoolean("compressRequests", false);
+            tagCardinalityThreshold = Math.max(1,
+                    formData.optInt("tagCardinalityThreshold", TagCardinalityGuard.DEFAULT_THRESHOLD));
+            buildNumberTagPolicy = parseEnum(TagCardinalityGuard.Policy.class, "buildNumberTagPolicy",
+                    formData.optString("buildNumberTagPolicy"), TagCardinalityGuard.Policy.KEEP);
+            gitCommitTagPolicy = parseEnum(TagCardinalityGuard.Policy.class, "gitCommitTagPolicy",
+                    formData.optString("gitCommitTagPolicy"), TagCardinalityGuard.Policy.KEEP);
+            additionalTargets = newTargets;
             // ^Can also use req.bindJSON(this, formData);
             //  (easier when there are many fields; need set* methods for this, like setUseFrench)
             save();
+            CredentialsCache.get().invalidateAll();
+            updateConfiguration();
+            updateSendQueue();
+            updateTargetPipelines(previous);
+            if (spool != null) {
+                ArgusConfiguration current = getConfiguration();
+                spool.setLimits(current.getSpoolMaxMegabytes(), current.getSpoolMaxAgeHours());
+            }
+            ArgusCircuitBreaker.configure(circuitBreakerFailureThreshold, circuitBreakerOpenSeconds);
+            ArgusSessionManager.retainOnly(getAllConnectionInfos(), sendWorkerCount);
+            recordBackfillCutoff();
             return super.configure(req,formData);
         }
 
+        public FormValidation doCheckAnnotationMode(@QueryParameter String value) {
+            return validateEnum(AnnotationFactory.Mode.class, value);
+        }
+
+        public FormValidation doCheckSendQueueOverflowPolicy(@QueryParameter String value) {
+            return validateEnum(ArgusSendQueue.OverflowPolicy.class, value);
+        }
+
+        public FormValidation doCheckSampleAggregation(@QueryParameter String value) {
+            return validateEnum(GaugeSampler.Aggregation.class, value);
+        }
+
+        public FormValidation doCheckBuildNumberTagPolicy(@QueryParameter String value) {
+            return validateEnum(TagCardinalityGuard.Policy.class, value);
+        }
+
+        public FormValidation doCheckGitCommitTagPolicy(@QueryParameter String value) {
+            return validateEnum(TagCardinalityGuard.Policy.class, value);
+        }
+
+        public FormValidation doCheckSendLabelMetrics(@QueryParameter boolean value,
+                                                      @QueryParameter boolean sendSystemMetrics) {
+            if (value && !sendSystemMetrics) {
+                return FormValidation.warning("Label metrics are sent with the system metrics; "
+                        + "check Send system metrics? too");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckSendQueueCapacity(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckSendWorkerCount(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckBatchSize(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckBatchLingerMillis(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckSpoolMaxMegabytes(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckSpoolMaxAgeHours(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckSpoolReplayMetricsPerSecond(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckRetryMaxAttempts(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckRetryInitialDelayMillis(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckRetryMaxDelayMillis(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckCircuitBreakerFailureThreshold(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckCircuitBreakerOpenSeconds(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckGaugeChangeEpsilon(@QueryParameter String value) {
+            try {
+                if (Double.parseDouble(value) >= 0) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException e) {
+                // fall through to the error below
+            }
+            return FormValidation.error("Please enter a number that is 0 or greater");
+        }
+
+        public FormValidation doCheckFullRefreshIntervals(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckSnapshotQuantiles(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.ok();
+            }
+            if (SystemMetricFactory.parseQuantiles(value).length != value.split(",").length) {
+                return FormValidation.warning("Only numbers between 0 and 1 are used, each once; other entries are ignored");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckSamplingIntervalSeconds(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckTagCardinalityThreshold(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public ListBoxModel doFillBuildNumberTagPolicyItems() {
+            return tagPolicyItems();
+        }
+
+        public ListBoxModel doFillGitCommitTagPolicyItems() {
+            return tagPolicyItems();
+        }
+
+        private static ListBoxModel tagPolicyItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (TagCardinalityGuard.Policy policy : TagCardinalityGuard.Policy.values()) {
+                items.add(policy.getDisplayName(), policy.name());
+            }
+            return items;
+        }
+
+        public ListBoxModel doFillAnnotationModeItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (AnnotationFactory.Mode mode : AnnotationFactory.Mode.values()) {
+                items.add(mode.getDisplayName(), mode.name());
+            }
+            return items;
+        }
+
+        public ListBoxModel doFillSampleAggregationItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (GaugeSampler.Aggregation aggregation : GaugeSampler.Aggregation.values()) {
+                items.add(aggregation.getDisplayName(), aggregation.name());
+            }
+            return items;
+        }
+
+        public ListBoxModel doFillSendQueueOverflowPolicyItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (ArgusSendQueue.OverflowPolicy policy : ArgusSendQueue.OverflowPolicy.values()) {
+                items.add(policy.getDisplayName(), policy.name());
+            }
+            return items;
+        }
+
         /**
          * There is currently a limitation in the Argus SDK where a trailing slash triggers an authentication error.
          * This appears to be due to the way that they construct URLs. Once that is fixed, we can remove this.
@@ -253,6 +973,43 @@ public class ArgusNotifier extends Notifier {
             return url;
         }
 
+        /**
+         * Parse a dropdown value without failing the whole form on a value that is unknown, e.g. one saved by a newer
+         * version of the plugin or sent by a script.
+         *
+         * @param type enum type of the setting
+         * @param name name of the setting, for the log
+         * @param value submitted value; empty if the setting was not submitted
+         * @param defaultValue used if the value is empty or unknown
+         * @return the parsed value, or the default
+         */
+        static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value, E defaultValue) {
+            if (value == null || value.trim().isEmpty()) {
+                return defaultValue;
+            }
+            try {
+                return Enum.valueOf(type, value.trim());
+            } catch (IllegalArgumentException e) {
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.warning(MessageFormat.format("Argus Notifier: Unknown value {0} for {1}, using {2}",
+                            value, name, defaultValue));
+                }
+                return defaultValue;
+            }
+        }
+
+        static <E extends Enum<E>> FormValidation validateEnum(Class<E> type, String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.ok();
+            }
+            for (E constant : type.getEnumConstants()) {
+                if (constant.name().equals(value.trim())) {
+                    return FormValidation.ok();
+                }
+            }
+            return FormValidation.error("Unknown value " + value + "; the default is used instead");
+        }
+
         /**
          * Populate the credentials dropdown box
          * @return A ListBoxModel containing all global credentials
@@ -276,7 +1033,25 @@ public class ArgusNotifier extends Notifier {
     }
 
     /**
-     * Helper method to return credentials by id
+     * Stop the sender workers, spool anything still queued, save the tag cardinality estimates and log out of Argus
+     * when Jenkins shuts down.
+     */
+    @Terminator
+    public static void shutdown() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null) {
+            DescriptorImpl descriptor = jenkins.getDescriptorByType(DescriptorImpl.class);
+            if (descriptor != null) {
+                descriptor.shutdownSendQueue();
+                descriptor.saveTagCardinalityEstimates();
+            }
+        }
+        ArgusSessionManager.closeAll();
+    }
+
+    /**
+     * Helper method to return credentials by id. Looks up every credential in the system; use
+     * {@link CredentialsCache} when sending data.
      * @param id The credentials id
      * @return A UsernamePasswordCredential object that encapsulates usernames and passwords
      */
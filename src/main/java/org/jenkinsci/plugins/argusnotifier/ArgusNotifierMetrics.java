@@ -0,0 +1,161 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The notifier's own metrics, registered in {@link Metrics#metricRegistry()} so they show up on {@code /metrics}
+ * and are forwarded to Argus by the periodic sender like any other registry metric.
+ * <p>
+ * Until Jenkins and the Metrics plugin are up (and in unit tests) a private registry is used instead.
+ */
+class ArgusNotifierMetrics {
+    private static final Logger logger = Logger.getLogger(ArgusNotifierMetrics.class.getName());
+
+    static final String PREFIX = "argus.notifier";
+    static final String CALL_LOGIN = "login";
+    static final String CALL_PUT_METRICS = "put.metrics";
+    static final String CALL_PUT_ANNOTATIONS = "put.annotations";
+    static final String CALL_LOGOUT = "logout";
+
+    static final String METRICS_SENT = MetricRegistry.name(PREFIX, "metrics", "sent");
+    static final String ANNOTATIONS_SENT = MetricRegistry.name(PREFIX, "annotations", "sent");
+    static final String FAILURES = MetricRegistry.name(PREFIX, "failures");
+    static final String REJECTED = MetricRegistry.name(PREFIX, "rejected");
+    static final String PAYLOAD_METRICS = MetricRegistry.name(PREFIX, "payload", "metrics");
+    static final String PAYLOAD_ANNOTATIONS = MetricRegistry.name(PREFIX, "payload", "annotations");
+    static final String BATCH_ITEMS = MetricRegistry.name(PREFIX, "batch", "items");
+    static final String BATCH_PAYLOADS = MetricRegistry.name(PREFIX, "batch", "payloads");
+    static final String COMPLETION_TO_ACK = MetricRegistry.name(PREFIX, "completion.to.ack");
+    static final String QUEUE_DEPTH = MetricRegistry.name(PREFIX, "queue", "depth");
+    static final String QUEUE_DROPPED = MetricRegistry.name(PREFIX, "queue", "dropped");
+    static final String SPOOL_BYTES = MetricRegistry.name(PREFIX, "spool", "bytes");
+
+    private static final MetricRegistry FALLBACK_REGISTRY = new MetricRegistry();
+
+    private ArgusNotifierMetrics() {
+        // no instance necessary
+    }
+
+    /**
+     * @param callType one of the CALL_ constants
+     * @return timer for calls of that type against the Argus web service
+     */
+    static Timer callTimer(String callType) {
+        return registry().timer(MetricRegistry.name(PREFIX, "call", callType));
+    }
+
+    /**
+     * Record a successful send.
+     *
+     * @param payload the payload that was acknowledged by Argus
+     */
+    static void onSent(ArgusPayload payload) {
+        MetricRegistry registry = registry();
+        registry.counter(METRICS_SENT).inc(payload.metrics.size());
+        registry.counter(ANNOTATIONS_SENT).inc(payload.annotations.size());
+        registry.histogram(PAYLOAD_METRICS).update(payload.metrics.size());
+        registry.histogram(PAYLOAD_ANNOTATIONS).update(payload.annotations.size());
+        // merged payloads carry the creation time of their oldest part
+        registry.timer(COMPLETION_TO_ACK)
+                .update(Math.max(0L, System.currentTimeMillis() - payload.createdMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record a request built by merging queued payloads, whether or not it is sent successfully.
+     *
+     * @param payloadCount number of queued payloads in the batch the request was merged from
+     * @param request the merged request
+     */
+    static void onBatch(int payloadCount, ArgusPayload request) {
+        MetricRegistry registry = registry();
+        registry.histogram(BATCH_PAYLOADS).update(payloadCount);
+        registry.histogram(BATCH_ITEMS).update(request.metrics.size() + request.annotations.size());
+    }
+
+    /**
+     * Record a failed send attempt, both in total and by fully qualified exception type.
+     *
+     * @param failure what went wrong
+     */
+    static void onFailure(Throwable failure) {
+        MetricRegistry registry = registry();
+        registry.counter(FAILURES).inc();
+        registry.counter(MetricRegistry.name(FAILURES, failure.getClass().getName())).inc();
+    }
+
+    /**
+     * Record metrics or annotations that Argus refused and that are therefore dropped.
+     *
+     * @param count number of metrics or annotations
+     */
+    static void onRejected(int count) {
+        registry().counter(REJECTED).inc(count);
+    }
+
+    static MetricRegistry registry() {
+        if (Jenkins.getInstanceOrNull() != null) {
+            try {
+                return Metrics.metricRegistry();
+            } catch (RuntimeException e) {
+                // the Metrics plugin is not started (yet)
+                logger.log(Level.FINEST, "Argus Notifier: Metrics registry not available", e);
+            }
+        }
+        return FALLBACK_REGISTRY;
+    }
+
+    /**
+     * Gauges for the send queue and the spool. They are read from the notifier configuration whenever the registry
+     * is reported, so they do not need to be registered again when the queue is rebuilt.
+     */
+    @Extension
+    public static class GaugeProvider extends MetricProvider {
+        private final MetricSet metricSet = new MetricSet() {
+            @Override
+            public Map<String, Metric> getMetrics() {
+                return ImmutableMap.<String, Metric>of(
+                        QUEUE_DEPTH, descriptorGauge(ArgusNotifier.DescriptorImpl::getSendQueueDepth),
+                        QUEUE_DROPPED, descriptorGauge(ArgusNotifier.DescriptorImpl::getDroppedPayloadCount),
+                        SPOOL_BYTES, descriptorGauge(ArgusNotifier.DescriptorImpl::getSpoolSizeInBytes));
+            }
+        };
+
+        @Nonnull
+        @Override
+        public MetricSet getMetricSet() {
+            return metricSet;
+        }
+
+        private static Gauge<Long> descriptorGauge(ToLongFunction<ArgusNotifier.DescriptorImpl> value) {
+            return () -> {
+                Jenkins jenkins = Jenkins.getInstanceOrNull();
+                ArgusNotifier.DescriptorImpl descriptor = jenkins == null ? null :
+                        (ArgusNotifier.DescriptorImpl) jenkins.getDescriptor(ArgusNotifier.class);
+                return descriptor == null ? 0L : value.applyAsLong(descriptor);
+            };
+        }
+    }
+
+    /**
+     * Used by the spool gauge; a spool that could not be created counts as empty.
+     */
+    static long sizeOrZero(ArgusSpool spool) {
+        return spool == null ? 0L : spool.sizeInBytes();
+    }
+}
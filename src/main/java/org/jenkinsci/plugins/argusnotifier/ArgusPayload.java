@@ -0,0 +1,30 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.collect.ImmutableList;
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+
+import java.util.List;
+
+/**
+ * Immutable unit of work handed from the build/system metric producers to the sender workers.
+ */
+class ArgusPayload {
+
+    final ArgusConnectionInfo argusConnectionInfo;
+    final List<Metric> metrics;
+    final List<Annotation> annotations;
+    final long createdMillis;
+
+    ArgusPayload(ArgusConnectionInfo argusConnectionInfo, List<Metric> metrics, List<Annotation> annotations) {
+        this(argusConnectionInfo, metrics, annotations, System.currentTimeMillis());
+    }
+
+    ArgusPayload(ArgusConnectionInfo argusConnectionInfo, List<Metric> metrics, List<Annotation> annotations,
+                 long createdMillis) {
+        this.argusConnectionInfo = argusConnectionInfo;
+        this.metrics = metrics == null ? ImmutableList.of() : metrics;
+        this.annotations = annotations == null ? ImmutableList.of() : annotations;
+        this.createdMillis = createdMillis;
+    }
+}
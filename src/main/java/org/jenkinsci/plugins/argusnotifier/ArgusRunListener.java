@@ -27,6 +27,31 @@ public class ArgusRunListener extends RunListener<Run> {
         super(Run.class);
     }
 
+    /**
+     * Send a {@code build.started} metric so that running builds show up in Argus before they complete.
+     *
+     * @param run the run that has started
+     * @param listener listener that we could use to write to the run logger
+     */
+    @Override
+    public void onStarted(Run run, TaskListener listener) {
+        Jenkins instance = Jenkins.getInstance();
+        ArgusNotifier.DescriptorImpl argusNotifierDescriptor =
+                (ArgusNotifier.DescriptorImpl) instance.getDescriptor(ArgusNotifier.class);
+        ArgusConfiguration configuration =
+                argusNotifierDescriptor == null ? null : argusNotifierDescriptor.getConfiguration();
+        if (configuration != null && configuration.isNotifierConfigured() &&
+                configuration.isSendForAllBuilds() && configuration.isSendRunningBuildMetrics()) {
+            RunningBuildMetricFactory runningBuildMetricFactory = new RunningBuildMetricFactory(
+                    JenkinsFormatter.getHostName(instance), configuration.getScope(),
+                    OffsetDateTime.now().toEpochSecond());
+            Metric startedMetric =
+                    runningBuildMetricFactory.getBuildStartedMetric(RunningBuildMetricFactory.RunningBuild.of(run));
+            argusNotifierDescriptor.publish(new ArgusPayload(configuration.getArgusConnectionInfo(),
+                    ImmutableList.of(startedMetric), ImmutableList.<Annotation>of()));
+        }
+    }
+
     /**
      * Override the onCompleted method to send metrics and annotations for all completed builds on a system.
      *
@@ -38,16 +63,18 @@ public class ArgusRunListener extends RunListener<Run> {
         Jenkins instance = Jenkins.getInstance();
         ArgusNotifier.DescriptorImpl argusNotifierDescriptor =
                 (ArgusNotifier.DescriptorImpl) instance.getDescriptor(ArgusNotifier.class);
-        if (argusNotifierDescriptor != null &&
-                argusNotifierDescriptor.isNotifierConfigured() && argusNotifierDescriptor.isSendForAllBuilds()) {
-            ArgusConnectionInfo argusConnectionInfo = argusNotifierDescriptor.getArgusConnectionInfo();
+        ArgusConfiguration configuration =
+                argusNotifierDescriptor == null ? null : argusNotifierDescriptor.getConfiguration();
+        if (configuration != null && configuration.isNotifierConfigured() && configuration.isSendForAllBuilds()) {
+            ArgusConnectionInfo argusConnectionInfo = configuration.getArgusConnectionInfo();
 
             OffsetDateTime now = OffsetDateTime.now();
             long metricTimestamp = now.toEpochSecond();
-            String scope = argusNotifierDescriptor.getScope();
-            String source = argusNotifierDescriptor.getSource();
+            String scope = configuration.getScope();
+            String source = configuration.getSource();
 
-            BuildMetricFactory buildMetricFactory = new BuildMetricFactory(instance, run, metricTimestamp, scope);
+            RunSnapshot runSnapshot = RunSnapshot.of(instance, run);
+            BuildMetricFactory buildMetricFactory = new BuildMetricFactory(run, runSnapshot, metricTimestamp, scope);
 
             List<Metric> metrics =
                     ImmutableList.<Metric>builder()
@@ -55,16 +82,17 @@ public class ArgusRunListener extends RunListener<Run> {
                             .addAll(buildMetricFactory.getBuildTimeMetrics())
                             .build();
 
-            AnnotationFactory annotationFactory = new AnnotationFactory(instance, run, metricTimestamp, scope, source);
-            List<Annotation> annotations = annotationFactory.getAnnotationsFor(metrics);
+            AnnotationFactory annotationFactory = new AnnotationFactory(runSnapshot, metricTimestamp, scope, source);
+            List<Annotation> annotations =
+                    annotationFactory.getAnnotationsFor(metrics, configuration.getAnnotationMode());
 
             if (logger.isLoggable(Level.INFO)) {
-                logger.info(MessageFormat.format("Sending metrics for {0} to: {1} with username: {2}",
+                logger.info(MessageFormat.format("Queueing metrics for {0} to: {1} with username: {2}",
                         run.getFullDisplayName(),
                         argusConnectionInfo.argusUrl,
                         argusConnectionInfo.credentials.getUsername()));
             }
-            ArgusDataSender.sendArgusData(argusConnectionInfo, metrics, annotations);
+            argusNotifierDescriptor.publish(new ArgusPayload(argusConnectionInfo, metrics, annotations));
         }
     }
 }
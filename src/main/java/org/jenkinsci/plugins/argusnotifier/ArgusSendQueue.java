@@ -0,0 +1,373 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded in-memory queue between the threads producing Argus data (build completion, periodic work) and a small,
+ * dedicated pool of sender workers. Producers only ever {@link #enqueue(ArgusPayload)}, which never blocks, so a slow
+ * or hung Argus server cannot hold up build completion.
+ * <p>
+ * The backing {@link LinkedBlockingQueue} uses separate put and take locks, so producers and workers do not contend
+ * with each other.
+ * <p>
+ * Each worker collects payloads into an {@link ArgusBatch} until the batch reaches the configured size or the linger
+ * time has passed since its first payload, whichever comes first, and then sends the whole batch at once. What the
+ * sender could not send is handed to a separate consumer, usually the spool.
+ * <p>
+ * Shutting down lets batches that are being sent finish; only after a timeout are the workers interrupted. Payloads
+ * that were not sent because of the shutdown (collected but not sent yet, or returned by an interrupted sender) are
+ * handed back through {@link #drainPending()}, so nothing is lost when the queue is replaced or Jenkins stops.
+ */
+class ArgusSendQueue {
+    private static final Logger logger = Logger.getLogger(ArgusSendQueue.class.getName());
+    private static final String WORKER_THREAD_NAME = "Argus Notifier Sender";
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long DROP_WARNING_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    static final int DEFAULT_CAPACITY = 1000;
+    static final int DEFAULT_WORKER_COUNT = 2;
+    static final int DEFAULT_BATCH_SIZE = 500;
+    static final long DEFAULT_BATCH_LINGER_MILLIS = 1000;
+
+    /**
+     * What to do with a payload when the queue is full.
+     */
+    enum OverflowPolicy {
+        DROP_OLDEST("Drop the oldest queued payload"),
+        DROP_NEWEST("Drop the new payload");
+
+        private final String displayName;
+
+        OverflowPolicy(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Immutable queue settings, so a change in configuration can be detected with a single comparison.
+     */
+    static final class Settings {
+        final int capacity;
+        final int workerCount;
+        final OverflowPolicy overflowPolicy;
+        final int batchSize;
+        final long batchLingerMillis;
+
+        Settings(int capacity, int workerCount, OverflowPolicy overflowPolicy, int batchSize, long batchLingerMillis) {
+            this.capacity = capacity;
+            this.workerCount = workerCount;
+            this.overflowPolicy = overflowPolicy;
+            this.batchSize = batchSize;
+            this.batchLingerMillis = batchLingerMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Settings that = (Settings) o;
+            return capacity == that.capacity && workerCount == that.workerCount &&
+                    overflowPolicy == that.overflowPolicy && batchSize == that.batchSize &&
+                    batchLingerMillis == that.batchLingerMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(capacity, workerCount, overflowPolicy, batchSize, batchLingerMillis);
+        }
+    }
+
+    private final BlockingQueue<ArgusPayload> queue;
+    private final ExecutorService workers;
+    private final Function<ArgusPayload, ArgusPayload> sender;
+    private final Consumer<ArgusPayload> unsentConsumer;
+    private final Settings settings;
+    private final long shutdownTimeoutMillis;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong lastDropWarningNanos = new AtomicLong(System.nanoTime());
+    private final List<ArgusPayload> handedBack = new ArrayList<>();
+    private boolean drained;
+    private volatile boolean stopping;
+    private volatile boolean finishing;
+
+    /**
+     * @param settings queue settings
+     * @param sender sends a payload and returns the part that could not be sent, or null if everything was sent
+     * @param unsentConsumer takes what the sender could not send
+     */
+    ArgusSendQueue(Settings settings, Function<ArgusPayload, ArgusPayload> sender,
+                   Consumer<ArgusPayload> unsentConsumer) {
+        this(settings, sender, unsentConsumer, SHUTDOWN_TIMEOUT_MILLIS);
+    }
+
+    ArgusSendQueue(Settings settings, Function<ArgusPayload, ArgusPayload> sender,
+                   Consumer<ArgusPayload> unsentConsumer, long shutdownTimeoutMillis) {
+        this.settings = settings;
+        this.sender = sender;
+        this.unsentConsumer = unsentConsumer;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.queue = new LinkedBlockingQueue<>(settings.capacity);
+        this.workers = Executors.newFixedThreadPool(settings.workerCount,
+                new NamingThreadFactory(new DaemonThreadFactory(), WORKER_THREAD_NAME));
+        for (int i = 0; i < settings.workerCount; i++) {
+            workers.execute(this::drain);
+        }
+    }
+
+    /**
+     * Queue a payload for sending without blocking the caller.
+     *
+     * @param payload payload to send
+     * @return true if the payload was queued, false if it was dropped due to the overflow policy
+     */
+    boolean enqueue(ArgusPayload payload) {
+        if (queue.offer(payload)) {
+            return true;
+        }
+        if (settings.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            ArgusPayload evicted = queue.poll();
+            if (evicted != null) {
+                onDropped(evicted);
+            }
+            // another producer may have taken the freed slot; in that case the new payload is dropped instead
+            if (queue.offer(payload)) {
+                return true;
+            }
+        }
+        onDropped(payload);
+        return false;
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    Settings getSettings() {
+        return settings;
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Create a queue with new settings, moving any pending payloads over and shutting this one down.
+     *
+     * @return the new queue
+     */
+    ArgusSendQueue replaceWith(Settings newSettings) {
+        ArgusSendQueue replacement = new ArgusSendQueue(newSettings, sender, unsentConsumer, shutdownTimeoutMillis);
+        shutdown();
+        for (ArgusPayload pending : drainPending()) {
+            replacement.enqueue(pending);
+        }
+        return replacement;
+    }
+
+    /**
+     * Stop the workers. Batches being sent get the shutdown timeout to finish before the workers are interrupted;
+     * batches that were still being collected are handed back.
+     */
+    void shutdown() {
+        stopping = true;
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                workers.shutdownNow();
+                if (!workers.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS) &&
+                        logger.isLoggable(Level.WARNING)) {
+                    logger.warning("Argus Notifier: sender workers did not stop in time");
+                }
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send everything that is queued, then stop the workers. For a queue that is not replaced by another one, so
+     * nothing needs to be handed back. If the queue is not done by the timeout, it is {@link #shutdown() shut down}.
+     *
+     * @param timeoutMillis how long to keep sending
+     */
+    void finish(long timeoutMillis) {
+        finishing = true;
+        workers.shutdown();
+        try {
+            if (workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shutdown();
+    }
+
+    /**
+     * Remove and return everything that has not been sent yet: payloads still queued and payloads handed back by
+     * workers that were stopped. Anything a worker still hands back afterwards goes to the unsent consumer.
+     */
+    List<ArgusPayload> drainPending() {
+        List<ArgusPayload> pending = new ArrayList<>(queue.size());
+        synchronized (handedBack) {
+            pending.addAll(handedBack);
+            handedBack.clear();
+            drained = stopping;
+        }
+        queue.drainTo(pending);
+        return pending;
+    }
+
+    private void drain() {
+        try {
+            sendUntilStopped();
+        } finally {
+            ReusableGzipOutputStream.releaseForCurrentThread();
+        }
+    }
+
+    private void sendUntilStopped() {
+        while (!stopping && !Thread.currentThread().isInterrupted()) {
+            ArgusBatch batch = new ArgusBatch();
+            try {
+                ArgusPayload first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (finishing) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                fill(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                handBack(batch.getPayloads());
+                return;
+            }
+            if (stopping) {
+                handBack(batch.getPayloads());
+                return;
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * Keep adding payloads until the batch is full or the linger time since the first payload is up.
+     */
+    private void fill(ArgusBatch batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.batchLingerMillis);
+        while (batch.size() < settings.batchSize && !stopping) {
+            ArgusPayload next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+            }
+            batch.add(next);
+        }
+    }
+
+    private void send(ArgusBatch batch) {
+        List<ArgusPayload> merged = batch.merge();
+        for (int i = 0; i < merged.size(); i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                handBack(merged.subList(i, merged.size()));
+                return;
+            }
+            ArgusPayload payload = merged.get(i);
+            ArgusNotifierMetrics.onBatch(batch.getPayloads().size(), payload);
+            long start = System.nanoTime();
+            try {
+                ArgusPayload unsent = sender.apply(payload);
+                if (unsent != null) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        handBack(Collections.singletonList(unsent));
+                    } else {
+                        unsentConsumer.accept(unsent);
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Argus Notifier: Error in sender worker", e);
+                unsentConsumer.accept(payload);
+            }
+            batchCount.incrementAndGet();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(MessageFormat.format(
+                        "Argus Notifier: sent batch of {0} metrics and {1} annotations from {2} payloads in {3} ms",
+                        payload.metrics.size(), payload.annotations.size(), batch.getPayloads().size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }
+        }
+    }
+
+    /**
+     * Keep payloads that were not sent because of the shutdown for {@link #drainPending()}, or pass them on if that
+     * has been called already.
+     */
+    private void handBack(List<ArgusPayload> payloads) {
+        synchronized (handedBack) {
+            if (!drained) {
+                handedBack.addAll(payloads);
+                return;
+            }
+        }
+        for (ArgusPayload payload : payloads) {
+            unsentConsumer.accept(payload);
+        }
+    }
+
+    /**
+     * Count a dropped payload. The count is published as a gauge, so the warning is only logged for the first drop
+     * and then at most once per interval.
+     */
+    private void onDropped(ArgusPayload payload) {
+        long dropped = droppedCount.incrementAndGet();
+        long now = System.nanoTime();
+        long last = lastDropWarningNanos.get();
+        boolean warn = dropped == 1 || now - last >= DROP_WARNING_INTERVAL_NANOS;
+        if (warn && lastDropWarningNanos.compareAndSet(last, now) && logger.isLoggable(Level.WARNING)) {
+            logger.warning(MessageFormat.format(
+                    "Argus Notifier: send queue full (capacity {0}), dropped {1} metrics and {2} annotations " +
+                            "({3} payloads dropped so far)",
+                    settings.capacity, payload.metrics.size(), payload.annotations.size(), dropped));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import com.codahale.metrics.Timer;
+import com.salesforce.dva.argus.sdk.ArgusService;
+import com.salesforce.dva.argus.sdk.exceptions.TokenExpiredException;
+import hudson.util.Secret;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A long-lived, authenticated {@link ArgusService}. Logs in lazily on first use and logs in again if Argus reports
+ * that the session token has expired.
+ * <p>
+ * Callers {@link #acquire()} the session for the duration of a send and {@link #release()} it afterwards. A session
+ * that is no longer wanted is {@link #retire() retired}: it cannot be acquired anymore and is closed once the last
+ * caller has released it, so a send in progress is never cut off.
+ */
+class ArgusSession implements Closeable {
+    private static final Logger logger = Logger.getLogger(ArgusSession.class.getName());
+
+    /**
+     * A call against an authenticated Argus service.
+     *
+     * @param <T> result type
+     */
+    interface ArgusCall<T> {
+        T call(ArgusService service) throws IOException, TokenExpiredException;
+    }
+
+    private final ArgusConnectionInfo argusConnectionInfo;
+    private final ArgusService service;
+    private volatile boolean loggedIn;
+    private volatile ArgusHttpTransport httpTransport;
+    private final Object usage = new Object();
+    private int users;
+    private boolean retired;
+    private boolean closed;
+
+    ArgusSession(ArgusConnectionInfo argusConnectionInfo, int connectionPoolSize) {
+        this(argusConnectionInfo, ArgusService.getInstance(argusConnectionInfo.argusUrl, connectionPoolSize));
+    }
+
+    ArgusSession(ArgusConnectionInfo argusConnectionInfo, ArgusService service) {
+        this.argusConnectionInfo = argusConnectionInfo;
+        this.service = service;
+    }
+
+    /**
+     * @return false if the session has been retired and must not be used anymore
+     */
+    boolean acquire() {
+        synchronized (usage) {
+            if (retired) {
+                return false;
+            }
+            users++;
+            return true;
+        }
+    }
+
+    /**
+     * Release a session acquired before, closing it if it was retired in the meantime and nobody else uses it.
+     */
+    void release() {
+        synchronized (usage) {
+            users--;
+            if (!retired || users > 0 || closed) {
+                return;
+            }
+            closed = true;
+        }
+        close();
+    }
+
+    /**
+     * Stop handing out this session and close it as soon as nobody uses it anymore.
+     */
+    void retire() {
+        synchronized (usage) {
+            retired = true;
+            if (users > 0 || closed) {
+                return;
+            }
+            closed = true;
+        }
+        close();
+    }
+
+    /**
+     * Run the call with an authenticated service, logging in again once if the token has expired.
+     *
+     * @param call call to make
+     * @param <T> result type
+     * @return result of the call
+     * @throws IOException if the call fails
+     * @throws TokenExpiredException if the token is still rejected after logging in again
+     */
+    <T> T execute(ArgusCall<T> call) throws IOException, TokenExpiredException {
+        ensureLoggedIn();
+        try {
+            return call.call(service);
+        } catch (TokenExpiredException tokenExpired) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Argus Notifier: token expired, logging in again");
+            }
+            login();
+            return call.call(service);
+        }
+    }
+
+    /**
+     * @return transport for compressed, streamed sends to the same Argus server, created on first use
+     */
+    ArgusHttpTransport getHttpTransport() {
+        ArgusHttpTransport transport = httpTransport;
+        if (transport == null) {
+            synchronized (this) {
+                transport = httpTransport;
+                if (transport == null) {
+                    transport = new ArgusHttpTransport(argusConnectionInfo);
+                    httpTransport = transport;
+                }
+            }
+        }
+        return transport;
+    }
+
+    private void ensureLoggedIn() throws IOException, TokenExpiredException {
+        if (!loggedIn) {
+            synchronized (this) {
+                if (!loggedIn) {
+                    login();
+                }
+            }
+        }
+    }
+
+    private synchronized void login() throws IOException, TokenExpiredException {
+        loggedIn = false;
+        UsernamePasswordCredentials credentials = argusConnectionInfo.credentials;
+        try (Timer.Context ignored = ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_LOGIN).time()) {
+            service.getAuthService().login(credentials.getUsername(), Secret.toString(credentials.getPassword()));
+        }
+        loggedIn = true;
+    }
+
+    /**
+     * Log out the SDK and the transport (if logged in) and release the underlying connection pool.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (loggedIn) {
+                loggedIn = false;
+                try (Timer.Context ignored = ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_LOGOUT).time()) {
+                    service.getAuthService().logout();
+                }
+            }
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Argus Notifier: Error logging out", e);
+        } finally {
+            ArgusHttpTransport transport = httpTransport;
+            if (transport != null) {
+                transport.logout();
+            }
+            try {
+                service.close();
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Argus Notifier: Error closing Argus service", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds one {@link ArgusSession} per {@link ArgusConnectionInfo} so that sends reuse an authenticated service and its
+ * connection pool instead of logging in and out every time. Sessions that are dropped are retired rather than closed,
+ * so sends that are using them can finish.
+ */
+class ArgusSessionManager {
+    static final int DEFAULT_CONNECTION_POOL_SIZE = ArgusSendQueue.DEFAULT_WORKER_COUNT;
+
+    private static final ConcurrentMap<ArgusConnectionInfo, ArgusSession> sessions = new ConcurrentHashMap<>();
+    private static volatile int connectionPoolSize = DEFAULT_CONNECTION_POOL_SIZE;
+
+    /**
+     * Marked private since there is no need for an instance
+     */
+    private ArgusSessionManager() {
+        // no instance
+    }
+
+    /**
+     * Get and acquire the session for the given connection info, creating it if needed. The caller must
+     * {@link ArgusSession#release() release} it when done.
+     *
+     * @param argusConnectionInfo Argus URL and credentials
+     * @return a session that is shared by all callers using the same connection info
+     */
+    static ArgusSession acquireSession(ArgusConnectionInfo argusConnectionInfo) {
+        while (true) {
+            ArgusSession session = sessions.computeIfAbsent(argusConnectionInfo,
+                    connectionInfo -> new ArgusSession(connectionInfo, connectionPoolSize));
+            if (session.acquire()) {
+                return session;
+            }
+            // retired by retainOnly between the lookup and acquiring it; a new one is created
+            sessions.remove(argusConnectionInfo, session);
+        }
+    }
+
+    /**
+     * Retire every session except the ones for the given connection infos. Called when the configuration or the
+     * credentials change so that sessions for an old URL or old credentials are not kept around. Changing the pool
+     * size retires all sessions so that they are rebuilt with the new size.
+     *
+     * @param current connection infos that are still in use
+     * @param poolSize number of HTTP connections each session may use
+     */
+    static synchronized void retainOnly(Collection<ArgusConnectionInfo> current, int poolSize) {
+        boolean poolSizeChanged = poolSize != connectionPoolSize;
+        connectionPoolSize = poolSize;
+        Iterator<Map.Entry<ArgusConnectionInfo, ArgusSession>> entries = sessions.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<ArgusConnectionInfo, ArgusSession> entry = entries.next();
+            if (poolSizeChanged || !current.contains(entry.getKey())) {
+                entries.remove();
+                entry.getValue().retire();
+            }
+        }
+    }
+
+    /**
+     * Log out of and close all sessions, each once it is no longer in use.
+     */
+    static synchronized void closeAll() {
+        Iterator<ArgusSession> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            ArgusSession session = iterator.next();
+            iterator.remove();
+            session.retire();
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only, segmented disk spool for payloads that could not be sent to Argus. Payloads are appended to the
+ * newest segment file; {@link #replay} reads segments oldest first and remembers how far it got in a position file,
+ * so replay resumes in order after a restart. The directory is only created by the first append, so a spool can be
+ * opened just to replay what an earlier configuration left behind.
+ * <p>
+ * Each record is a 4 byte body length, an 8 byte creation time (epoch millis) and the JSON body.
+ * <p>
+ * Appends, limits and the position file are guarded by the spool's monitor. Replay reads outside of it, so appends
+ * are not held up by a slow send; the segment being replayed is never dropped by the limits in the meantime.
+ */
+class ArgusSpool {
+    private static final Logger logger = Logger.getLogger(ArgusSpool.class.getName());
+
+    static final String PLUGIN_DIRECTORY = "argus-notifier";
+    static final String SPOOL_DIRECTORY = "spool";
+    static final long DEFAULT_MAX_MEGABYTES = 256;
+    static final long DEFAULT_MAX_AGE_HOURS = 72;
+    static final int DEFAULT_REPLAY_METRICS_PER_SECOND = 500;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String POSITION_FILE = "replay.position";
+    private static final long SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * JSON body of a spooled record.
+     */
+    static class Record {
+        public List<Metric> metrics;
+        public List<Annotation> annotations;
+    }
+
+    private final Path directory;
+    private volatile long maxBytes;
+    private volatile long maxAgeMillis;
+    private FileChannel activeChannel;
+    private Path activeSegment;
+    private long nextSequence;
+    private boolean replaying;
+    private Path replayingSegment;
+    // only written under the monitor; volatile so the gauge can read it without locking
+    private volatile long sizeInBytes;
+
+    ArgusSpool(Path directory, long maxMegabytes, long maxAgeHours) throws IOException {
+        this.directory = directory;
+        setLimits(maxMegabytes, maxAgeHours);
+        List<Path> segments = listSegments();
+        nextSequence = segments.isEmpty() ? 0 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+        sizeInBytes = countBytes(segments);
+    }
+
+    void setLimits(long maxMegabytes, long maxAgeHours) {
+        this.maxBytes = maxMegabytes * 1024 * 1024;
+        this.maxAgeMillis = TimeUnit.HOURS.toMillis(maxAgeHours);
+    }
+
+    /**
+     * Append a payload to the spool. The connection info is not stored; replay uses the connection configured at the
+     * time of replay.
+     *
+     * @param payload payload that could not be sent
+     * @return true if the payload was written
+     */
+    synchronized boolean append(ArgusPayload payload) {
+        try {
+            Record record = new Record();
+            record.metrics = payload.metrics;
+            record.annotations = payload.annotations;
+            byte[] body = MAPPER.writeValueAsBytes(record);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + body.length);
+            buffer.putInt(body.length).putLong(payload.createdMillis).put(body);
+            buffer.flip();
+
+            FileChannel channel = activeChannel();
+            while (buffer.hasRemaining()) {
+                sizeInBytes += channel.write(buffer);
+            }
+            channel.force(false);
+            if (channel.size() >= SEGMENT_BYTES) {
+                sealActiveSegment();
+            }
+            enforceLimits();
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Argus Notifier: Could not write to the spool in " + directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return whether there is anything left to replay
+     */
+    synchronized boolean isEmpty() throws IOException {
+        return listSegments().isEmpty();
+    }
+
+    /**
+     * @return total size of all segments in bytes, kept up to date on append and delete so reading it is cheap
+     */
+    long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    private static long countBytes(List<Path> segments) throws IOException {
+        long total = 0;
+        for (Path segment : segments) {
+            total += Files.size(segment);
+        }
+        return total;
+    }
+
+    /**
+     * Send spooled payloads oldest first until the spool is empty or the sender reports a failure. Records older than
+     * the age limit are skipped. Sending is throttled to the given number of metrics per second so that a backlog
+     * does not flood Argus once it recovers.
+     * <p>
+     * The sender decides which failures are worth waiting for: a record it reports as done (sent, or rejected by Argus
+     * for good) is passed, so a record Argus always refuses does not block the ones behind it. If only part of a
+     * record was sent, the rest is appended to the end of the spool and replay stops; the part that was sent is not
+     * sent again.
+     *
+     * @param argusConnectionInfo connection to replay to
+     * @param sender sends a payload and returns the part that could not be sent, or null if nothing is left
+     * @param metricsPerSecond upper bound on the replay rate
+     * @return number of payloads sent; 0 if another replay of this spool is running
+     * @throws IOException if the spool cannot be read
+     * @throws InterruptedException if interrupted while throttling
+     */
+    int replay(ArgusConnectionInfo argusConnectionInfo, Function<ArgusPayload, ArgusPayload> sender,
+               int metricsPerSecond) throws IOException, InterruptedException {
+        synchronized (this) {
+            if (replaying) {
+                return 0;
+            }
+            replaying = true;
+        }
+        try {
+            int sent = 0;
+            Path segment;
+            while ((segment = nextSegmentToReplay()) != null) {
+                long position = readPosition(segment);
+                try (SegmentReader reader = new SegmentReader(segment, position)) {
+                    long oldestAllowed = System.currentTimeMillis() - maxAgeMillis;
+                    ArgusPayload payload;
+                    while ((payload = reader.next(argusConnectionInfo)) != null) {
+                        if (payload.createdMillis >= oldestAllowed) {
+                            ArgusPayload unsent = sender.apply(payload);
+                            if (unsent != null) {
+                                if (unsent != payload && append(unsent)) {
+                                    writePosition(segment, reader.position());
+                                }
+                                return sent;
+                            }
+                            sent++;
+                            throttle(payload, metricsPerSecond);
+                        }
+                        writePosition(segment, reader.position());
+                    }
+                }
+                deleteSegment(segment);
+            }
+            return sent;
+        } finally {
+            synchronized (this) {
+                replaying = false;
+                replayingSegment = null;
+            }
+        }
+    }
+
+    private static void throttle(ArgusPayload payload, int metricsPerSecond) throws InterruptedException {
+        if (metricsPerSecond > 0) {
+            long items = payload.metrics.size() + payload.annotations.size();
+            Thread.sleep(items * 1000L / metricsPerSecond);
+        }
+    }
+
+    /**
+     * Close the segment that is currently being written to so it can be replayed.
+     */
+    synchronized void close() {
+        try {
+            sealActiveSegment();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Argus Notifier: Could not close spool segment " + activeSegment, e);
+        }
+    }
+
+    /**
+     * The oldest segment, which is kept from being dropped by {@link #enforceLimits()} until replay moves on. If that
+     * is the one being written to, it is sealed first so that the reader never races with the writer.
+     */
+    private synchronized Path nextSegmentToReplay() throws IOException {
+        List<Path> segments = listSegments();
+        replayingSegment = segments.isEmpty() ? null : segments.get(0);
+        if (replayingSegment != null && replayingSegment.equals(activeSegment)) {
+            sealActiveSegment();
+        }
+        return replayingSegment;
+    }
+
+    private FileChannel activeChannel() throws IOException {
+        if (activeChannel == null) {
+            Files.createDirectories(directory);
+            activeSegment = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+            activeChannel = FileChannel.open(activeSegment,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return activeChannel;
+    }
+
+    private void sealActiveSegment() throws IOException {
+        if (activeChannel != null) {
+            try {
+                activeChannel.close();
+            } finally {
+                activeChannel = null;
+                activeSegment = null;
+            }
+        }
+    }
+
+    /**
+     * Drop segments that are past the age limit, then the oldest segments until the spool fits the size limit. The
+     * segment being replayed is left to the replay, which skips its expired records.
+     */
+    private void enforceLimits() throws IOException {
+        List<Path> segments = listSegments();
+        long oldestAllowed = System.currentTimeMillis() - maxAgeMillis;
+        long total = 0;
+        for (Path segment : segments) {
+            total += Files.size(segment);
+        }
+        for (Path segment : segments) {
+            if (segment.equals(activeSegment)) {
+                break;
+            }
+            long size = Files.size(segment);
+            boolean expired = Files.getLastModifiedTime(segment).toMillis() < oldestAllowed;
+            if (!expired && total <= maxBytes) {
+                break;
+            }
+            if (segment.equals(replayingSegment)) {
+                continue;
+            }
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.warning(MessageFormat.format("Argus Notifier: Dropping spool segment {0} ({1})",
+                        segment.getFileName(), expired ? "too old" : "spool is full"));
+            }
+            deleteSegment(segment);
+            total -= size;
+        }
+    }
+
+    private synchronized void deleteSegment(Path segment) throws IOException {
+        long size = Files.exists(segment) ? Files.size(segment) : 0L;
+        if (Files.deleteIfExists(segment)) {
+            sizeInBytes = Math.max(0L, sizeInBytes - size);
+        }
+        Path positionFile = directory.resolve(POSITION_FILE);
+        if (segment.getFileName().toString().equals(readPositionSegmentName(positionFile))) {
+            Files.deleteIfExists(positionFile);
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        // zero padded sequence numbers sort in creation order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private synchronized long readPosition(Path segment) throws IOException {
+        Path positionFile = directory.resolve(POSITION_FILE);
+        String content;
+        try {
+            content = new String(Files.readAllBytes(positionFile), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        String[] parts = content.split(" ");
+        if (parts.length == 2 && parts[0].equals(segment.getFileName().toString())) {
+            return Long.parseLong(parts[1]);
+        }
+        return 0;
+    }
+
+    private static String readPositionSegmentName(Path positionFile) throws IOException {
+        try {
+            String content = new String(Files.readAllBytes(positionFile), StandardCharsets.UTF_8).trim();
+            return content.split(" ")[0];
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private synchronized void writePosition(Path segment, long position) throws IOException {
+        if (!Files.exists(segment)) {
+            // never leave a position behind for a segment that is gone
+            return;
+        }
+        Path positionFile = directory.resolve(POSITION_FILE);
+        Path temp = directory.resolve(POSITION_FILE + ".tmp");
+        Files.write(temp, (segment.getFileName() + " " + position).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads records from a sealed segment starting at a byte offset.
+     */
+    private static class SegmentReader implements Closeable {
+        private final Path segment;
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        private long position;
+
+        SegmentReader(Path segment, long position) throws IOException {
+            this.segment = segment;
+            this.channel = FileChannel.open(segment, StandardOpenOption.READ);
+            this.position = position;
+        }
+
+        long position() {
+            return position;
+        }
+
+        /**
+         * @return the next payload, or null at the end of the segment or at a truncated or corrupt record
+         */
+        ArgusPayload next(ArgusConnectionInfo argusConnectionInfo) throws IOException {
+            header.clear();
+            if (!readFully(header, position)) {
+                return null;
+            }
+            header.flip();
+            int length = header.getInt();
+            long createdMillis = header.getLong();
+            if (length < 0 || length > MAX_RECORD_BYTES) {
+                logger.warning("Argus Notifier: Corrupt record in spool segment " + segment + ", skipping the rest");
+                return null;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            if (!readFully(body, position + HEADER_BYTES)) {
+                return null;
+            }
+            position += HEADER_BYTES + length;
+            Record record;
+            try {
+                record = MAPPER.readValue(body.array(), Record.class);
+            } catch (JsonProcessingException e) {
+                logger.log(Level.WARNING,
+                        "Argus Notifier: Corrupt record in spool segment " + segment + ", skipping the rest", e);
+                return null;
+            }
+            return new ArgusPayload(argusConnectionInfo, record.metrics, record.annotations, createdMillis);
+        }
+
+        private boolean readFully(ByteBuffer buffer, long offset) throws IOException {
+            long readPosition = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, readPosition);
+                if (read < 0) {
+                    return false;
+                }
+                readPosition += read;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
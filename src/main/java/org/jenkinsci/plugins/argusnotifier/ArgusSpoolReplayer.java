@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically drains the {@link ArgusSpool}s of the main and the additional targets once they are reachable again.
+ * Replay of a spool stops at its first failed send and picks up from the same record on the next run (or after a
+ * restart). Spools are drained even after spooling has been turned off, so nothing spooled before is left behind.
+ */
+@Extension
+public class ArgusSpoolReplayer extends AsyncPeriodicWork {
+    private static final String ARGUS_NOTIFIER_SPOOL_REPLAYER = "Argus Notifier Spool Replayer";
+    private static final Logger logger = Logger.getLogger(ArgusSpoolReplayer.class.getName());
+
+    public ArgusSpoolReplayer() {
+        super(ARGUS_NOTIFIER_SPOOL_REPLAYER);
+    }
+
+    @Override
+    protected void execute(TaskListener taskListener) throws IOException, InterruptedException {
+        Jenkins instance = Jenkins.getInstance();
+        ArgusNotifier.DescriptorImpl argusNotifierDescriptor =
+                (ArgusNotifier.DescriptorImpl) instance.getDescriptor(ArgusNotifier.class);
+        if (argusNotifierDescriptor == null || !argusNotifierDescriptor.isNotifierConfigured()) {
+            return;
+        }
+        // a single attempt per run; the circuit breaker keeps replay from hammering an endpoint that is still down
+        RetryPolicy singleAttempt = new RetryPolicy(1, 0, 0);
+        int metricsPerSecond = argusNotifierDescriptor.getConfiguration().getSpoolReplayMetricsPerSecond();
+        try {
+            replay(argusNotifierDescriptor.getSpool(), argusNotifierDescriptor.getArgusConnectionInfo(), singleAttempt,
+                    metricsPerSecond);
+            for (ArgusTargetPipeline pipeline : argusNotifierDescriptor.getTargetPipelines()) {
+                replay(pipeline.getSpool(), pipeline.getArgusConnectionInfo(), singleAttempt, metricsPerSecond);
+            }
+        } finally {
+            // runs on a shared Jenkins thread, which should not keep a deflater between runs
+            ReusableGzipOutputStream.releaseForCurrentThread();
+        }
+    }
+
+    private static void replay(ArgusSpool spool, ArgusConnectionInfo argusConnectionInfo, RetryPolicy retryPolicy,
+                               int metricsPerSecond) throws IOException, InterruptedException {
+        if (spool == null || spool.isEmpty()) {
+            return;
+        }
+        int replayed = spool.replay(argusConnectionInfo,
+                payload -> ArgusDataSender.sendWithRetry(payload, retryPolicy), metricsPerSecond);
+        if (replayed > 0 && logger.isLoggable(Level.INFO)) {
+            logger.info(MessageFormat.format("Argus Notifier: Replayed {0} spooled payloads to {1}", replayed,
+                    argusConnectionInfo.argusUrl));
+        }
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+}
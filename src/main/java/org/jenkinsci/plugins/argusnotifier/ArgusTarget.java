@@ -0,0 +1,136 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.util.Objects;
+
+/**
+ * An additional Argus endpoint that gets the same build and system metrics as the main one, under its own scope and
+ * optionally narrowed down by metric name. Each target is sent to by its own {@link ArgusTargetPipeline}.
+ */
+public class ArgusTarget extends AbstractDescribableImpl<ArgusTarget> {
+
+    private final String argusUrl;
+    private final String credentialsId;
+    private final String scope;
+    private String metricIncludes;
+    private String metricExcludes;
+    private boolean compressRequests;
+
+    @DataBoundConstructor
+    public ArgusTarget(String argusUrl, String credentialsId, String scope) {
+        this.argusUrl = ArgusNotifier.DescriptorImpl.stripTrailingSlash(argusUrl);
+        this.credentialsId = credentialsId;
+        this.scope = scope;
+    }
+
+    public String getArgusUrl() {
+        return argusUrl;
+    }
+
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getMetricIncludes() {
+        return metricIncludes;
+    }
+
+    @DataBoundSetter
+    public void setMetricIncludes(String metricIncludes) {
+        this.metricIncludes = metricIncludes;
+    }
+
+    public String getMetricExcludes() {
+        return metricExcludes;
+    }
+
+    @DataBoundSetter
+    public void setMetricExcludes(String metricExcludes) {
+        this.metricExcludes = metricExcludes;
+    }
+
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+
+    @DataBoundSetter
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    boolean isConfigured() {
+        return credentialsId != null && !credentialsId.trim().isEmpty() &&
+                argusUrl != null && !argusUrl.trim().isEmpty() &&
+                scope != null && !scope.trim().isEmpty();
+    }
+
+    ArgusConnectionInfo getArgusConnectionInfo() {
+        return new ArgusConnectionInfo(argusUrl, CredentialsCache.get().getCredentials(credentialsId),
+                compressRequests);
+    }
+
+    MetricNameFilter getMetricNameFilter() {
+        return MetricNameFilter.compile(metricIncludes, metricExcludes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ArgusTarget that = (ArgusTarget) o;
+        return Objects.equals(argusUrl, that.argusUrl) && Objects.equals(credentialsId, that.credentialsId) &&
+                Objects.equals(scope, that.scope) && Objects.equals(metricIncludes, that.metricIncludes) &&
+                Objects.equals(metricExcludes, that.metricExcludes) && compressRequests == that.compressRequests;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(argusUrl, credentialsId, scope, metricIncludes, metricExcludes, compressRequests);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<ArgusTarget> {
+
+        @Override
+        public String getDisplayName() {
+            return "Argus target";
+        }
+
+        private static ArgusNotifier.DescriptorImpl notifierDescriptor() {
+            return Jenkins.getInstance().getDescriptorByType(ArgusNotifier.DescriptorImpl.class);
+        }
+
+        @RequirePOST
+        public FormValidation doTestConnection(@QueryParameter("argusUrl") String argusUrl,
+                                               @QueryParameter("credentialsId") String credentialsId) {
+            return notifierDescriptor().doTestConnection(argusUrl, credentialsId);
+        }
+
+        public FormValidation doCheckCredentialsId(@QueryParameter("credentialsId") String credentialsId,
+                                                   @QueryParameter("argusUrl") String argusUrl) {
+            return notifierDescriptor().doCheckCredentialsId(credentialsId, argusUrl);
+        }
+
+        public ListBoxModel doFillCredentialsIdItems() {
+            return notifierDescriptor().doFillCredentialsIdItems();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.Util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Send pipeline of one additional {@link ArgusTarget}: its own send queue and sender workers, and its own spool, so
+ * that a slow or failing target neither delays nor loses data for the other targets.
+ * <p>
+ * Payloads are built once for the main target and shared. Metrics and annotations the target accepts are passed on
+ * as they are when the target uses the same scope; otherwise they are copied with the target's scope, sharing tags
+ * and datapoints with the original.
+ * <p>
+ * The target's credentials are resolved again for every send (through the {@link CredentialsCache}), so a change to
+ * the credentials is picked up without reconfiguring the target.
+ */
+class ArgusTargetPipeline {
+    private static final Logger logger = Logger.getLogger(ArgusTargetPipeline.class.getName());
+
+    static final String TARGETS_DIRECTORY = "targets";
+    private static final long RETIRE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final ArgusTarget target;
+    private final Supplier<ArgusConnectionInfo> argusConnectionInfo;
+    private final String scope;
+    private final MetricNameFilter filter;
+    private final ArgusSendQueue sendQueue;
+    private final ArgusSpool spool;
+    private final boolean spoolEnabled;
+    private final Supplier<RetryPolicy> retryPolicy;
+    private volatile boolean retired;
+
+    /**
+     * @param target target to send to
+     * @param argusConnectionInfo resolves the URL and current credentials of the target
+     * @param settings queue settings, shared with the main target
+     * @param spool spool of the target, replayed even when spooling is off; may be null
+     * @param spoolEnabled whether payloads that could not be sent are written to the spool or dropped
+     * @param retryPolicy current retry policy
+     */
+    ArgusTargetPipeline(ArgusTarget target, Supplier<ArgusConnectionInfo> argusConnectionInfo,
+                        ArgusSendQueue.Settings settings, ArgusSpool spool, boolean spoolEnabled,
+                        Supplier<RetryPolicy> retryPolicy) {
+        this.target = target;
+        this.argusConnectionInfo = argusConnectionInfo;
+        this.scope = target.getScope();
+        this.filter = target.getMetricNameFilter();
+        this.spool = spool;
+        this.spoolEnabled = spoolEnabled;
+        this.retryPolicy = retryPolicy;
+        this.sendQueue = new ArgusSendQueue(settings, this::send, this::spool);
+    }
+
+    /**
+     * Key of a target, named after the URL and scope, so a target keeps its spooled data when it is reconfigured
+     * otherwise or moved in the list. Two targets with the same key are not allowed, see {@link #findDuplicate}.
+     *
+     * @param target target to get the key for
+     * @return digest of the URL and scope
+     */
+    static String targetKey(ArgusTarget target) {
+        return Util.getDigestOf(target.getArgusUrl() + '\n' + target.getScope());
+    }
+
+    /**
+     * Spool directory of a target below the plugin directory, see {@link #targetKey}.
+     *
+     * @param pluginDirectory the plugin directory under JENKINS_HOME
+     * @param target target to get the spool directory for
+     * @return the spool directory
+     */
+    static Path spoolDirectory(Path pluginDirectory, ArgusTarget target) {
+        return pluginDirectory.resolve(TARGETS_DIRECTORY).resolve(targetKey(target))
+                .resolve(ArgusSpool.SPOOL_DIRECTORY);
+    }
+
+    /**
+     * @param targets configured targets
+     * @return the first target with the same URL and scope as an earlier one, or null if there is none
+     */
+    static ArgusTarget findDuplicate(List<ArgusTarget> targets) {
+        Set<String> keys = new HashSet<>();
+        for (ArgusTarget target : targets) {
+            if (!keys.add(targetKey(target))) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete the directories of targets that are not configured anymore, including any data spooled for them.
+     *
+     * @param pluginDirectory the plugin directory under JENKINS_HOME
+     * @param targets configured targets, whose directories are kept
+     */
+    static void deleteUnusedDirectories(Path pluginDirectory, List<ArgusTarget> targets) {
+        Path targetsDirectory = pluginDirectory.resolve(TARGETS_DIRECTORY);
+        if (!Files.isDirectory(targetsDirectory)) {
+            return;
+        }
+        Set<String> used = new HashSet<>();
+        for (ArgusTarget target : targets) {
+            used.add(targetKey(target));
+        }
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(targetsDirectory)) {
+            for (Path directory : directories) {
+                if (!used.contains(directory.getFileName().toString())) {
+                    if (logger.isLoggable(Level.INFO)) {
+                        logger.info("Argus Notifier: Deleting " + directory + " of a removed target");
+                    }
+                    Util.deleteRecursive(directory.toFile());
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Argus Notifier: Could not delete the directories of removed targets", e);
+        }
+    }
+
+    static ArgusSpool createSpool(Path pluginDirectory, ArgusTarget target, long maxMegabytes, long maxAgeHours) {
+        try {
+            return new ArgusSpool(spoolDirectory(pluginDirectory, target), maxMegabytes, maxAgeHours);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Argus Notifier: Could not read the spool directory for " +
+                    target.getArgusUrl(), e);
+            return null;
+        }
+    }
+
+    ArgusTarget getTarget() {
+        return target;
+    }
+
+    /**
+     * @return URL and current credentials of the target
+     */
+    ArgusConnectionInfo getArgusConnectionInfo() {
+        return argusConnectionInfo.get();
+    }
+
+    ArgusSendQueue getSendQueue() {
+        return sendQueue;
+    }
+
+    ArgusSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * Queue the part of the payload this target accepts, under the target's scope. Never blocks.
+     *
+     * @param payload payload built for the main target
+     * @return false if nothing was queued, because the target accepts none of it or its queue dropped it
+     */
+    boolean offer(ArgusPayload payload) {
+        List<Metric> metrics = forTarget(payload.metrics);
+        List<Annotation> annotations = forTargetAnnotations(payload.annotations);
+        if (metrics.isEmpty() && annotations.isEmpty()) {
+            return false;
+        }
+        return sendQueue.enqueue(new ArgusPayload(getArgusConnectionInfo(), metrics, annotations,
+                payload.createdMillis));
+    }
+
+    /**
+     * Stop the sender workers and spool anything still queued.
+     */
+    void shutdown() {
+        sendQueue.shutdown();
+        for (ArgusPayload pending : sendQueue.drainPending()) {
+            spool(pending);
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    /**
+     * Retire the pipeline of a target that was removed from the configuration. What is queued is still sent, in the
+     * background and for a limited time, without interrupting sends in flight; nothing is spooled anymore, since no
+     * pipeline replays the spool of a removed target.
+     *
+     * @param afterwards run once the queue has finished, to delete the target's directory
+     */
+    void retire(Runnable afterwards) {
+        retired = true;
+        if (spool != null) {
+            spool.close();
+        }
+        jenkins.util.Timer.get().execute(() -> {
+            sendQueue.finish(RETIRE_TIMEOUT_MILLIS);
+            List<ArgusPayload> unsent = sendQueue.drainPending();
+            if (!unsent.isEmpty() && logger.isLoggable(Level.WARNING)) {
+                logger.warning("Argus Notifier: Dropped " + unsent.size() + " payloads for removed target " +
+                        target.getArgusUrl());
+            }
+            afterwards.run();
+        });
+    }
+
+    List<Metric> forTarget(List<Metric> metrics) {
+        boolean unchanged = true;
+        for (Metric metric : metrics) {
+            if (!filter.accepts(metric.getMetric()) || !scope.equals(metric.getScope())) {
+                unchanged = false;
+                break;
+            }
+        }
+        if (unchanged) {
+            return metrics;
+        }
+        List<Metric> result = new ArrayList<>(metrics.size());
+        for (Metric metric : metrics) {
+            if (filter.accepts(metric.getMetric())) {
+                result.add(scope.equals(metric.getScope()) ? metric : withScope(metric, scope));
+            }
+        }
+        return result;
+    }
+
+    List<Annotation> forTargetAnnotations(List<Annotation> annotations) {
+        boolean unchanged = true;
+        for (Annotation annotation : annotations) {
+            if (!filter.accepts(annotation.getMetric()) || !scope.equals(annotation.getScope())) {
+                unchanged = false;
+                break;
+            }
+        }
+        if (unchanged) {
+            return annotations;
+        }
+        List<Annotation> result = new ArrayList<>(annotations.size());
+        for (Annotation annotation : annotations) {
+            if (filter.accepts(annotation.getMetric())) {
+                result.add(scope.equals(annotation.getScope()) ? annotation : withScope(annotation, scope));
+            }
+        }
+        return result;
+    }
+
+    private static Metric withScope(Metric metric, String scope) {
+        Metric copy = new Metric();
+        copy.setScope(scope);
+        copy.setMetric(metric.getMetric());
+        copy.setNamespace(metric.getNamespace());
+        copy.setDisplayName(metric.getDisplayName());
+        copy.setUnits(metric.getUnits());
+        copy.setTags(metric.getTags());
+        copy.setDatapoints(metric.getDatapoints());
+        return copy;
+    }
+
+    private static Annotation withScope(Annotation annotation, String scope) {
+        Annotation copy = new Annotation();
+        copy.setScope(scope);
+        copy.setMetric(annotation.getMetric());
+        copy.setTags(annotation.getTags());
+        copy.setSource(annotation.getSource());
+        copy.setId(annotation.getId());
+        copy.setType(annotation.getType());
+        copy.setTimestamp(annotation.getTimestamp());
+        copy.setFields(annotation.getFields());
+        return copy;
+    }
+
+    /**
+     * Send with the credentials as they are now; the payload may have been queued before they changed.
+     */
+    private ArgusPayload send(ArgusPayload payload) {
+        return ArgusDataSender.sendWithRetry(new ArgusPayload(getArgusConnectionInfo(), payload.metrics,
+                payload.annotations, payload.createdMillis), retryPolicy.get());
+    }
+
+    private void spool(ArgusPayload payload) {
+        if (spoolEnabled && spool != null && !retired) {
+            spool.append(payload);
+        }
+    }
+}
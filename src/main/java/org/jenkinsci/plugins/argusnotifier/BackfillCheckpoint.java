@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Progress of a backfill, so that it can resume where it stopped: the last build sent per job and the time the
+ * notifier was first set up. Runs that started after that time were sent by the {@link ArgusRunListener} already.
+ * <p>
+ * Jobs are kept under their full name; {@link #rename} moves the progress of a job that was renamed or moved.
+ * Stored as a properties file that is replaced atomically on every change. Thread-safe.
+ */
+class BackfillCheckpoint {
+    static final String CHECKPOINT_FILE = "backfill.checkpoint";
+    private static final String CUTOFF_KEY = "cutoffMillis";
+    private static final String JOB_PREFIX = "job.";
+
+    private final Path file;
+    private final Properties properties;
+    /**
+     * Old to new full names of jobs renamed while a batch with their old name may be pending.
+     */
+    private final Map<String, String> renamed = new HashMap<>();
+
+    private BackfillCheckpoint(Path file, Properties properties) {
+        this.file = file;
+        this.properties = properties;
+    }
+
+    /**
+     * @param file checkpoint file, which does not need to exist yet
+     * @return the saved checkpoint, or an empty one
+     * @throws IOException if the file exists but cannot be read
+     */
+    static BackfillCheckpoint load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            // nothing sent yet
+        }
+        return new BackfillCheckpoint(file, properties);
+    }
+
+    /**
+     * Record the cutoff and save it right away, unless one was recorded before.
+     *
+     * @param cutoffMillis when the notifier was set up
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void recordCutoff(long cutoffMillis) throws IOException {
+        if (properties.getProperty(CUTOFF_KEY) == null) {
+            properties.setProperty(CUTOFF_KEY, String.valueOf(cutoffMillis));
+            store();
+        }
+    }
+
+    /**
+     * @return runs that started at or after this time are not backfilled; {@link Long#MAX_VALUE} if no cutoff was
+     * recorded
+     */
+    synchronized long getCutoffMillis() {
+        String cutoff = properties.getProperty(CUTOFF_KEY);
+        return cutoff == null ? Long.MAX_VALUE : Long.parseLong(cutoff);
+    }
+
+    /**
+     * @param jobFullName full name of the job
+     * @return number of the last build of the job that was sent, 0 if none
+     */
+    synchronized int getLastBuild(String jobFullName) {
+        String lastBuild = properties.getProperty(JOB_PREFIX + jobFullName);
+        return lastBuild == null ? 0 : Integer.parseInt(lastBuild);
+    }
+
+    /**
+     * Record builds as sent and save the checkpoint.
+     *
+     * @param lastBuilds number of the last build sent per job
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void save(Map<String, Integer> lastBuilds) throws IOException {
+        for (Map.Entry<String, Integer> entry : lastBuilds.entrySet()) {
+            String jobFullName = renamed.getOrDefault(entry.getKey(), entry.getKey());
+            properties.setProperty(JOB_PREFIX + jobFullName, String.valueOf(entry.getValue()));
+        }
+        store();
+    }
+
+    /**
+     * Move the progress of a job to its new full name and save the checkpoint.
+     *
+     * @param oldFullName full name before the job was renamed or moved
+     * @param newFullName full name now
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void rename(String oldFullName, String newFullName) throws IOException {
+        renamed.replaceAll((from, to) -> to.equals(oldFullName) ? newFullName : to);
+        renamed.put(oldFullName, newFullName);
+        String lastBuild = (String) properties.remove(JOB_PREFIX + oldFullName);
+        if (lastBuild != null) {
+            properties.setProperty(JOB_PREFIX + newFullName, lastBuild);
+            store();
+        }
+    }
+
+    /**
+     * Forget the progress of a deleted job, so a new job of the same name starts from its first build.
+     *
+     * @param jobFullName full name of the deleted job
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void remove(String jobFullName) throws IOException {
+        if (properties.remove(JOB_PREFIX + jobFullName) != null) {
+            store();
+        }
+    }
+
+    private void store() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Argus Notifier backfill progress");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forget the progress, so the next backfill starts from the first build of every job. The cutoff is kept, since
+     * the runs after it were sent when they completed.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void clearProgress() throws IOException {
+        properties.stringPropertyNames().stream().filter(name -> name.startsWith(JOB_PREFIX))
+                .forEach(properties::remove);
+        renamed.clear();
+        store();
+    }
+}
@@ -25,11 +25,21 @@ class BuildMetricFactory {
     private final Run run;
     private final long metricTimestamp;
     private final String scope;
-    private final JenkinsRunFormatter jenkinsRunFormatter;
+    private final RunSnapshot runSnapshot;
 
     BuildMetricFactory(Jenkins jenkins, Run run, long metricTimestamp, String scope) {
+        this(run, RunSnapshot.of(jenkins, run), metricTimestamp, scope);
+    }
+
+    /**
+     * @param run the run to generate metrics from
+     * @param runSnapshot snapshot of the same run, shared with the {@link AnnotationFactory}
+     * @param metricTimestamp used for all metric datapoints
+     * @param scope scope to be utilized for the metrics
+     */
+    BuildMetricFactory(Run run, RunSnapshot runSnapshot, long metricTimestamp, String scope) {
         this.run = run;
-        this.jenkinsRunFormatter = new JenkinsRunFormatter(jenkins, run);
+        this.runSnapshot = runSnapshot;
         this.metricTimestamp = metricTimestamp;
         this.scope = scope;
     }
@@ -41,8 +51,7 @@ class BuildMetricFactory {
         statusTranslatedToNumberMetric.setMetric(BUILD_STATUS);
         // TODO: statusTranslatedToNumberMetric.setNamespace(projectName);
 
-        statusTranslatedToNumberMetric
-                .setTags(TagFactory.buildStatusTags(jenkinsRunFormatter));
+        statusTranslatedToNumberMetric.setTags(runSnapshot.tags);
         Map<Long, Double> numericStatusDatapoints = ImmutableMap.<Long, Double>builder()
                 .put(metricTimestamp, BuildResultsResolver.translateResultToNumber(run.getResult())).build();
         statusTranslatedToNumberMetric.setDatapoints(numericStatusDatapoints);
@@ -50,32 +59,39 @@ class BuildMetricFactory {
         buildStatusMetric.setScope(scope);
         buildStatusMetric.setDisplayName(getDisplayName(BuildResultsResolver.getBuildResult(run.getResult())));
         buildStatusMetric.setMetric(BuildResultsResolver.getMetricName(run.getResult()));
-        buildStatusMetric.setTags(TagFactory.buildStatusTags(jenkinsRunFormatter));
+        buildStatusMetric.setTags(runSnapshot.tags);
         Map<Long, Double> buildStatusDatapoints = ImmutableMap.<Long, Double>builder().put(metricTimestamp, 1.0)
                 .build();
         buildStatusMetric.setDatapoints(buildStatusDatapoints);
         return ImmutableList.of(statusTranslatedToNumberMetric, buildStatusMetric);
     }
 
+    /**
+     * Build, queue and total time. The queue time comes from the {@link TimeInQueueAction} of the Metrics plugin;
+     * runs from before the plugin was installed (e.g. when backfilling) have none and get a queue time of 0.
+     */
     List<Metric> getBuildTimeMetrics() {
         TimeInQueueAction timeInQueueAction = run.getAction(jenkins.metrics.impl.TimeInQueueAction.class);
+        long queuingDurationMillis = timeInQueueAction == null ? 0L : timeInQueueAction.getQueuingDurationMillis();
         long buildingDurationMillis;
         long totalDurationMillis;
         // Working around https://issues.jenkins-ci.org/browse/JENKINS-46945
-        if (run instanceof AbstractBuild) {
+        if (run instanceof AbstractBuild && timeInQueueAction != null) {
             buildingDurationMillis = timeInQueueAction.getBuildingDurationMillis();
             totalDurationMillis = timeInQueueAction.getTotalDurationMillis();
         } else {
-            buildingDurationMillis = Math.max(0L, System.currentTimeMillis() - run.getStartTimeInMillis());
-            totalDurationMillis = timeInQueueAction.getQueuingDurationMillis() + buildingDurationMillis;
+            // the duration is only known once the run has been finalized
+            buildingDurationMillis = run.getDuration() > 0 ? run.getDuration() :
+                    Math.max(0L, System.currentTimeMillis() - run.getStartTimeInMillis());
+            totalDurationMillis = queuingDurationMillis + buildingDurationMillis;
         }
         return ImmutableList.of(getBuildTimeMetric(BUILD_TIME_LABEL, BUILD_TIME_METRIC, buildingDurationMillis),
-                getBuildTimeMetric(QUEUE_TIME_LABEL, QUEUE_TIME_METRIC, timeInQueueAction.getQueuingDurationMillis()),
+                getBuildTimeMetric(QUEUE_TIME_LABEL, QUEUE_TIME_METRIC, queuingDurationMillis),
                 getBuildTimeMetric(TOTAL_BUILD_TIME_LABEL, TOTAL_BUILD_TIME_METRIC, totalDurationMillis));
     }
 
     private String getDisplayName(String label) {
-        return jenkinsRunFormatter.getProjectName() + ": " + label;
+        return runSnapshot.projectName + ": " + label;
     }
 
     private Metric getBuildTimeMetric(String labelForDisplayName, String metricString, long timeInMillis) {
@@ -87,7 +103,7 @@ class BuildMetricFactory {
         // TODO: metric.setNamespace(projectName);
         double timeInSeconds = (double) timeInMillis / 1000.0;
 
-        metric.setTags(TagFactory.buildStatusTags(jenkinsRunFormatter));
+        metric.setTags(runSnapshot.tags);
         Map<Long, Double> datapoints = ImmutableMap.<Long, Double>builder().put(metricTimestamp, timeInSeconds).build();
         metric.setDatapoints(datapoints);
         return metric;
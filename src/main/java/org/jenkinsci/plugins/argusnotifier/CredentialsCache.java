@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the credentials resolved for a credentials id, so that sending data does not look up every credential in
+ * the system each time. Entries are dropped when the Jenkins credential store is saved, when the global configuration
+ * is saved, and otherwise after a time-to-live (which also covers credential stores that are not saved through
+ * Jenkins, e.g. folder stores or external providers).
+ * <p>
+ * A missing credential is cached too, so that a wrong id does not trigger a full lookup on every send either.
+ * <p>
+ * Every entry records the generation of the cache it was looked up in, and {@link #invalidateAll()} starts a new
+ * generation. A lookup that was still running when the cache was invalidated may put its result back, but that
+ * entry belongs to the old generation and is never served.
+ */
+class CredentialsCache {
+    private static final Logger logger = Logger.getLogger(CredentialsCache.class.getName());
+
+    static final long DEFAULT_TTL_MINUTES = 5;
+
+    private static final CredentialsCache INSTANCE = new CredentialsCache(ArgusNotifier::getCredentialsById,
+            TimeUnit.MINUTES.toNanos(DEFAULT_TTL_MINUTES), System::nanoTime);
+
+    private final Function<String, UsernamePasswordCredentials> loader;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param loader uncached lookup of the credentials by id
+     * @param ttlNanos how long a resolved entry is used
+     * @param nanoClock source of {@link System#nanoTime()}-like timestamps
+     */
+    CredentialsCache(Function<String, UsernamePasswordCredentials> loader, long ttlNanos, LongSupplier nanoClock) {
+        this.loader = loader;
+        this.ttlNanos = ttlNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return the cache used by the plugin
+     */
+    static CredentialsCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param id credentials id
+     * @return the cached credentials, looked up again if not cached or expired; null if there are none with the id
+     */
+    UsernamePasswordCredentials getCredentials(String id) {
+        if (id == null) {
+            return null;
+        }
+        long now = nanoClock.getAsLong();
+        long currentGeneration = generation.get();
+        Entry entry = entries.get(id);
+        if (entry == null || entry.generation != currentGeneration || now - entry.loadedAtNanos >= ttlNanos) {
+            // concurrent misses may both look up; the last one wins, which is harmless
+            entry = new Entry(loader.apply(id), now, currentGeneration);
+            entries.put(id, entry);
+        }
+        return entry.credentials;
+    }
+
+    /**
+     * Forget all resolved credentials.
+     */
+    void invalidateAll() {
+        if (!entries.isEmpty() && logger.isLoggable(Level.FINE)) {
+            logger.fine("Argus Notifier: Clearing " + entries.size() + " cached credentials");
+        }
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    long getTtlNanos() {
+        return ttlNanos;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        private final UsernamePasswordCredentials credentials;
+        private final long loadedAtNanos;
+        private final long generation;
+
+        Entry(UsernamePasswordCredentials credentials, long loadedAtNanos, long generation) {
+            this.credentials = credentials;
+            this.loadedAtNanos = loadedAtNanos;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Clears the cache when the global credential store is saved, i.e. when credentials are added, updated or
+     * removed, and has the configuration snapshot resolve its credentials again. Sessions logged in with credentials
+     * that are no longer configured are closed once they are not in use anymore.
+     */
+    @Extension
+    public static class CredentialStoreListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                INSTANCE.invalidateAll();
+                Jenkins jenkins = Jenkins.getInstanceOrNull();
+                ArgusNotifier.DescriptorImpl descriptor = jenkins == null ? null :
+                        jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl.class);
+                if (descriptor != null) {
+                    // also retires the sessions of credentials that changed, see ArgusSessionManager#retainOnly
+                    descriptor.refreshCredentials();
+                } else {
+                    ArgusSessionManager.closeAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the last value sent for each gauge so that only gauges that changed need to be sent. Values are kept as
+ * primitive doubles in an open addressing table (no boxing per gauge per interval). Every
+ * {@code fullRefreshIntervals} intervals everything is sent again so that series do not go stale in Argus. Gauges
+ * that were not reported in an interval, e.g. those of a removed node or job, are forgotten at the start of the next
+ * one, so the table only holds the gauges that currently exist.
+ * <p>
+ * Not thread-safe; it is only used from the periodic sender, which never runs concurrently with itself.
+ */
+class GaugeDeltaTracker {
+    static final double DEFAULT_EPSILON = 0.0;
+    static final int DEFAULT_FULL_REFRESH_INTERVALS = 10;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private boolean[] seen = new boolean[INITIAL_CAPACITY];
+    private int size;
+    private int intervalsSinceRefresh;
+    private boolean fullRefresh = true;
+
+    /**
+     * Start a new interval.
+     *
+     * @param fullRefreshIntervals send everything every this many intervals
+     * @return whether every gauge will be sent in this interval
+     */
+    boolean startInterval(int fullRefreshIntervals) {
+        evictUnseen();
+        fullRefresh = intervalsSinceRefresh == 0;
+        intervalsSinceRefresh = (intervalsSinceRefresh + 1) % Math.max(1, fullRefreshIntervals);
+        return fullRefresh;
+    }
+
+    /**
+     * Record the value for this interval.
+     *
+     * @param name gauge name
+     * @param value current value
+     * @param epsilon changes up to this size are not considered a change
+     * @return whether the gauge should be sent
+     */
+    boolean shouldSend(String name, double value, double epsilon) {
+        int slot = slotOf(name);
+        if (keys[slot] == null) {
+            insert(slot, name, value);
+            return true;
+        }
+        seen[slot] = true;
+        double previous = values[slot];
+        if (!fullRefresh && (Double.compare(previous, value) == 0 || Math.abs(previous - value) <= epsilon)) {
+            return false;
+        }
+        values[slot] = value;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slotOf(String name) {
+        int mask = keys.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (keys[slot] != null && !keys[slot].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insert(int slot, String name, double value) {
+        keys[slot] = name;
+        values[slot] = value;
+        seen[slot] = true;
+        size++;
+        // keep the load factor at or below one half so probe sequences stay short
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2, false);
+        }
+    }
+
+    /**
+     * Drop the gauges that were not reported since the last call. Removing single keys would break the probe
+     * sequences of the open addressing table, so the remaining keys are rehashed instead.
+     */
+    private void evictUnseen() {
+        int unseen = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && !seen[i]) {
+                unseen++;
+            }
+        }
+        if (unseen > 0) {
+            rehash(keys.length, true);
+        }
+        Arrays.fill(seen, false);
+    }
+
+    private void rehash(int capacity, boolean seenOnly) {
+        String[] oldKeys = keys;
+        double[] oldValues = values;
+        boolean[] oldSeen = seen;
+        keys = new String[capacity];
+        values = new double[capacity];
+        seen = new boolean[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null && (oldSeen[i] || !seenOnly)) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                seen[slot] = oldSeen[i];
+                size++;
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,174 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Samples numeric gauges more often than they are sent, so that short spikes between two sends are not lost. Each
+ * gauge gets a small ring buffer of primitive timestamps and values; the buffers are reused from one send interval
+ * to the next.
+ * <p>
+ * {@link #sample} and {@link #drain} may be called from different threads.
+ */
+class GaugeSampler {
+    static final int DEFAULT_INTERVAL_SECONDS = 0;
+    private static final int MAX_CAPACITY = 720;
+
+    /**
+     * How the samples of one send interval are sent.
+     */
+    enum Aggregation {
+        SUMMARY("Minimum, maximum, average and last value"),
+        DATAPOINTS("Every sample as a datapoint");
+
+        private final String displayName;
+
+        Aggregation(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final int intervalSeconds;
+    private final int capacity;
+    private final Map<String, SampleBuffer> buffers = new HashMap<>();
+
+    /**
+     * @param intervalSeconds seconds between samples
+     * @param sendIntervalSeconds seconds between sends
+     */
+    GaugeSampler(int intervalSeconds, long sendIntervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+        // room for two send intervals in case a send is late; older samples are overwritten after that
+        this.capacity = (int) Math.min(MAX_CAPACITY, Math.max(2L, 2 * sendIntervalSeconds / intervalSeconds + 1));
+    }
+
+    int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    /**
+     * Record the current value of every numeric gauge accepted by the filter.
+     *
+     * @param metricRegistry registry to sample
+     * @param filter only gauges accepted by this filter are sampled
+     * @param timestamp timestamp of the samples
+     */
+    synchronized void sample(MetricRegistry metricRegistry, MetricNameFilter filter, long timestamp) {
+        metricRegistry.getGauges().forEach((String key, Gauge gauge) -> {
+            if (!filter.accepts(key)) {
+                return;
+            }
+            Object value = gauge.getValue();
+            if (value instanceof Number) {
+                buffers.computeIfAbsent(key, k -> new SampleBuffer(capacity))
+                        .add(timestamp, ((Number) value).doubleValue());
+            }
+        });
+    }
+
+    /**
+     * Hand every gauge that was sampled since the last drain to the consumer, then empty the buffers. Buffers of
+     * gauges that were not sampled at all in the interval (e.g. because they were removed) are dropped.
+     *
+     * @param consumer gets the gauge name and its samples; must not keep the buffer
+     */
+    synchronized void drain(BiConsumer<String, SampleBuffer> consumer) {
+        Iterator<Map.Entry<String, SampleBuffer>> iterator = buffers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, SampleBuffer> entry = iterator.next();
+            SampleBuffer buffer = entry.getValue();
+            if (buffer.size() == 0) {
+                iterator.remove();
+                continue;
+            }
+            consumer.accept(entry.getKey(), buffer);
+            buffer.clear();
+        }
+    }
+
+    synchronized int gaugeCount() {
+        return buffers.size();
+    }
+
+    /**
+     * Ring buffer of samples, oldest first. When full, the oldest sample is overwritten.
+     */
+    static final class SampleBuffer {
+        private final long[] timestamps;
+        private final double[] values;
+        private int start;
+        private int size;
+
+        SampleBuffer(int capacity) {
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+        }
+
+        void add(long timestamp, double value) {
+            int index;
+            if (size < values.length) {
+                index = (start + size) % values.length;
+                size++;
+            } else {
+                index = start;
+                start = (start + 1) % values.length;
+            }
+            timestamps[index] = timestamp;
+            values[index] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long timestamp(int i) {
+            return timestamps[(start + i) % timestamps.length];
+        }
+
+        double value(int i) {
+            return values[(start + i) % values.length];
+        }
+
+        double min() {
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                min = Math.min(min, value(i));
+            }
+            return min;
+        }
+
+        double max() {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, value(i));
+            }
+            return max;
+        }
+
+        double average() {
+            double sum = 0.0;
+            for (int i = 0; i < size; i++) {
+                sum += value(i);
+            }
+            return sum / size;
+        }
+
+        double last() {
+            return value(size - 1);
+        }
+
+        void clear() {
+            start = 0;
+            size = 0;
+        }
+    }
+}
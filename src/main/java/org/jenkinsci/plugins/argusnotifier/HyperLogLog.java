@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog estimator of the number of distinct strings added to it. With the default precision of 10 the standard
+ * error is about 3%. Small counts use linear counting, which is exact enough to compare against thresholds in the
+ * hundreds.
+ * <p>
+ * An estimator starts out sparse: it keeps only the registers that are set, until an eighth of them are, and only
+ * then allocates all {@code 2^precision} registers (1 KB with the default precision). A job with a hundred builds
+ * costs a few hundred bytes; the estimate is the same either way.
+ * <p>
+ * Thread-safe.
+ */
+final class HyperLogLog {
+    static final int DEFAULT_PRECISION = 10;
+    private static final int INITIAL_SPARSE_CAPACITY = 8;
+    private static final int RANK_BITS = 8;
+    private static final int RANK_MASK = (1 << RANK_BITS) - 1;
+
+    private final int precision;
+    private final int sparseLimit;
+    private final double alphaMM;
+    // index << RANK_BITS | rank of each register that is set, while sparse
+    private int[] sparse = new int[INITIAL_SPARSE_CAPACITY];
+    private int sparseCount;
+    // all registers, once too many are set to keep them sparse
+    private byte[] registers;
+
+    HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision number of hash bits used to pick a register, between 4 and 16
+     */
+    HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("precision must be between 4 and 16: " + precision);
+        }
+        this.precision = precision;
+        int m = 1 << precision;
+        this.sparseLimit = m / 8;
+        this.alphaMM = 0.7213 / (1 + 1.079 / m) * m * m;
+    }
+
+    /**
+     * @param value value to count; null is ignored
+     */
+    void add(String value) {
+        if (value == null) {
+            return;
+        }
+        long hash = hash64(value);
+        int index = (int) (hash >>> (Long.SIZE - precision));
+        // the sentinel bit caps the rank at 64 - precision + 1
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        synchronized (this) {
+            if (registers != null) {
+                if (rank > registers[index]) {
+                    registers[index] = (byte) rank;
+                }
+                return;
+            }
+            for (int i = 0; i < sparseCount; i++) {
+                if (sparse[i] >>> RANK_BITS == index) {
+                    if (rank > (sparse[i] & RANK_MASK)) {
+                        sparse[i] = index << RANK_BITS | rank;
+                    }
+                    return;
+                }
+            }
+            if (sparseCount == sparseLimit) {
+                toDense();
+                registers[index] = (byte) rank;
+                return;
+            }
+            if (sparseCount == sparse.length) {
+                sparse = Arrays.copyOf(sparse, Math.min(sparse.length * 2, sparseLimit));
+            }
+            sparse[sparseCount++] = index << RANK_BITS | rank;
+        }
+    }
+
+    private void toDense() {
+        registers = new byte[1 << precision];
+        for (int i = 0; i < sparseCount; i++) {
+            registers[sparse[i] >>> RANK_BITS] = (byte) (sparse[i] & RANK_MASK);
+        }
+        sparse = null;
+        sparseCount = 0;
+    }
+
+    /**
+     * @return true while only the registers that are set are kept
+     */
+    synchronized boolean isSparse() {
+        return registers == null;
+    }
+
+    /**
+     * @return estimated number of distinct values added
+     */
+    synchronized long estimate() {
+        int m = 1 << precision;
+        double sum;
+        int zeros;
+        if (registers == null) {
+            // registers that are not set count as rank 0
+            zeros = m - sparseCount;
+            sum = zeros;
+            for (int i = 0; i < sparseCount; i++) {
+                sum += 1.0 / (1L << (sparse[i] & RANK_MASK));
+            }
+        } else {
+            sum = 0;
+            zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+        }
+        double estimate = alphaMM / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, followed by the MurmurHash3 finalizer so all bits are well mixed.
+     */
+    static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
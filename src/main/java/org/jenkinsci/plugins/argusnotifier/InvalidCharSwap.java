@@ -1,28 +1,81 @@
 package org.jenkinsci.plugins.argusnotifier;
 
-import com.google.common.collect.ImmutableList;
-
-import java.util.regex.Pattern;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * This class will replace invalid characters with valid characters
  */
 public class InvalidCharSwap {
-    private static final ImmutableList<String> INVALID_STRINGS = ImmutableList.of("%2F");
-    private static final String INVALID_CHARS = Pattern.compile("[^a-zA-Z_0-9.\\-/]").toString();
+    private static final String INVALID_STRING = "%2F";
+    static final int CACHE_SIZE = 1024;
 
     /**
-     * Swaps invalid characters with a dash
+     * Recently sanitized names (mostly project names), least recently used evicted first. The cache is segmented, so
+     * threads sanitizing names at the same time do not wait for each other.
+     */
+    private static final Cache<String, String> CACHE = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    /**
+     * Swaps invalid characters with a dash. Only letters, digits, '_', '.', '-' and '/' are valid; an encoded slash
+     * ("%2F") is swapped with a single dash.
      *
      * @param input input string
      * @return output string with invalid characters swapped out with a dash
      */
     public static String swapWithDash(String input) {
-        String outputString = input;
-        for (String invalidString : INVALID_STRINGS) {
-            outputString = outputString.replace(invalidString, "-");
+        int start = firstInvalidIndex(input);
+        if (start == -1) {
+            return input;
+        }
+        String cached = CACHE.getIfPresent(input);
+        if (cached != null) {
+            return cached;
         }
-        outputString = outputString.replaceAll(INVALID_CHARS, "-");
+        String outputString = swap(input, start);
+        CACHE.put(input, outputString);
         return outputString;
     }
+
+    static long cacheSize() {
+        return CACHE.size();
+    }
+
+    private static int firstInvalidIndex(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (!isValid(input.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param start index of the first invalid character
+     */
+    private static String swap(String input, int start) {
+        StringBuilder output = new StringBuilder(input.length());
+        output.append(input, 0, start);
+        int i = start;
+        while (i < input.length()) {
+            char c = input.charAt(i);
+            if (isValid(c)) {
+                output.append(c);
+                i++;
+            } else if (input.startsWith(INVALID_STRING, i)) {
+                output.append('-');
+                i += INVALID_STRING.length();
+            } else {
+                output.append('-');
+                // a character outside the BMP is a single character, so it gets a single dash
+                i += Character.charCount(input.codePointAt(i));
+            }
+        }
+        return output.toString();
+    }
+
+    private static boolean isValid(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '_' || c == '.' || c == '-' || c == '/';
+    }
 }
@@ -1,27 +1,76 @@
 package org.jenkinsci.plugins.argusnotifier;
 
+import com.google.common.collect.ImmutableMap;
 import jenkins.model.Jenkins;
 
+import java.util.Map;
+import java.util.Objects;
+
 /**
  * Formatter for general Jenkins objects
  */
 class JenkinsFormatter {
 
+    private static volatile HostInfo hostInfo = new HostInfo(null);
+
+    /**
+     * Root URL of Jenkins with the host name and host tag derived from it. Computed once per root URL so that the
+     * per-metric and per-build paths only compare the current URL against the cached one.
+     */
+    static final class HostInfo {
+        final String rootUrl;
+        final String hostName;
+        final Map<String, String> hostTag;
+
+        private HostInfo(String rootUrl) {
+            this.rootUrl = rootUrl;
+            this.hostName = parseHostName(rootUrl);
+            this.hostTag = hostName == null ?
+                    ImmutableMap.of() : ImmutableMap.of(TagFactory.Tag.HOST.lower(), hostName);
+        }
+    }
+
+    /**
+     * Host information for the current root URL. It is only recomputed when the root URL (configured in the Jenkins
+     * location configuration) changes.
+     *
+     * @param jenkins Jenkins instance to get the root URL from
+     * @return host information for the current root URL
+     */
+    static HostInfo getHostInfo(Jenkins jenkins) {
+        String rootUrl = jenkins.getRootUrl();
+        HostInfo cached = hostInfo;
+        if (!Objects.equals(cached.rootUrl, rootUrl)) {
+            cached = new HostInfo(rootUrl);
+            hostInfo = cached;
+        }
+        return cached;
+    }
+
     /**
      * Return only the hostname portion of a URL with no port, protocol, or URI
      *
      * @return only the hostname from url
      */
     static String getHostName(Jenkins jenkins) {
-        String outputUrl = jenkins.getRootUrl();
+        return getHostInfo(jenkins).hostName;
+    }
+
+    private static String parseHostName(String url) {
+        String outputUrl = url;
         if (outputUrl != null) {
-            outputUrl = outputUrl.replaceAll("https?://", "");
+            outputUrl = stripPrefix(outputUrl, "https://");
+            outputUrl = stripPrefix(outputUrl, "http://");
             outputUrl = substringUpToFirst(outputUrl, ':');
             outputUrl = substringUpToFirst(outputUrl, '/');
         }
         return outputUrl;
     }
 
+    private static String stripPrefix(String string, String prefix) {
+        return string.startsWith(prefix) ? string.substring(prefix.length()) : string;
+    }
+
     /**
      * Returns the string up to the first instance of character in the string or the string
      * if the character doesn't exist in the string.
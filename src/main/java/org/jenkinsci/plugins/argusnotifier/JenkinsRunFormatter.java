@@ -1,5 +1,7 @@
 package org.jenkinsci.plugins.argusnotifier;
 
+import hudson.model.AbstractBuild;
+import hudson.model.EnvironmentContributingAction;
 import hudson.model.Run;
 import hudson.util.LogTaskListener;
 import jenkins.model.Jenkins;
@@ -20,8 +22,9 @@ class JenkinsRunFormatter {
     private static final Logger logger = Logger.getLogger(JenkinsRunFormatter.class.getName());
 
     public JenkinsRunFormatter(@Nonnull Jenkins jenkins, @Nonnull Run run) {
-        this.jenkinsUrl = jenkins.getRootUrl();
-        this.jenkinsHostName = JenkinsFormatter.getHostName(jenkins);
+        JenkinsFormatter.HostInfo hostInfo = JenkinsFormatter.getHostInfo(jenkins);
+        this.jenkinsUrl = hostInfo.rootUrl;
+        this.jenkinsHostName = hostInfo.hostName;
         this.run = run;
     }
 
@@ -31,6 +34,16 @@ class JenkinsRunFormatter {
      * @return project name associated with build
      */
     String getProjectName() {
+        return getProjectName(run);
+    }
+
+    /**
+     * Return the project name associated with a build, for callers that need nothing else of a formatter.
+     *
+     * @param run the build
+     * @return project name associated with build
+     */
+    static String getProjectName(Run<?, ?> run) {
         if (run.getParent().getFullName() == null) {
             return "null";
         }
@@ -75,7 +88,7 @@ class JenkinsRunFormatter {
         String commitVar = TagFactory.Tag.GIT_COMMIT.toString();
         try {
             EnvVars envVars = run.getEnvironment(listener);
-            String commitHash = envVars.get(commitVar);
+            String commitHash = envVars == null ? null : envVars.get(commitVar);
             if (commitHash == null) {
                 return "";
             } else {
@@ -88,6 +101,26 @@ class JenkinsRunFormatter {
         }
     }
 
+    /**
+     * Get GIT_COMMIT from the variables the run's actions and, for freestyle builds, its SCM contribute, without
+     * {@link Run#getEnvironment} asking the node and every other environment contributor. Cheap enough for past runs,
+     * whose agents may be gone; a commit only known to those contributors is missed.
+     *
+     * @return GIT commit sha as String, return empty String if not available.
+     */
+    String getRecordedGitCommitHash() {
+        Run<?, ?> completedRun = run;
+        EnvVars envVars = new EnvVars();
+        for (EnvironmentContributingAction action : completedRun.getActions(EnvironmentContributingAction.class)) {
+            action.buildEnvironment(completedRun, envVars);
+        }
+        if (completedRun instanceof AbstractBuild) {
+            ((AbstractBuild<?, ?>) completedRun).getProject().getScm().buildEnvironment(completedRun, envVars);
+        }
+        String commitHash = envVars.get(TagFactory.Tag.GIT_COMMIT.toString());
+        return commitHash == null ? "" : commitHash;
+    }
+
     /**
      * Get the formatted Jenkins host name
      *
@@ -106,6 +139,20 @@ class JenkinsRunFormatter {
         return BuildResultsResolver.getBuildResult(run.getResult());
     }
 
+    /**
+     * Whether the build is worth an annotation when only status changes are annotated: the first build, a build with
+     * a different result than the previous one, or a contextual result such as FIXED or STILL FAILING.
+     *
+     * @return true if the status changed or is otherwise notable
+     */
+    public boolean isStatusTransition() {
+        Run<?, ?> previousBuild = run.getPreviousBuild();
+        if (previousBuild == null || previousBuild.getResult() != run.getResult()) {
+            return true;
+        }
+        return !getResult().equals(getContextualResult());
+    }
+
     /**
      * Convenience method to get contextual build result
      *
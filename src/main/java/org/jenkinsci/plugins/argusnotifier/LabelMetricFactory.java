@@ -0,0 +1,218 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Queue and executor metrics per label, to size agent pools by label: buildable and blocked queue items and the
+ * oldest wait in the queue per label, and busy, idle and offline executors per label.
+ * <p>
+ * Queue items are counted under the label expression they ask for (as in {@code label.builds.in.progress}), executors
+ * under every label of their node. Items that do not ask for a label, and can run anywhere, are counted under
+ * {@value #ANY_LABEL}; nodes without labels under {@value #NO_LABEL}. Everything comes from one queue snapshot and one
+ * pass over the computers. A label that was sent in the previous interval and has nothing now is sent once more with
+ * 0, so its series drops to zero instead of ending at its last count.
+ * <p>
+ * Sent by the {@link PeriodicJenkinsMetricsSender} only, so only if system metrics are sent.
+ */
+class LabelMetricFactory {
+
+    static final String QUEUE_BUILDABLE_METRIC = "label.queue.buildable";
+    static final String QUEUE_BLOCKED_METRIC = "label.queue.blocked";
+    static final String QUEUE_OLDEST_WAIT_METRIC = "label.queue.oldest.wait";
+    static final String EXECUTORS_BUSY_METRIC = "label.executors.busy";
+    static final String EXECUTORS_IDLE_METRIC = "label.executors.idle";
+    static final String EXECUTORS_OFFLINE_METRIC = "label.executors.offline";
+    static final String ANY_LABEL = RunningBuildMetricFactory.ANY_LABEL;
+    static final String NO_LABEL = "none";
+
+    private final Map<String, String> hostTag;
+    private final String scope;
+    private final long metricTimestamp;
+
+    /**
+     * @param hostTag host tag for all metrics (see {@link TagFactory#hostTag})
+     * @param scope scope to be utilized for the metrics
+     * @param metricTimestamp used for all metric datapoints, in seconds
+     */
+    LabelMetricFactory(Map<String, String> hostTag, String scope, long metricTimestamp) {
+        this.hostTag = hostTag;
+        this.scope = scope;
+        this.metricTimestamp = metricTimestamp;
+    }
+
+    /**
+     * Queue and executor counts of one label.
+     */
+    static final class LabelStats {
+        int buildable;
+        int blocked;
+        long oldestInQueueSinceMillis = Long.MAX_VALUE;
+        int busy;
+        int idle;
+        int offline;
+    }
+
+    /**
+     * Counts per label, filled in by a single pass over the queue items and the computers.
+     */
+    static final class LabelScan {
+        final Map<String, LabelStats> byLabel = new TreeMap<>();
+
+        private LabelStats stats(String label) {
+            return byLabel.computeIfAbsent(label, key -> new LabelStats());
+        }
+
+        /**
+         * @return the labels counted so far
+         */
+        Set<String> labels() {
+            return new HashSet<>(byLabel.keySet());
+        }
+
+        /**
+         * Add labels that have nothing in this scan, so they are sent with 0.
+         *
+         * @param labels labels sent in the previous interval
+         */
+        void addVanished(Collection<String> labels) {
+            for (String label : labels) {
+                stats(label);
+            }
+        }
+
+        /**
+         * @param label label expression the item asks for, null if none
+         * @param buildable whether the item only waits for an executor
+         * @param blocked whether the item is blocked, e.g. by another build of the same job
+         * @param inQueueSinceMillis when the item entered the queue
+         */
+        void addQueueItem(String label, boolean buildable, boolean blocked, long inQueueSinceMillis) {
+            if (!buildable && !blocked) {
+                // still in its quiet period, not waiting for anything yet
+                return;
+            }
+            LabelStats stats = stats(label == null ? ANY_LABEL : label);
+            if (buildable) {
+                stats.buildable++;
+            } else {
+                stats.blocked++;
+            }
+            stats.oldestInQueueSinceMillis = Math.min(stats.oldestInQueueSinceMillis, inQueueSinceMillis);
+        }
+
+        /**
+         * @param labels labels of the node, empty if it has none
+         * @param busy busy executors of the node
+         * @param idle idle executors of the node
+         * @param offline executors of the node that are offline
+         */
+        void addExecutors(Collection<String> labels, int busy, int idle, int offline) {
+            for (String label : labels.isEmpty() ? Collections.singleton(NO_LABEL) : labels) {
+                LabelStats stats = stats(label);
+                stats.busy += busy;
+                stats.idle += idle;
+                stats.offline += offline;
+            }
+        }
+    }
+
+    /**
+     * @param items queue items, from a single {@link Queue#getItems()} snapshot
+     * @param computers computers to count the executors of
+     * @return counts per label
+     */
+    static LabelScan scan(Queue.Item[] items, Collection<? extends Computer> computers) {
+        LabelScan scan = new LabelScan();
+        for (Queue.Item item : items) {
+            Label label = item.getAssignedLabel();
+            scan.addQueueItem(label == null ? null : label.getExpression(), item.isBuildable(), item.isBlocked(),
+                    item.getInQueueSince());
+        }
+        for (Computer computer : computers) {
+            Node node = computer.getNode();
+            if (node == null) {
+                continue;
+            }
+            if (computer.isOffline()) {
+                scan.addExecutors(labelsOf(node), 0, 0, computer.getNumExecutors());
+                continue;
+            }
+            int busy = 0;
+            int idle = 0;
+            for (Executor executor : computer.getExecutors()) {
+                if (executor.isIdle()) {
+                    idle++;
+                } else {
+                    busy++;
+                }
+            }
+            scan.addExecutors(labelsOf(node), busy, idle, 0);
+        }
+        return scan;
+    }
+
+    /**
+     * @return the labels of the node, without the label that only names the node itself
+     */
+    private static List<String> labelsOf(Node node) {
+        LabelAtom selfLabel = node.getSelfLabel();
+        List<String> labels = new ArrayList<>();
+        for (LabelAtom label : node.getAssignedLabels()) {
+            if (!label.equals(selfLabel)) {
+                labels.add(label.getName());
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * @param scan result of {@link #scan}
+     * @param nowMillis current time, to compute the oldest wait
+     * @return queue and executor metrics for every label in the scan
+     */
+    List<Metric> getLabelMetrics(LabelScan scan, long nowMillis) {
+        ImmutableList.Builder<Metric> metrics = ImmutableList.builder();
+        for (Map.Entry<String, LabelStats> entry : scan.byLabel.entrySet()) {
+            Map<String, String> tags = TagFactory.withTag(hostTag, TagFactory.Tag.LABEL, entry.getKey());
+            LabelStats stats = entry.getValue();
+            metrics.add(newMetric(QUEUE_BUILDABLE_METRIC, null, tags, stats.buildable));
+            metrics.add(newMetric(QUEUE_BLOCKED_METRIC, null, tags, stats.blocked));
+            double oldestWaitSeconds = stats.oldestInQueueSinceMillis == Long.MAX_VALUE ? 0.0 :
+                    Math.max(0L, nowMillis - stats.oldestInQueueSinceMillis) / 1000.0;
+            metrics.add(newMetric(QUEUE_OLDEST_WAIT_METRIC, "seconds", tags, oldestWaitSeconds));
+            metrics.add(newMetric(EXECUTORS_BUSY_METRIC, null, tags, stats.busy));
+            metrics.add(newMetric(EXECUTORS_IDLE_METRIC, null, tags, stats.idle));
+            metrics.add(newMetric(EXECUTORS_OFFLINE_METRIC, null, tags, stats.offline));
+        }
+        return metrics.build();
+    }
+
+    private Metric newMetric(String name, String units, Map<String, String> tags, double value) {
+        Metric metric = new Metric();
+        metric.setScope(scope);
+        metric.setMetric(name);
+        if (units != null) {
+            metric.setUnits(units);
+        }
+        metric.setTags(tags);
+        metric.setDatapoints(ImmutableMap.of(metricTimestamp, value));
+        return metric;
+    }
+}
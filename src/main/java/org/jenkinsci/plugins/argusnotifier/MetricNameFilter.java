@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Include/exclude rules for registry metric names, compiled once into a prefix trie so that checking a name costs
+ * one trie step per character no matter how many rules are configured.
+ * <p>
+ * Rules are separated by commas or new lines. A rule ending in {@code *} matches every name starting with the text
+ * before it ({@code *} on its own matches everything); any other rule must match the whole name. A name is sent if
+ * it matches an include rule (or there are no include rules) and does not match an exclude rule.
+ * <p>
+ * Immutable once compiled, so it can be shared between threads.
+ */
+class MetricNameFilter {
+    static final MetricNameFilter ACCEPT_ALL = compile(null, null);
+
+    private final Node includes;
+    private final Node excludes;
+
+    private MetricNameFilter(Node includes, Node excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param includeRules rules for names to send, empty or null to send everything not excluded
+     * @param excludeRules rules for names not to send
+     * @return the compiled filter
+     */
+    static MetricNameFilter compile(String includeRules, String excludeRules) {
+        return new MetricNameFilter(buildTrie(includeRules), buildTrie(excludeRules));
+    }
+
+    /**
+     * @param name metric name
+     * @return whether the metric should be sent
+     */
+    boolean accepts(String name) {
+        return (includes == null || matches(includes, name)) && (excludes == null || !matches(excludes, name));
+    }
+
+    private static Node buildTrie(String rules) {
+        if (rules == null) {
+            return null;
+        }
+        Node root = null;
+        for (String rule : rules.split("[,\\r\\n]+")) {
+            String trimmed = rule.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (root == null) {
+                root = new Node();
+            }
+            boolean prefix = trimmed.endsWith("*");
+            String text = prefix ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+            Node node = root;
+            for (int i = 0; i < text.length(); i++) {
+                node = node.children.computeIfAbsent(text.charAt(i), c -> new Node());
+            }
+            if (prefix) {
+                node.prefixEnd = true;
+            } else {
+                node.exactEnd = true;
+            }
+        }
+        return root;
+    }
+
+    private static boolean matches(Node root, String name) {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            if (node.prefixEnd) {
+                return true;
+            }
+            node = node.children.get(name.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.prefixEnd || node.exactEnd;
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private boolean prefixEnd;
+        private boolean exactEnd;
+    }
+}
@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.salesforce.dva.argus.sdk.entity.Metric;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Merges metrics of the same series (scope, metric name, namespace and tags) into a single {@link Metric} holding
+ * all their datapoints, so the scope, names and tag map are only sent once per series instead of once per datapoint.
+ */
+class MetricSeriesMerger {
+
+    private MetricSeriesMerger() {
+        // no instance necessary
+    }
+
+    /**
+     * Merge metrics of the same series. Display name and units are taken from the first metric of a series; for a
+     * timestamp present in more than one metric, the later metric wins. The given metrics are not modified.
+     *
+     * @param metrics metrics to merge
+     * @return one metric per series, in the order the series were first seen
+     */
+    static List<Metric> merge(List<Metric> metrics) {
+        if (metrics.size() < 2) {
+            return metrics;
+        }
+        Map<SeriesKey, List<Metric>> bySeries = new LinkedHashMap<>();
+        for (Metric metric : metrics) {
+            bySeries.computeIfAbsent(new SeriesKey(metric), key -> new ArrayList<>(1)).add(metric);
+        }
+        if (bySeries.size() == metrics.size()) {
+            return metrics;
+        }
+        List<Metric> merged = new ArrayList<>(bySeries.size());
+        for (List<Metric> series : bySeries.values()) {
+            merged.add(series.size() == 1 ? series.get(0) : mergeSeries(series));
+        }
+        return merged;
+    }
+
+    private static Metric mergeSeries(List<Metric> series) {
+        Metric first = series.get(0);
+        Metric merged = new Metric();
+        merged.setScope(first.getScope());
+        merged.setMetric(first.getMetric());
+        merged.setNamespace(first.getNamespace());
+        merged.setDisplayName(first.getDisplayName());
+        merged.setUnits(first.getUnits());
+        merged.setTags(first.getTags());
+        Map<Long, Double> datapoints = new HashMap<>();
+        for (Metric metric : series) {
+            if (metric.getDatapoints() != null) {
+                datapoints.putAll(metric.getDatapoints());
+            }
+        }
+        merged.setDatapoints(datapoints);
+        return merged;
+    }
+
+    private static final class SeriesKey {
+        private final String scope;
+        private final String metric;
+        private final String namespace;
+        private final Map<String, String> tags;
+        private final int hashCode;
+
+        SeriesKey(Metric metric) {
+            this.scope = metric.getScope();
+            this.metric = metric.getMetric();
+            this.namespace = metric.getNamespace();
+            this.tags = metric.getTags();
+            this.hashCode = Objects.hash(scope, this.metric, namespace, tags);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            SeriesKey that = (SeriesKey) o;
+            return hashCode == that.hashCode && Objects.equals(scope, that.scope) &&
+                    Objects.equals(metric, that.metric) && Objects.equals(namespace, that.namespace) &&
+                    Objects.equals(tags, that.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
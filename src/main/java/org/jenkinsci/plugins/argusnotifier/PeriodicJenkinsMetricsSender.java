@@ -1,18 +1,29 @@
 package org.jenkinsci.plugins.argusnotifier;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableList;
 import com.salesforce.dva.argus.sdk.entity.Annotation;
 import com.salesforce.dva.argus.sdk.entity.Metric;
 import hudson.Extension;
 import hudson.model.AsyncPeriodicWork;
+import hudson.model.Queue;
 import hudson.model.TaskListener;
 import jenkins.metrics.api.Metrics;
 import jenkins.model.Jenkins;
 
 import java.io.IOException;
 import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +32,11 @@ public class PeriodicJenkinsMetricsSender extends AsyncPeriodicWork {
     private static final String ARGUS_NOTIFIER_PERIODIC_WORK = "Argus Notifier Periodic Sender";
     private static final Logger logger = Logger.getLogger(ArgusRunListener.class.getName());
 
+    private GaugeDeltaTracker gaugeDeltaTracker;
+    private GaugeSampler gaugeSampler;
+    private ScheduledFuture<?> samplingTask;
+    private Set<String> reportedLabels = Collections.emptySet();
+
     public PeriodicJenkinsMetricsSender() {
         super(ARGUS_NOTIFIER_PERIODIC_WORK);
     }
@@ -30,33 +46,248 @@ public class PeriodicJenkinsMetricsSender extends AsyncPeriodicWork {
         Jenkins instance = Jenkins.getInstance();
         ArgusNotifier.DescriptorImpl argusNotifierDescriptor =
                 (ArgusNotifier.DescriptorImpl) instance.getDescriptor(ArgusNotifier.class);
-        if (argusNotifierDescriptor != null &&
-                argusNotifierDescriptor.isNotifierConfigured() && argusNotifierDescriptor.isSendSystemMetrics()) {
+        if (argusNotifierDescriptor != null) {
+            argusNotifierDescriptor.saveTagCardinalityEstimates();
+        }
+        ArgusConfiguration configuration =
+                argusNotifierDescriptor == null ? null : argusNotifierDescriptor.getConfiguration();
+        if (configuration != null && configuration.isNotifierConfigured() && configuration.isSendSystemMetrics()) {
 
             OffsetDateTime now = OffsetDateTime.now();
             long metricTimestamp = now.toEpochSecond();
 
             SystemMetricFactory systemMetricFactory =
-                    new SystemMetricFactory(instance, metricTimestamp, argusNotifierDescriptor.getScope());
-            ImmutableList.Builder<Metric> metricListBuilder = ImmutableList.builder();
-            ImmutableList.Builder<Annotation> annotationBuilder = ImmutableList.builder();
-            final MetricRegistry metricRegistry = Metrics.metricRegistry();
-            metricRegistry.getGauges().forEach((String key, Gauge value) -> {
-                final Object gaugeVal = value.getValue();
-                if (gaugeVal instanceof Number) {
-                    if (logger.isLoggable(Level.FINEST)) {
-                        logger.finest(String.format("Sending %s = %s", key, ((Number) gaugeVal).doubleValue()));
-                    }
-                    metricListBuilder.add(systemMetricFactory.getMetric(key, (Number) gaugeVal));
-                } else {
-                    if (logger.isLoggable(Level.FINEST)) {
-                        logger.finest(String.format("Currently unsupported: %s = %s", key, gaugeVal.getClass().getName()));
+                    new SystemMetricFactory(instance, metricTimestamp, configuration.getScope(),
+                            configuration.getSnapshotQuantiles());
+            MetricRegistry metricRegistry = Metrics.metricRegistry();
+            GaugeSampler sampler = getGaugeSampler(configuration.getSamplingIntervalSeconds());
+            GaugeDeltaTracker deltaTracker = getGaugeDeltaTracker(configuration);
+            List<Metric> metrics;
+            if (sampler == null) {
+                metrics = collectMetrics(metricRegistry, systemMetricFactory,
+                        configuration.getMetricNameFilter(), deltaTracker, configuration.getGaugeChangeEpsilon());
+            } else {
+                // one last sample now, so every gauge has at least the value at send time
+                sampler.sample(metricRegistry, configuration.getMetricNameFilter(), metricTimestamp);
+                metrics = collectMetrics(metricRegistry, systemMetricFactory,
+                        configuration.getMetricNameFilter(), sampler, configuration.getSampleAggregation(),
+                        deltaTracker, configuration.getGaugeChangeEpsilon());
+            }
+            if (configuration.isSendLabelMetrics()) {
+                metrics = ImmutableList.<Metric>builder()
+                        .addAll(metrics)
+                        .addAll(collectLabelMetrics(instance, configuration.getScope(), now))
+                        .build();
+            } else {
+                reportedLabels = Collections.emptySet();
+            }
+            ArgusConnectionInfo argusConnectionInfo = configuration.getArgusConnectionInfo();
+            argusNotifierDescriptor.publish(
+                    new ArgusPayload(argusConnectionInfo, metrics, ImmutableList.<Annotation>of()));
+        } else {
+            stopSampling();
+            reportedLabels = Collections.emptySet();
+        }
+    }
+
+    /**
+     * Queue and executor metrics per label, from one snapshot of the queue and one pass over the computers. Labels
+     * sent last time that have nothing now are sent with 0.
+     *
+     * @param jenkins Jenkins instance to get the queue, computers and host tag from
+     * @param scope scope of the metrics
+     * @param now time of this interval
+     * @return label metrics to send
+     */
+    private List<Metric> collectLabelMetrics(Jenkins jenkins, String scope, OffsetDateTime now) {
+        LabelMetricFactory labelMetricFactory =
+                new LabelMetricFactory(TagFactory.hostTag(jenkins), scope, now.toEpochSecond());
+        LabelMetricFactory.LabelScan scan =
+                LabelMetricFactory.scan(Queue.getInstance().getItems(), Arrays.asList(jenkins.getComputers()));
+        Set<String> labels = scan.labels();
+        scan.addVanished(reportedLabels);
+        reportedLabels = labels;
+        return labelMetricFactory.getLabelMetrics(scan, now.toInstant().toEpochMilli());
+    }
+
+    /**
+     * Build the metrics to send for this interval from the gauge samples taken since the last send and the other
+     * (non-gauge) metrics in the registry.
+     *
+     * @param metricRegistry registry to walk for the non-gauge metrics
+     * @param systemMetricFactory factory for this interval
+     * @param filter only metrics accepted by this filter are sent
+     * @param sampler sampler to drain for the gauges
+     * @param aggregation how the samples are sent
+     * @param deltaTracker if not null, only summaries that changed, or series with a sample that changed, are sent
+     * @param epsilon changes up to this size are not considered a change
+     * @return metrics to send
+     */
+    static List<Metric> collectMetrics(MetricRegistry metricRegistry, SystemMetricFactory systemMetricFactory,
+                                       MetricNameFilter filter, GaugeSampler sampler,
+                                       GaugeSampler.Aggregation aggregation, GaugeDeltaTracker deltaTracker,
+                                       double epsilon) {
+        ImmutableList.Builder<Metric> metricListBuilder = ImmutableList.builder();
+        sampler.drain((String key, GaugeSampler.SampleBuffer samples) -> {
+            if (aggregation == GaugeSampler.Aggregation.DATAPOINTS) {
+                if (deltaTracker == null || anySampleChanged(deltaTracker, key, samples, epsilon)) {
+                    metricListBuilder.add(systemMetricFactory.getSampledMetric(key, samples));
+                }
+            } else {
+                for (Metric summary : systemMetricFactory.getSampleSummaryMetrics(key, samples)) {
+                    double value = summary.getDatapoints().values().iterator().next();
+                    if (deltaTracker == null || deltaTracker.shouldSend(summary.getMetric(), value, epsilon)) {
+                        metricListBuilder.add(summary);
                     }
                 }
-            });
-            ArgusConnectionInfo argusConnectionInfo = argusNotifierDescriptor.getArgusConnectionInfo();
-            ArgusDataSender.sendArgusData(argusConnectionInfo, metricListBuilder.build(), annotationBuilder.build());
+            }
+        });
+        addNonGaugeMetrics(metricListBuilder, metricRegistry, systemMetricFactory, filter);
+        return metricListBuilder.build();
+    }
+
+    /**
+     * The last sample goes through the tracker, as the unsampled value would. If it did not change, neither did the
+     * series, unless another sample moved away from it.
+     */
+    private static boolean anySampleChanged(GaugeDeltaTracker deltaTracker, String key,
+                                            GaugeSampler.SampleBuffer samples, double epsilon) {
+        double last = samples.last();
+        if (deltaTracker.shouldSend(key, last, epsilon)) {
+            return true;
+        }
+        for (int i = 0; i < samples.size(); i++) {
+            double value = samples.value(i);
+            if (Double.compare(value, last) != 0 && Math.abs(value - last) > epsilon) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walk the registry and build the metrics to send for this interval.
+     *
+     * @param metricRegistry registry to walk
+     * @param systemMetricFactory factory for this interval
+     * @param filter only metrics accepted by this filter are sent
+     * @param deltaTracker if not null, only gauges that changed are sent
+     * @param epsilon changes up to this size are not considered a change
+     * @return metrics to send
+     */
+    static List<Metric> collectMetrics(MetricRegistry metricRegistry, SystemMetricFactory systemMetricFactory,
+                                       MetricNameFilter filter, GaugeDeltaTracker deltaTracker, double epsilon) {
+        ImmutableList.Builder<Metric> metricListBuilder = ImmutableList.builder();
+        metricRegistry.getGauges().forEach((String key, Gauge value) -> {
+            if (!filter.accepts(key)) {
+                return;
+            }
+            final Object gaugeVal = value.getValue();
+            if (gaugeVal instanceof Number) {
+                double doubleValue = ((Number) gaugeVal).doubleValue();
+                if (deltaTracker != null && !deltaTracker.shouldSend(key, doubleValue, epsilon)) {
+                    return;
+                }
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.finest(String.format("Sending %s = %s", key, doubleValue));
+                }
+                metricListBuilder.add(systemMetricFactory.getMetric(key, (Number) gaugeVal));
+            } else {
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.finest(String.format("Currently unsupported: %s = %s", key, gaugeVal.getClass().getName()));
+                }
+            }
+        });
+        addNonGaugeMetrics(metricListBuilder, metricRegistry, systemMetricFactory, filter);
+        return metricListBuilder.build();
+    }
+
+    private static void addNonGaugeMetrics(ImmutableList.Builder<Metric> metricListBuilder,
+                                           MetricRegistry metricRegistry, SystemMetricFactory systemMetricFactory,
+                                           MetricNameFilter filter) {
+        metricRegistry.getCounters().forEach((String key, Counter counter) -> {
+            if (filter.accepts(key)) {
+                metricListBuilder.addAll(systemMetricFactory.getCounterMetrics(key, counter));
+            }
+        });
+        metricRegistry.getMeters().forEach((String key, Meter meter) -> {
+            if (filter.accepts(key)) {
+                metricListBuilder.addAll(systemMetricFactory.getMeterMetrics(key, meter));
+            }
+        });
+        metricRegistry.getHistograms().forEach((String key, Histogram histogram) -> {
+            if (filter.accepts(key)) {
+                metricListBuilder.addAll(systemMetricFactory.getHistogramMetrics(key, histogram));
+            }
+        });
+        metricRegistry.getTimers().forEach((String key, Timer timer) -> {
+            if (filter.accepts(key)) {
+                metricListBuilder.addAll(systemMetricFactory.getTimerMetrics(key, timer));
+            }
+        });
+    }
+
+    /**
+     * Start, restart or stop sampling the gauges between sends so that it matches the configured interval.
+     *
+     * @param intervalSeconds seconds between samples, 0 to only read gauges when sending
+     * @return the sampler, or null if sampling is off
+     */
+    private synchronized GaugeSampler getGaugeSampler(int intervalSeconds) {
+        long sendIntervalSeconds = TimeUnit.MILLISECONDS.toSeconds(getRecurrencePeriod());
+        if (intervalSeconds <= 0 || intervalSeconds >= sendIntervalSeconds) {
+            stopSampling();
+            return null;
+        }
+        if (gaugeSampler == null || gaugeSampler.getIntervalSeconds() != intervalSeconds) {
+            stopSampling();
+            GaugeSampler sampler = new GaugeSampler(intervalSeconds, sendIntervalSeconds);
+            samplingTask = jenkins.util.Timer.get().scheduleAtFixedRate(() -> sampleGauges(sampler),
+                    intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+            gaugeSampler = sampler;
+        }
+        return gaugeSampler;
+    }
+
+    private synchronized void stopSampling() {
+        if (samplingTask != null) {
+            samplingTask.cancel(false);
+            samplingTask = null;
+        }
+        gaugeSampler = null;
+    }
+
+    private static void sampleGauges(GaugeSampler sampler) {
+        try {
+            Jenkins instance = Jenkins.getInstanceOrNull();
+            ArgusNotifier.DescriptorImpl argusNotifierDescriptor = instance == null ? null :
+                    (ArgusNotifier.DescriptorImpl) instance.getDescriptor(ArgusNotifier.class);
+            ArgusConfiguration configuration =
+                    argusNotifierDescriptor == null ? null : argusNotifierDescriptor.getConfiguration();
+            if (configuration != null && configuration.isSendSystemMetrics()) {
+                sampler.sample(Metrics.metricRegistry(), configuration.getMetricNameFilter(),
+                        OffsetDateTime.now().toEpochSecond());
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the scheduled sampling for good
+            logger.log(Level.WARNING, "Argus Notifier: Error sampling gauges", e);
+        }
+    }
+
+    /**
+     * @return the tracker for this interval if only changed gauges should be sent, otherwise null
+     */
+    private GaugeDeltaTracker getGaugeDeltaTracker(ArgusConfiguration configuration) {
+        if (!configuration.isSendChangedGaugesOnly()) {
+            // start from a full refresh if the mode is switched on again later
+            gaugeDeltaTracker = null;
+            return null;
+        }
+        if (gaugeDeltaTracker == null) {
+            gaugeDeltaTracker = new GaugeDeltaTracker();
         }
+        gaugeDeltaTracker.startInterval(configuration.getFullRefreshIntervals());
+        return gaugeDeltaTracker;
     }
 
     @Override
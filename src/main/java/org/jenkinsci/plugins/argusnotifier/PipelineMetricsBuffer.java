@@ -0,0 +1,191 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.model.Result;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects the stage and step events of one running Pipeline until they are flushed as a single batch of metrics.
+ * <p>
+ * Every closed stage becomes a {@code stage.time} and a {@code stage.status} metric. Steps are far more numerous, so
+ * they are aggregated per stage, step and result between two flushes into a {@code step.time} metric (the total
+ * seconds spent) and a {@code step.count} metric. All metrics carry the tags of
+ * {@link TagFactory#buildStatusTags(String, String, String, String, String)}, with the stage or step result as build
+ * status, plus a {@code stage} and (for steps) a {@code step} tag.
+ * <p>
+ * Thread-safe; events may arrive from several branches of a parallel block at once. Once the Pipeline completes, the
+ * buffer is {@link #close() closed}: events that still arrive are flushed right away rather than waiting for a flush
+ * that will not come.
+ */
+class PipelineMetricsBuffer {
+    static final String STAGE_TIME_METRIC = "stage.time";
+    static final String STAGE_STATUS_METRIC = "stage.status";
+    static final String STEP_TIME_METRIC = "step.time";
+    static final String STEP_COUNT_METRIC = "step.count";
+    static final String NO_STAGE = "none";
+
+    private final String hostName;
+    private final String projectName;
+    private final String buildNumber;
+    private final List<StageEvent> stages = new ArrayList<>();
+    private final Map<StepKey, long[]> steps = new LinkedHashMap<>();
+    private int stepCount;
+    private String gitCommitHash;
+    private boolean closed;
+
+    PipelineMetricsBuffer(String hostName, String projectName, String buildNumber) {
+        this.hostName = hostName;
+        this.projectName = projectName;
+        this.buildNumber = buildNumber;
+    }
+
+    synchronized void addStage(String stage, long durationMillis, Result result) {
+        stages.add(new StageEvent(stage, durationMillis, result));
+    }
+
+    synchronized void addStep(String stage, String step, long durationMillis, Result result) {
+        long[] totals = steps.computeIfAbsent(new StepKey(stage, step, result), key -> new long[2]);
+        totals[0]++;
+        totals[1] += durationMillis;
+        stepCount++;
+    }
+
+    /**
+     * @return number of step events buffered since the last flush
+     */
+    synchronized int getStepCount() {
+        return stepCount;
+    }
+
+    synchronized boolean isEmpty() {
+        return stages.isEmpty() && steps.isEmpty();
+    }
+
+    /**
+     * @return git commit of the run once it has been found, otherwise null
+     */
+    synchronized String getGitCommitHash() {
+        return gitCommitHash;
+    }
+
+    /**
+     * Remember the git commit of the run, so it is only looked up until the checkout has happened.
+     *
+     * @param gitCommitHash git commit of the run; ignored if null or empty
+     */
+    synchronized void setGitCommitHash(String gitCommitHash) {
+        if (gitCommitHash != null && !gitCommitHash.isEmpty()) {
+            this.gitCommitHash = gitCommitHash;
+        }
+    }
+
+    /**
+     * Mark the Pipeline as completed.
+     */
+    synchronized void close() {
+        closed = true;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Turn everything buffered into metrics and empty the buffer.
+     *
+     * @param scope scope of the metrics
+     * @param gitCommitHash git commit of the run, not tagged if null or empty
+     * @param metricTimestamp timestamp of all datapoints, in seconds
+     * @return metrics for the buffered stages and steps
+     */
+    synchronized List<Metric> drain(String scope, String gitCommitHash, long metricTimestamp) {
+        ImmutableList.Builder<Metric> metrics = ImmutableList.builder();
+        for (StageEvent event : stages) {
+            Map<String, String> tags = TagFactory.withTag(tags(event.result, gitCommitHash),
+                    TagFactory.Tag.STAGE, event.stage);
+            metrics.add(metric(scope, STAGE_TIME_METRIC, "seconds", tags, metricTimestamp,
+                    event.durationMillis / 1000.0));
+            metrics.add(metric(scope, STAGE_STATUS_METRIC, null, tags, metricTimestamp,
+                    BuildResultsResolver.translateResultToNumber(event.result)));
+        }
+        for (Map.Entry<StepKey, long[]> entry : steps.entrySet()) {
+            StepKey key = entry.getKey();
+            Map<String, String> tags = TagFactory.withTag(
+                    TagFactory.withTag(tags(key.result, gitCommitHash), TagFactory.Tag.STAGE, key.stage),
+                    TagFactory.Tag.STEP, key.step);
+            metrics.add(metric(scope, STEP_TIME_METRIC, "seconds", tags, metricTimestamp,
+                    entry.getValue()[1] / 1000.0));
+            metrics.add(metric(scope, STEP_COUNT_METRIC, null, tags, metricTimestamp, entry.getValue()[0]));
+        }
+        stages.clear();
+        steps.clear();
+        stepCount = 0;
+        return metrics.build();
+    }
+
+    private Map<String, String> tags(Result result, String gitCommitHash) {
+        return TagFactory.buildStatusTags(hostName, projectName, buildNumber,
+                BuildResultsResolver.getBuildResult(result), gitCommitHash);
+    }
+
+    private static Metric metric(String scope, String name, String units, Map<String, String> tags,
+                                 long metricTimestamp, double value) {
+        Metric metric = new Metric();
+        metric.setScope(scope);
+        metric.setMetric(name);
+        if (units != null) {
+            metric.setUnits(units);
+        }
+        metric.setTags(tags);
+        metric.setDatapoints(ImmutableMap.of(metricTimestamp, value));
+        return metric;
+    }
+
+    private static final class StageEvent {
+        private final String stage;
+        private final long durationMillis;
+        private final Result result;
+
+        StageEvent(String stage, long durationMillis, Result result) {
+            this.stage = stage;
+            this.durationMillis = durationMillis;
+            this.result = result;
+        }
+    }
+
+    private static final class StepKey {
+        private final String stage;
+        private final String step;
+        private final Result result;
+
+        StepKey(String stage, String step, Result result) {
+            this.stage = stage == null ? NO_STAGE : stage;
+            this.step = step;
+            this.result = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            StepKey that = (StepKey) o;
+            return stage.equals(that.stage) && Objects.equals(step, that.step) && result == that.result;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(stage, step, result);
+        }
+    }
+}
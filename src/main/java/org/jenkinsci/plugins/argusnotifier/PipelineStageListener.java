@@ -0,0 +1,242 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.actions.ErrorAction;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.actions.WarningAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionListener;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.AtomicNode;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.StepNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.StageChunkFinder;
+import org.jenkinsci.plugins.workflow.steps.FlowInterruptedException;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends per-stage and per-step metrics of Pipeline runs while they are running, instead of only the build metrics
+ * at completion. Stage metrics are flushed as each stage closes; step events are buffered in a
+ * {@link PipelineMetricsBuffer} and flushed with the next stage, once the send batch size is reached, or when the
+ * Pipeline completes.
+ * <p>
+ * Only loaded if the Pipeline API plugin is installed. Global graph listeners are notified off the CPS VM thread, so
+ * building the metrics does not slow down the Pipeline itself.
+ * <p>
+ * Buffers are held with weak keys, so the buffer of a Pipeline that never completes (e.g. one that was still running
+ * when Jenkins stopped) goes away with its execution. Completion closes the buffer rather than removing it, so events
+ * reported by a listener thread that raced with completion are flushed right away instead of being lost. Buffers are
+ * created and closed under the same lock; a head that is reported after the Pipeline completed does not start a new
+ * buffer.
+ */
+@Extension(optional = true)
+public class PipelineStageListener implements GraphListener {
+    private static final Logger logger = Logger.getLogger(PipelineStageListener.class.getName());
+    private static final StageChunkFinder STAGE_FINDER = new StageChunkFinder();
+
+    private static final ConcurrentMap<FlowExecution, PipelineMetricsBuffer> buffers =
+            CacheBuilder.newBuilder().weakKeys().<FlowExecution, PipelineMetricsBuffer>build().asMap();
+
+    @Override
+    public void onNewHead(FlowNode node) {
+        ArgusNotifier.DescriptorImpl descriptor = getDescriptorIfEnabled();
+        if (descriptor != null) {
+            onNewHead(descriptor, node);
+        }
+    }
+
+    static void onNewHead(ArgusNotifier.DescriptorImpl descriptor, FlowNode node) {
+        try {
+            FlowExecution execution = node.getExecution();
+            PipelineMetricsBuffer buffer = getBuffer(execution);
+            if (buffer == null) {
+                return;
+            }
+            boolean stageClosed = false;
+            if (node instanceof BlockEndNode) {
+                BlockStartNode start = ((BlockEndNode<?>) node).getStartNode();
+                if (isStage(start)) {
+                    buffer.addStage(stageName(start), durationMillis(start, node), resultOf(start, node));
+                    stageClosed = true;
+                }
+            }
+            // an atomic step is done once the next node follows it
+            for (FlowNode parent : node.getParents()) {
+                if (parent instanceof AtomicNode && parent instanceof StepNode) {
+                    StepDescriptor stepDescriptor = ((StepNode) parent).getDescriptor();
+                    buffer.addStep(enclosingStageName(parent),
+                            stepDescriptor == null ? parent.getDisplayFunctionName() : stepDescriptor.getFunctionName(),
+                            durationMillis(parent, node), resultOf(parent, parent));
+                }
+            }
+            if (stageClosed || buffer.isClosed() ||
+                    buffer.getStepCount() >= descriptor.getConfiguration().getBatchSize()) {
+                flush(descriptor, execution, buffer);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Argus Notifier: Error recording Pipeline metrics", e);
+        }
+    }
+
+    private static ArgusNotifier.DescriptorImpl getDescriptorIfEnabled() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return null;
+        }
+        ArgusNotifier.DescriptorImpl descriptor = jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl.class);
+        ArgusConfiguration configuration = descriptor == null ? null : descriptor.getConfiguration();
+        if (configuration == null || !configuration.isNotifierConfigured() || !configuration.isSendForAllBuilds() ||
+                !configuration.isSendPipelineStageMetrics()) {
+            return null;
+        }
+        return descriptor;
+    }
+
+    /**
+     * @return the buffer of the execution, created on first use; null if the run is unknown or has completed without
+     * a buffer
+     */
+    private static PipelineMetricsBuffer getBuffer(FlowExecution execution) {
+        PipelineMetricsBuffer buffer = buffers.get(execution);
+        if (buffer != null || execution.isComplete()) {
+            return buffer;
+        }
+        Run<?, ?> run = runOf(execution);
+        if (run == null) {
+            return null;
+        }
+        JenkinsRunFormatter formatter = new JenkinsRunFormatter(Jenkins.getInstance(), run);
+        synchronized (buffers) {
+            buffer = buffers.get(execution);
+            // checked again under the lock, since the completion listener may have run in the meantime
+            if (buffer == null && !execution.isComplete()) {
+                buffer = new PipelineMetricsBuffer(formatter.getJenkinsHostName(), formatter.getProjectName(),
+                        formatter.getBuildNumberString());
+                buffers.put(execution, buffer);
+            }
+            return buffer;
+        }
+    }
+
+    private static Run<?, ?> runOf(FlowExecution execution) {
+        try {
+            Queue.Executable executable = execution.getOwner().getExecutable();
+            return executable instanceof Run ? (Run<?, ?>) executable : null;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Argus Notifier: Could not get the run of a Pipeline", e);
+            return null;
+        }
+    }
+
+    /**
+     * Publish everything buffered for the execution as one payload.
+     */
+    private static void flush(ArgusNotifier.DescriptorImpl descriptor, FlowExecution execution,
+                              PipelineMetricsBuffer buffer) {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        ArgusConfiguration configuration = descriptor.getConfiguration();
+        String gitCommitHash = buffer.getGitCommitHash();
+        // looked up until found, since the commit is only known after the checkout
+        if (gitCommitHash == null) {
+            Run<?, ?> run = runOf(execution);
+            if (run != null) {
+                gitCommitHash = new JenkinsRunFormatter(Jenkins.getInstance(), run).getGitCommitHash();
+                buffer.setGitCommitHash(gitCommitHash);
+            }
+        }
+        List<Metric> metrics = buffer.drain(configuration.getScope(), gitCommitHash,
+                OffsetDateTime.now().toEpochSecond());
+        if (logger.isLoggable(Level.FINE)) {
+            Run<?, ?> run = runOf(execution);
+            logger.fine("Argus Notifier: Queueing " + metrics.size() + " Pipeline metrics" +
+                    (run == null ? "" : " for " + run.getFullDisplayName()));
+        }
+        descriptor.publish(new ArgusPayload(configuration.getArgusConnectionInfo(), metrics,
+                ImmutableList.<Annotation>of()));
+    }
+
+    static boolean isStage(FlowNode start) {
+        return STAGE_FINDER.isChunkStart(start, null);
+    }
+
+    private static String stageName(FlowNode start) {
+        LabelAction label = start.getAction(LabelAction.class);
+        return label == null ? start.getDisplayName() : label.getDisplayName();
+    }
+
+    private static String enclosingStageName(FlowNode node) {
+        for (BlockStartNode start : node.iterateEnclosingBlocks()) {
+            if (isStage(start)) {
+                return stageName(start);
+            }
+        }
+        return PipelineMetricsBuffer.NO_STAGE;
+    }
+
+    private static long durationMillis(FlowNode start, FlowNode end) {
+        long startMillis = TimingAction.getStartTime(start);
+        long endMillis = TimingAction.getStartTime(end);
+        return startMillis > 0 && endMillis >= startMillis ? endMillis - startMillis : 0L;
+    }
+
+    /**
+     * Result of a block or step: the result of an interruption, FAILURE for any other error, the result of a
+     * warning (e.g. from {@code unstable}) or SUCCESS.
+     */
+    private static Result resultOf(FlowNode start, FlowNode end) {
+        ErrorAction error = end.getError();
+        if (error != null) {
+            Throwable cause = error.getError();
+            return cause instanceof FlowInterruptedException ?
+                    ((FlowInterruptedException) cause).getResult() : Result.FAILURE;
+        }
+        WarningAction warning = start.getPersistentAction(WarningAction.class);
+        if (warning == null) {
+            warning = end.getPersistentAction(WarningAction.class);
+        }
+        return warning == null ? Result.SUCCESS : warning.getResult();
+    }
+
+    /**
+     * Closes the buffer once a Pipeline completes and flushes what is left. The closed buffer stays until the
+     * execution goes away, so late events still find it.
+     */
+    @Extension(optional = true)
+    public static class CompletionListener extends FlowExecutionListener {
+        @Override
+        public void onCompleted(@Nonnull FlowExecution execution) {
+            PipelineMetricsBuffer buffer;
+            synchronized (buffers) {
+                buffer = buffers.get(execution);
+                if (buffer != null) {
+                    buffer.close();
+                }
+            }
+            ArgusNotifier.DescriptorImpl descriptor = getDescriptorIfEnabled();
+            if (buffer != null && descriptor != null) {
+                flush(descriptor, execution, buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Capped exponential backoff with full jitter: the delay before retry n is a random value between 0 and
+ * min(maxDelay, initialDelay * 2^n), which spreads retries from many senders out over time.
+ */
+class RetryPolicy {
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_INITIAL_DELAY_MILLIS = 500;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    private static final int MAX_SHIFT = 30;
+
+    final int maxAttempts;
+    final long initialDelayMillis;
+    final long maxDelayMillis;
+
+    RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = Math.max(0L, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * @param attempt number of the attempt that just failed, starting at 1
+     * @return whether another attempt may be made
+     */
+    boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param attempt number of the attempt that just failed, starting at 1
+     * @return how long to wait before the next attempt
+     */
+    long delayMillis(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt - 1, MAX_SHIFT));
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+
+/**
+ * Immutable view of everything the metric and annotation factories need to know about a completed run. Building it
+ * resolves the run environment (for the git commit) exactly once, so all metrics and annotations of a run share the
+ * same values and the same tag map.
+ */
+final class RunSnapshot {
+    final String hostName;
+    final String projectName;
+    final String buildNumber;
+    final String result;
+    final String contextualResult;
+    final String runUrl;
+    final String gitCommitHash;
+    final boolean statusTransition;
+    final Map<String, String> tags;
+
+    private RunSnapshot(JenkinsRunFormatter jenkinsRunFormatter, boolean recordedEnvironmentOnly) {
+        this.hostName = jenkinsRunFormatter.getJenkinsHostName();
+        this.projectName = jenkinsRunFormatter.getProjectName();
+        this.buildNumber = jenkinsRunFormatter.getBuildNumberString();
+        this.result = jenkinsRunFormatter.getResult();
+        this.contextualResult = jenkinsRunFormatter.getContextualResult();
+        this.runUrl = jenkinsRunFormatter.getRunUrl();
+        this.gitCommitHash = recordedEnvironmentOnly ? jenkinsRunFormatter.getRecordedGitCommitHash() :
+                jenkinsRunFormatter.getGitCommitHash();
+        this.statusTransition = jenkinsRunFormatter.isStatusTransition();
+        this.tags = TagFactory.buildStatusTags(hostName, projectName, buildNumber, result, gitCommitHash);
+    }
+
+    /**
+     * Take a snapshot of a run. This should happen once the run has completed so that the result is final.
+     *
+     * @param jenkins Jenkins instance for the root URL
+     * @param run run to take the snapshot of
+     * @return snapshot of the run
+     */
+    static RunSnapshot of(@Nonnull Jenkins jenkins, @Nonnull Run run) {
+        return of(new JenkinsRunFormatter(jenkins, run));
+    }
+
+    static RunSnapshot of(@Nonnull JenkinsRunFormatter jenkinsRunFormatter) {
+        return new RunSnapshot(jenkinsRunFormatter, false);
+    }
+
+    /**
+     * Take a snapshot of a past run without resolving its full environment, which asks every environment contributor
+     * and the node the run was built on. The git commit is taken from what the run's actions and SCM recorded only.
+     *
+     * @param jenkins Jenkins instance for the root URL
+     * @param run completed run to take the snapshot of
+     * @return snapshot of the run
+     */
+    static RunSnapshot ofRecorded(@Nonnull Jenkins jenkins, @Nonnull Run run) {
+        return ofRecorded(new JenkinsRunFormatter(jenkins, run));
+    }
+
+    static RunSnapshot ofRecorded(@Nonnull JenkinsRunFormatter jenkinsRunFormatter) {
+        return new RunSnapshot(jenkinsRunFormatter, true);
+    }
+}
@@ -0,0 +1,209 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.queue.Executables;
+import hudson.model.queue.SubTask;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Metrics for builds that are still running: when a build starts, and a periodic heartbeat with how long each
+ * running build has been going and how many builds are in progress per job and per label.
+ * <p>
+ * The heartbeat is built from the executors of all computers, so its cost depends on the number of executors and not
+ * on the number of jobs or their build histories. A job or label that had builds in progress in the previous
+ * heartbeat and has none now is reported with 0, so its series drops to zero instead of ending at its last count.
+ */
+class RunningBuildMetricFactory {
+
+    static final String BUILD_STARTED_METRIC = "build.started";
+    static final String BUILD_RUNNING_TIME_METRIC = "build.running.time";
+    static final String JOB_BUILDS_IN_PROGRESS_METRIC = "job.builds.in.progress";
+    static final String LABEL_BUILDS_IN_PROGRESS_METRIC = "label.builds.in.progress";
+    static final String RUNNING = "RUNNING";
+    static final String ANY_LABEL = "any";
+
+    private final String hostName;
+    private final String scope;
+    private final long metricTimestamp;
+
+    /**
+     * @param hostName Jenkins host name
+     * @param scope scope to be utilized for the metrics
+     * @param metricTimestamp used for all metric datapoints, in seconds
+     */
+    RunningBuildMetricFactory(String hostName, String scope, long metricTimestamp) {
+        this.hostName = hostName;
+        this.scope = scope;
+        this.metricTimestamp = metricTimestamp;
+    }
+
+    /**
+     * A running build as seen on an executor.
+     */
+    static final class RunningBuild {
+        final String projectName;
+        final String buildNumber;
+        final long startMillis;
+
+        RunningBuild(String projectName, String buildNumber, long startMillis) {
+            this.projectName = projectName;
+            this.buildNumber = buildNumber;
+            this.startMillis = startMillis;
+        }
+
+        static RunningBuild of(Run<?, ?> run) {
+            return new RunningBuild(JenkinsRunFormatter.getProjectName(run), String.valueOf(run.getNumber()),
+                    run.getStartTimeInMillis());
+        }
+    }
+
+    /**
+     * What is currently running on the executors of a set of computers.
+     */
+    static final class ExecutorScan {
+        final List<RunningBuild> builds;
+        final Map<String, Integer> buildsByLabel;
+
+        ExecutorScan(List<RunningBuild> builds, Map<String, Integer> buildsByLabel) {
+            this.builds = builds;
+            this.buildsByLabel = buildsByLabel;
+        }
+    }
+
+    /**
+     * Jobs and labels reported by the previous heartbeat. Only used by one heartbeat at a time.
+     */
+    static final class ReportedKeys {
+        private Set<String> jobs = Collections.emptySet();
+        private Set<String> labels = Collections.emptySet();
+    }
+
+    /**
+     * Walk the regular and one-off (flyweight) executors of the computers. A build that occupies several executors
+     * is counted once as a build, and once per label its executors asked for. Executables that are not builds
+     * themselves, e.g. the {@code node} blocks of a Pipeline, cannot be traced back to their build here; each of
+     * them counts as a build of its label.
+     *
+     * @param computers computers to scan
+     * @return running builds and builds in progress per label
+     */
+    static ExecutorScan scan(Collection<? extends Computer> computers) {
+        Map<Run<?, ?>, RunningBuild> builds = new IdentityHashMap<>();
+        Map<String, Set<Queue.Executable>> byLabel = new TreeMap<>();
+        for (Computer computer : computers) {
+            for (Executor executor : computer.getExecutors()) {
+                Queue.Executable executable = executor.getCurrentExecutable();
+                if (executable != null) {
+                    byLabel.computeIfAbsent(labelOf(executable), key -> Collections.newSetFromMap(
+                            new IdentityHashMap<>())).add(executable);
+                    addBuild(builds, executable);
+                }
+            }
+            for (Executor executor : computer.getOneOffExecutors()) {
+                Queue.Executable executable = executor.getCurrentExecutable();
+                if (executable != null) {
+                    addBuild(builds, executable);
+                }
+            }
+        }
+        Map<String, Integer> buildsByLabel = new TreeMap<>();
+        for (Map.Entry<String, Set<Queue.Executable>> entry : byLabel.entrySet()) {
+            buildsByLabel.put(entry.getKey(), entry.getValue().size());
+        }
+        return new ExecutorScan(new ArrayList<>(builds.values()), buildsByLabel);
+    }
+
+    private static void addBuild(Map<Run<?, ?>, RunningBuild> builds, Queue.Executable executable) {
+        if (executable instanceof Run) {
+            builds.computeIfAbsent((Run<?, ?>) executable, RunningBuild::of);
+        }
+    }
+
+    private static String labelOf(Queue.Executable executable) {
+        SubTask task = Executables.getParentOf(executable);
+        Label label = task.getAssignedLabel();
+        return label == null ? ANY_LABEL : label.getExpression();
+    }
+
+    /**
+     * @param run a run that has just started
+     * @return a {@code build.started} metric for the run
+     */
+    Metric getBuildStartedMetric(RunningBuild run) {
+        return newMetric(BUILD_STARTED_METRIC, null, runTags(run), 1.0);
+    }
+
+    /**
+     * @param scan result of {@link #scan}
+     * @param nowMillis current time, to compute how long builds have been running
+     * @param reported jobs and labels of the previous heartbeat; updated to the ones of this heartbeat
+     * @return running time of every running build and the number of builds in progress per job and label, with 0 for
+     * jobs and labels that had builds in progress in the previous heartbeat only
+     */
+    List<Metric> getHeartbeatMetrics(ExecutorScan scan, long nowMillis, ReportedKeys reported) {
+        ImmutableList.Builder<Metric> metrics = ImmutableList.builder();
+        Map<String, Integer> byJob = new TreeMap<>();
+        for (RunningBuild build : scan.builds) {
+            byJob.merge(build.projectName, 1, Integer::sum);
+            double runningSeconds = Math.max(0L, nowMillis - build.startMillis) / 1000.0;
+            metrics.add(newMetric(BUILD_RUNNING_TIME_METRIC, "seconds", runTags(build), runningSeconds));
+        }
+        addCounts(metrics, JOB_BUILDS_IN_PROGRESS_METRIC, TagFactory.Tag.PROJECT, byJob, reported.jobs);
+        addCounts(metrics, LABEL_BUILDS_IN_PROGRESS_METRIC, TagFactory.Tag.LABEL, scan.buildsByLabel,
+                reported.labels);
+        reported.jobs = byJob.keySet();
+        reported.labels = scan.buildsByLabel.keySet();
+        return metrics.build();
+    }
+
+    private void addCounts(ImmutableList.Builder<Metric> metrics, String name, TagFactory.Tag tag,
+                           Map<String, Integer> counts, Set<String> previous) {
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            metrics.add(newMetric(name, null, tags(tag, entry.getKey()), entry.getValue()));
+        }
+        for (String key : previous) {
+            if (!counts.containsKey(key)) {
+                metrics.add(newMetric(name, null, tags(tag, key), 0.0));
+            }
+        }
+    }
+
+    private Map<String, String> runTags(RunningBuild build) {
+        return TagFactory.buildStatusTags(hostName, build.projectName, build.buildNumber, RUNNING, null);
+    }
+
+    private Map<String, String> tags(TagFactory.Tag tag, String value) {
+        ImmutableMap.Builder<String, String> tags = ImmutableMap.builder();
+        if (hostName != null) {
+            tags.put(TagFactory.Tag.HOST.lower(), hostName);
+        }
+        return tags.put(tag.lower(), InvalidCharSwap.swapWithDash(value)).build();
+    }
+
+    private Metric newMetric(String name, String units, Map<String, String> tags, double value) {
+        Metric metric = new Metric();
+        metric.setScope(scope);
+        metric.setMetric(name);
+        if (units != null) {
+            metric.setUnits(units);
+        }
+        metric.setTags(tags);
+        metric.setDatapoints(ImmutableMap.of(metricTimestamp, value));
+        return metric;
+    }
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.collect.ImmutableList;
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sends how long every running build has been going and how many builds are in progress per job and label, every
+ * minute, with 0 for jobs and labels that had builds in progress the minute before. Only the executors of the
+ * computers are looked at (see {@link RunningBuildMetricFactory#scan}), never the jobs or their build histories.
+ */
+@Extension
+public class RunningBuildsHeartbeat extends AsyncPeriodicWork {
+    private static final String ARGUS_NOTIFIER_HEARTBEAT = "Argus Notifier Running Builds Heartbeat";
+
+    private final RunningBuildMetricFactory.ReportedKeys reported = new RunningBuildMetricFactory.ReportedKeys();
+
+    public RunningBuildsHeartbeat() {
+        super(ARGUS_NOTIFIER_HEARTBEAT);
+    }
+
+    @Override
+    protected void execute(TaskListener taskListener) throws IOException, InterruptedException {
+        Jenkins instance = Jenkins.getInstance();
+        ArgusNotifier.DescriptorImpl argusNotifierDescriptor =
+                (ArgusNotifier.DescriptorImpl) instance.getDescriptor(ArgusNotifier.class);
+        ArgusConfiguration configuration =
+                argusNotifierDescriptor == null ? null : argusNotifierDescriptor.getConfiguration();
+        if (configuration == null || !configuration.isNotifierConfigured() ||
+                !configuration.isSendForAllBuilds() || !configuration.isSendRunningBuildMetrics()) {
+            return;
+        }
+        OffsetDateTime now = OffsetDateTime.now();
+        RunningBuildMetricFactory runningBuildMetricFactory = new RunningBuildMetricFactory(
+                JenkinsFormatter.getHostName(instance), configuration.getScope(), now.toEpochSecond());
+        RunningBuildMetricFactory.ExecutorScan scan =
+                RunningBuildMetricFactory.scan(Arrays.asList(instance.getComputers()));
+        List<Metric> metrics =
+                runningBuildMetricFactory.getHeartbeatMetrics(scan, now.toInstant().toEpochMilli(), reported);
+        if (!metrics.isEmpty()) {
+            argusNotifierDescriptor.publish(new ArgusPayload(configuration.getArgusConnectionInfo(),
+                    metrics, ImmutableList.<Annotation>of()));
+        }
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+}
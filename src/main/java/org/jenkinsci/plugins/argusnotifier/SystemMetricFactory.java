@@ -1,16 +1,35 @@
 package org.jenkinsci.plugins.argusnotifier;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.salesforce.dva.argus.sdk.entity.Metric;
 import jenkins.model.Jenkins;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 public class SystemMetricFactory {
 
+    static final String DEFAULT_QUANTILES = "0.5,0.95,0.99";
+    private static final String SECONDS = "seconds";
+    private static final String PER_SECOND = "per second";
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
     private final Jenkins jenkins;
     private final long metricTimestamp;
     private final String scope;
+    private final double[] quantiles;
+    private final String[] quantileSuffixes;
 
     /**
      * Provides factory methods to provide Argus Metrics for the Jenkins system. All metrics will carry the
@@ -21,9 +40,64 @@ public class SystemMetricFactory {
      * @param scope - scope to be utilized for the metrics
      */
     SystemMetricFactory(Jenkins jenkins, long metricTimestamp, String scope) {
+        this(jenkins, metricTimestamp, scope, parseQuantiles(DEFAULT_QUANTILES));
+    }
+
+    /**
+     * @param jenkins - used to generate the host tag
+     * @param metricTimestamp - used for all metric datapoints
+     * @param scope - scope to be utilized for the metrics
+     * @param quantiles - quantiles (between 0 and 1) to send for histograms and timers
+     */
+    SystemMetricFactory(Jenkins jenkins, long metricTimestamp, String scope, double[] quantiles) {
         this.jenkins = jenkins;
         this.metricTimestamp = metricTimestamp;
         this.scope = scope;
+        this.quantiles = quantiles;
+        this.quantileSuffixes = new String[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            // 0.5 -> p50, 0.999 -> p99_9, 0.0999 -> p9_99; the decimal point is kept so that suffixes are unique
+            quantileSuffixes[i] = ".p" + BigDecimal.valueOf(quantiles[i]).movePointRight(2).stripTrailingZeros()
+                    .toPlainString().replace('.', '_');
+        }
+    }
+
+    /**
+     * Parse a comma separated list of quantiles such as "0.5,0.95,0.99". Entries that are not numbers between 0
+     * and 1 are ignored, as are repeated quantiles, which would send the same metric twice.
+     *
+     * @param quantiles comma separated quantiles
+     * @return parsed quantiles
+     */
+    static double[] parseQuantiles(String quantiles) {
+        if (quantiles == null) {
+            return new double[0];
+        }
+        String[] parts = quantiles.split(",");
+        double[] parsed = new double[parts.length];
+        int count = 0;
+        for (String part : parts) {
+            try {
+                double quantile = Double.parseDouble(part.trim());
+                if (quantile >= 0.0 && quantile <= 1.0 && !contains(parsed, count, quantile)) {
+                    parsed[count++] = quantile;
+                }
+            } catch (NumberFormatException e) {
+                // ignore entries that are not numbers
+            }
+        }
+        double[] result = new double[count];
+        System.arraycopy(parsed, 0, result, 0, count);
+        return result;
+    }
+
+    private static boolean contains(double[] values, int count, double value) {
+        for (int i = 0; i < count; i++) {
+            if (Double.compare(values[i], value) == 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -35,16 +109,126 @@ public class SystemMetricFactory {
      * @return Argus Metric
      */
     Metric getMetric(String name, Number numericValue) {
-        Metric metric = new Metric();
-        metric.setScope(scope);
-        metric.setMetric(name);
+        return getMetric(name, numericValue.doubleValue(), null);
+    }
 
-        metric.setTags(TagFactory.hostTag(jenkins));
+    /**
+     * Get a Metric with one datapoint per sample.
+     *
+     * @param name - metric name
+     * @param samples - samples taken since the last send, at least one
+     * @return Argus Metric with all samples as datapoints
+     */
+    Metric getSampledMetric(String name, GaugeSampler.SampleBuffer samples) {
+        Map<Long, Double> datapoints = new TreeMap<>();
+        for (int i = 0; i < samples.size(); i++) {
+            // a later sample with the same timestamp wins
+            datapoints.put(samples.timestamp(i), samples.value(i));
+        }
+        Metric metric = newMetric(name, null);
+        metric.setDatapoints(datapoints);
+        return metric;
+    }
+
+    /**
+     * Get the minimum, maximum and average of the samples as separate metrics, and the last sample under the
+     * metric name itself so that the series continues the unsampled one.
+     *
+     * @param name - metric name
+     * @param samples - samples taken since the last send, at least one
+     * @return Argus Metrics for name.min, name.max, name.avg and name
+     */
+    List<Metric> getSampleSummaryMetrics(String name, GaugeSampler.SampleBuffer samples) {
+        return ImmutableList.of(getMetric(name + ".min", samples.min(), null),
+                getMetric(name + ".max", samples.max(), null),
+                getMetric(name + ".avg", samples.average(), null),
+                getMetric(name, samples.last(), null));
+    }
+
+    /**
+     * @param name - counter name
+     * @param counter - counter to send
+     * @return the count as an Argus Metric named after the counter
+     */
+    List<Metric> getCounterMetrics(String name, Counter counter) {
+        return ImmutableList.of(getMetric(name, counter.getCount(), null));
+    }
+
+    /**
+     * @param name - meter name
+     * @param meter - meter to send
+     * @return count and rates (per second) as Argus Metrics
+     */
+    List<Metric> getMeterMetrics(String name, Meter meter) {
+        List<Metric> metrics = new ArrayList<>(5);
+        addMetered(metrics, name, meter);
+        return metrics;
+    }
+
+    /**
+     * @param name - histogram name
+     * @param histogram - histogram to send
+     * @return count and snapshot statistics (min, max, mean, standard deviation and quantiles) as Argus Metrics
+     */
+    List<Metric> getHistogramMetrics(String name, Histogram histogram) {
+        List<Metric> metrics = new ArrayList<>(5 + quantiles.length);
+        metrics.add(getMetric(name + ".count", histogram.getCount(), null));
+        addSnapshot(metrics, name, histogram.getSnapshot(), 1.0, null);
+        return metrics;
+    }
+
+    /**
+     * @param name - timer name
+     * @param timer - timer to send
+     * @return count, rates (per second) and snapshot statistics (in seconds) as Argus Metrics
+     */
+    List<Metric> getTimerMetrics(String name, Timer timer) {
+        List<Metric> metrics = new ArrayList<>(9 + quantiles.length);
+        addMetered(metrics, name, timer);
+        addSnapshot(metrics, name, timer.getSnapshot(), NANOS_PER_SECOND, SECONDS);
+        return metrics;
+    }
+
+    private void addMetered(List<Metric> metrics, String name, Metered metered) {
+        metrics.add(getMetric(name + ".count", metered.getCount(), null));
+        metrics.add(getMetric(name + ".m1_rate", metered.getOneMinuteRate(), PER_SECOND));
+        metrics.add(getMetric(name + ".m5_rate", metered.getFiveMinuteRate(), PER_SECOND));
+        metrics.add(getMetric(name + ".m15_rate", metered.getFifteenMinuteRate(), PER_SECOND));
+        metrics.add(getMetric(name + ".mean_rate", metered.getMeanRate(), PER_SECOND));
+    }
+
+    /**
+     * Add statistics from a single snapshot, so that all quantiles are computed from the same data.
+     */
+    private void addSnapshot(List<Metric> metrics, String name, Snapshot snapshot, double divisor, String units) {
+        metrics.add(getMetric(name + ".min", snapshot.getMin() / divisor, units));
+        metrics.add(getMetric(name + ".max", snapshot.getMax() / divisor, units));
+        metrics.add(getMetric(name + ".mean", snapshot.getMean() / divisor, units));
+        metrics.add(getMetric(name + ".stddev", snapshot.getStdDev() / divisor, units));
+        for (int i = 0; i < quantiles.length; i++) {
+            metrics.add(getMetric(name + quantileSuffixes[i], snapshot.getValue(quantiles[i]) / divisor, units));
+        }
+    }
+
+    private Metric getMetric(String name, double value, String units) {
+        Metric metric = newMetric(name, units);
         Map<Long, Double> datapoints =
                 ImmutableMap.<Long, Double>builder()
-                        .put(metricTimestamp, numericValue.doubleValue())
+                        .put(metricTimestamp, value)
                         .build();
         metric.setDatapoints(datapoints);
         return metric;
     }
+
+    private Metric newMetric(String name, String units) {
+        Metric metric = new Metric();
+        metric.setScope(scope);
+        metric.setMetric(name);
+        if (units != null) {
+            metric.setUnits(units);
+        }
+
+        metric.setTags(TagFactory.hostTag(jenkins));
+        return metric;
+    }
 }
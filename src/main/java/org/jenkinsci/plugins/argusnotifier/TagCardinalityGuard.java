@@ -0,0 +1,387 @@
+package org.jenkinsci.plugins.argusnotifier;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.salesforce.dva.argus.sdk.entity.Annotation;
+import com.salesforce.dva.argus.sdk.entity.Metric;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps tags with a value per build, {@code build_number} and {@code git_commit}, from creating an unbounded number
+ * of time series in Argus. The distinct values of each guarded tag are estimated per project with a sparse
+ * {@link HyperLogLog}, so one busy job does not get the tag limited for every other job. All metrics of a build carry
+ * the same values, so they share the estimate of their project. Once a project has seen more values than the
+ * threshold, the tag is handled according to its {@link Policy}: kept, moved from the tags into the fields of the
+ * metric's annotation, or dropped. The annotation loses the tag as well, since Argus attaches annotations to the
+ * series with the same tags.
+ * <p>
+ * At most {@link #MAX_ESTIMATORS} estimators are kept; the least recently used go first. The estimators of deleted and
+ * renamed jobs are {@link #forgetProject forgotten}. Only the estimates of limited tags are saved (see {@link #save}),
+ * so a tag that was limited before a restart or an eviction stays limited while the file stays small.
+ */
+class TagCardinalityGuard {
+    private static final Logger logger = Logger.getLogger(TagCardinalityGuard.class.getName());
+
+    static final int DEFAULT_THRESHOLD = 1000;
+    static final int MAX_ESTIMATORS = 10_000;
+    static final String ESTIMATES_FILE = "tag-cardinality.properties";
+    static final List<TagFactory.Tag> GUARDED_TAGS =
+            ImmutableList.of(TagFactory.Tag.BUILD_NUMBER, TagFactory.Tag.GIT_COMMIT);
+
+    /**
+     * Annotation field a tag is moved into, if not its own name. The build number is in every annotation already.
+     */
+    private static final Map<TagFactory.Tag, String> ANNOTATION_FIELDS =
+            ImmutableMap.of(TagFactory.Tag.BUILD_NUMBER, AnnotationFactory.BUILD_NUMBER_LABEL);
+
+    /**
+     * What happens to a tag once a project has more distinct values than the threshold.
+     */
+    enum Policy {
+        KEEP("Keep the tag"),
+        ANNOTATE("Move the tag to the annotation fields"),
+        DROP("Drop the tag");
+
+        private final String displayName;
+
+        Policy(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Threshold and policy per guarded tag.
+     */
+    static final class Settings {
+        static final Settings KEEP_ALL = new Settings(DEFAULT_THRESHOLD, Collections.emptyMap());
+
+        final int threshold;
+        final Map<TagFactory.Tag, Policy> policies;
+
+        Settings(int threshold, Map<TagFactory.Tag, Policy> policies) {
+            this.threshold = threshold;
+            this.policies = ImmutableMap.copyOf(policies);
+        }
+
+        Policy policyFor(TagFactory.Tag tag) {
+            Policy policy = policies.get(tag);
+            return policy == null ? Policy.KEEP : policy;
+        }
+    }
+
+    /**
+     * Estimated number of distinct values of a tag of a project, for the status page.
+     */
+    public static final class Estimate {
+        private final String project;
+        private final String tag;
+        private final long cardinality;
+
+        Estimate(String project, String tag, long cardinality) {
+            this.project = project;
+            this.tag = tag;
+            this.cardinality = cardinality;
+        }
+
+        /**
+         * @return value of the project tag, empty for metrics without one
+         */
+        public String getProject() {
+            return project;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public long getCardinality() {
+            return cardinality;
+        }
+    }
+
+    private final ConcurrentMap<Key, HyperLogLog> estimators =
+            CacheBuilder.newBuilder().maximumSize(MAX_ESTIMATORS).<Key, HyperLogLog>build().asMap();
+    // estimate at the time the tag went over the threshold, kept after a restart or an eviction of the estimator
+    private final ConcurrentMap<Key, Long> limited = new ConcurrentHashMap<>();
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    /**
+     * Count the guarded tag values of the metrics and apply the policies to the metrics and their annotations. The
+     * tag maps are replaced, not changed, so the metrics and annotations must not have been handed to anyone else
+     * yet.
+     *
+     * @param metrics metrics about to be sent
+     * @param annotations annotations about to be sent with them
+     * @param settings threshold and policies
+     */
+    void apply(List<Metric> metrics, List<Annotation> annotations, Settings settings) {
+        Map<Key, Boolean> overThreshold = new HashMap<>();
+        for (Metric metric : metrics) {
+            Map<String, String> tags = metric.getTags();
+            if (tags == null) {
+                continue;
+            }
+            Map<TagFactory.Tag, Policy> limitedTags = null;
+            for (TagFactory.Tag tag : GUARDED_TAGS) {
+                String value = tags.get(tag.lower());
+                if (value == null) {
+                    continue;
+                }
+                Key key = new Key(tags.get(TagFactory.Tag.PROJECT.lower()), tag);
+                estimators.computeIfAbsent(key, k -> new HyperLogLog()).add(value);
+                Policy policy = settings.policyFor(tag);
+                if (policy != Policy.KEEP && isOverThreshold(key, settings.threshold, overThreshold)) {
+                    if (limitedTags == null) {
+                        limitedTags = new LinkedHashMap<>();
+                    }
+                    limitedTags.put(tag, policy);
+                }
+            }
+            if (limitedTags != null) {
+                metric.setTags(without(tags, limitedTags));
+            }
+        }
+        for (Annotation annotation : annotations) {
+            applyTo(annotation, settings, overThreshold);
+        }
+    }
+
+    private void applyTo(Annotation annotation, Settings settings, Map<Key, Boolean> overThreshold) {
+        Map<String, String> tags = annotation.getTags();
+        if (tags == null) {
+            return;
+        }
+        Map<TagFactory.Tag, Policy> limitedTags = null;
+        for (TagFactory.Tag tag : GUARDED_TAGS) {
+            Policy policy = settings.policyFor(tag);
+            if (policy != Policy.KEEP && tags.containsKey(tag.lower()) &&
+                    isOverThreshold(new Key(tags.get(TagFactory.Tag.PROJECT.lower()), tag), settings.threshold,
+                            overThreshold)) {
+                if (limitedTags == null) {
+                    limitedTags = new LinkedHashMap<>();
+                }
+                limitedTags.put(tag, policy);
+            }
+        }
+        if (limitedTags == null) {
+            return;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        if (annotation.getFields() != null) {
+            fields.putAll(annotation.getFields());
+        }
+        for (Map.Entry<TagFactory.Tag, Policy> entry : limitedTags.entrySet()) {
+            if (entry.getValue() == Policy.ANNOTATE) {
+                // no second copy if the annotation carries the value under its own field already
+                fields.putIfAbsent(annotationField(entry.getKey()), tags.get(entry.getKey().lower()));
+            }
+        }
+        annotation.setFields(fields);
+        annotation.setTags(without(tags, limitedTags));
+    }
+
+    /**
+     * @return name of the annotation field an annotated tag is moved into
+     */
+    static String annotationField(TagFactory.Tag tag) {
+        String field = ANNOTATION_FIELDS.get(tag);
+        return field == null ? tag.lower() : field;
+    }
+
+    /**
+     * Estimated once per call and project, since estimating reads every register. A tag going over the threshold is
+     * remembered, so it stays limited when its estimator is evicted or Jenkins restarts.
+     */
+    private boolean isOverThreshold(Key key, int threshold, Map<Key, Boolean> overThreshold) {
+        return overThreshold.computeIfAbsent(key, k -> {
+            HyperLogLog estimator = estimators.get(k);
+            long estimate = estimator == null ? 0L : estimator.estimate();
+            Long saved = limited.get(k);
+            if (estimate > threshold && (saved == null || saved <= threshold)) {
+                limited.put(k, estimate);
+                changed.set(true);
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Argus Notifier: Limiting the " + k.tag.lower() + " tag of " + k.project);
+                }
+                return true;
+            }
+            return saved != null && saved > threshold;
+        });
+    }
+
+    private static Map<String, String> without(Map<String, String> tags, Map<TagFactory.Tag, Policy> limitedTags) {
+        ImmutableMap.Builder<String, String> remaining = ImmutableMap.builder();
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            if (!isGuardedTag(entry.getKey(), limitedTags)) {
+                remaining.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return remaining.build();
+    }
+
+    private static boolean isGuardedTag(String name, Map<TagFactory.Tag, Policy> limitedTags) {
+        for (TagFactory.Tag tag : limitedTags.keySet()) {
+            if (tag.lower().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget the estimates of a project, e.g. because its job was deleted or renamed. A renamed job starts over under
+     * its new name, which is a new set of series in Argus anyway.
+     *
+     * @param fullName full name of the job
+     */
+    void forgetProject(String fullName) {
+        String project = InvalidCharSwap.swapWithDash(fullName.replaceAll("/", "."));
+        for (TagFactory.Tag tag : GUARDED_TAGS) {
+            Key key = new Key(project, tag);
+            estimators.remove(key);
+            if (limited.remove(key) != null) {
+                changed.set(true);
+            }
+        }
+    }
+
+    /**
+     * @return current estimates, ordered by project and tag; a limited tag whose estimator is gone shows the estimate
+     * it was limited at
+     */
+    List<Estimate> getEstimates() {
+        Set<Key> keys = new HashSet<>(estimators.keySet());
+        keys.addAll(limited.keySet());
+        List<Estimate> estimates = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            HyperLogLog estimator = estimators.get(key);
+            Long saved = limited.get(key);
+            long cardinality = Math.max(estimator == null ? 0L : estimator.estimate(), saved == null ? 0L : saved);
+            estimates.add(new Estimate(key.project, key.tag.lower(), cardinality));
+        }
+        estimates.sort(Comparator.comparing(Estimate::getProject).thenComparing(Estimate::getTag));
+        return estimates;
+    }
+
+    /**
+     * Load the saved estimates of limited tags. Entries that cannot be read are skipped.
+     *
+     * @param file file written by {@link #save}, which does not need to exist
+     * @throws IOException if the file exists but cannot be read
+     */
+    void load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                limited.put(Key.parse(name), Long.parseLong(properties.getProperty(name)));
+            } catch (IllegalArgumentException e) {
+                logger.log(Level.WARNING, "Argus Notifier: Skipping unreadable tag cardinality estimate " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Save the estimates of limited tags if a tag was limited or forgotten since the last save. That happens rarely,
+     * and the file only has an entry per limited tag and project. The file is replaced atomically.
+     *
+     * @param file file to write
+     * @throws IOException if the file cannot be written; the estimates are saved again next time then
+     */
+    void save(Path file) throws IOException {
+        if (!changed.getAndSet(false)) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<Key, Long> entry : limited.entrySet()) {
+            properties.setProperty(entry.getKey().format(), String.valueOf(entry.getValue()));
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Argus Notifier estimates of limited tags");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            changed.set(true);
+            throw e;
+        }
+    }
+
+    private static final class Key {
+        private static final char SEPARATOR = '|';
+
+        private final String project;
+        private final TagFactory.Tag tag;
+
+        Key(String project, TagFactory.Tag tag) {
+            this.project = project == null ? "" : project;
+            this.tag = tag;
+        }
+
+        String format() {
+            return tag.name() + SEPARATOR + project;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the name was not written by {@link #format}
+         */
+        static Key parse(String name) {
+            int tagEnd = name.indexOf(SEPARATOR);
+            if (tagEnd < 0) {
+                throw new IllegalArgumentException("not a tag cardinality key: " + name);
+            }
+            return new Key(name.substring(tagEnd + 1), TagFactory.Tag.valueOf(name.substring(0, tagEnd)));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return project.equals(that.project) && tag == that.tag;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(project, tag);
+        }
+    }
+}
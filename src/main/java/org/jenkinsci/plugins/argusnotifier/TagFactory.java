@@ -13,7 +13,7 @@ import static org.jenkinsci.plugins.argusnotifier.TagFactory.Tag.*;
  */
 class TagFactory {
     enum Tag {
-        HOST, BUILD_NUMBER, GIT_COMMIT, BUILD_STATUS, PROJECT;
+        HOST, BUILD_NUMBER, GIT_COMMIT, BUILD_STATUS, PROJECT, STAGE, STEP, LABEL;
 
         public String lower() {
             return name().toLowerCase();
@@ -31,15 +31,33 @@ class TagFactory {
      * @return map with populated tags
      */
     static Map<String, String> buildStatusTags(JenkinsRunFormatter jenkinsRunFormatter) {
+        return buildStatusTags(jenkinsRunFormatter.getJenkinsHostName(), jenkinsRunFormatter.getProjectName(),
+                jenkinsRunFormatter.getBuildNumberString(), jenkinsRunFormatter.getResult(),
+                jenkinsRunFormatter.getGitCommitHash());
+    }
+
+    /**
+     * Create immutable map of tags for a build time metric from already resolved values
+     *
+     * @param hostName Jenkins host name, not tagged if null (no Jenkins URL configured)
+     * @param projectName project name, invalid characters are replaced
+     * @param buildNumber build number
+     * @param result build result
+     * @param gitCommitHash git commit, not tagged if null or empty
+     * @return map with populated tags
+     */
+    static Map<String, String> buildStatusTags(String hostName, String projectName, String buildNumber, String result,
+                                               String gitCommitHash) {
 
-        ImmutableMap.Builder<String, String> mapBuilder = ImmutableMap.<String, String>builder()
-                .put(HOST.lower(), jenkinsRunFormatter.getJenkinsHostName())
-                .put(PROJECT.lower(), InvalidCharSwap.swapWithDash(jenkinsRunFormatter.getProjectName()))
-                .put(BUILD_NUMBER.lower(), jenkinsRunFormatter.getBuildNumberString())
-                .put(BUILD_STATUS.lower(), jenkinsRunFormatter.getResult());
+        ImmutableMap.Builder<String, String> mapBuilder = ImmutableMap.builder();
+        if (hostName != null) {
+            mapBuilder.put(HOST.lower(), hostName);
+        }
+        mapBuilder.put(PROJECT.lower(), InvalidCharSwap.swapWithDash(projectName))
+                .put(BUILD_NUMBER.lower(), buildNumber)
+                .put(BUILD_STATUS.lower(), result);
 
-        String gitCommitHash = jenkinsRunFormatter.getGitCommitHash();
-        if (!gitCommitHash.isEmpty()) {
+        if (gitCommitHash != null && !gitCommitHash.isEmpty()) {
             mapBuilder.put(GIT_COMMIT.lower(), gitCommitHash);
         }
             
@@ -47,7 +65,26 @@ class TagFactory {
 
     }
 
+    /**
+     * Add a tag to an existing map of tags, e.g. the Pipeline stage to the tags of its build
+     *
+     * @param tags tags to add to
+     * @param tag tag to add
+     * @param value tag value, invalid characters are replaced
+     * @return new immutable map with all tags
+     */
+    static Map<String, String> withTag(Map<String, String> tags, Tag tag, String value) {
+        return ImmutableMap.<String, String>builder()
+                .putAll(tags)
+                .put(tag.lower(), InvalidCharSwap.swapWithDash(value))
+                .build();
+    }
+
+    /**
+     * @param jenkins Jenkins instance to get the root URL from
+     * @return shared immutable map with the host tag, empty if there is no root URL
+     */
     static Map<String, String> hostTag(Jenkins jenkins) {
-        return ImmutableMap.<String, String>builder().put(HOST.lower(), JenkinsFormatter.getHostName(jenkins)).build();
+        return JenkinsFormatter.getHostInfo(jenkins).hostTag;
     }
 }
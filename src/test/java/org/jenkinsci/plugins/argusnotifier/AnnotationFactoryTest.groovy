@@ -60,4 +60,50 @@ class AnnotationFactoryTest extends Specification {
         AnnotationFactory.BUILD_NUMBER_LABEL          | "buildNumberString"
         AnnotationFactory.URL_LABEL                   | "runUrl"
     }
+
+    private static List<Metric> buildMetrics() {
+        return [BuildMetricFactory.BUILD_TIME_METRIC, BuildMetricFactory.BUILD_STATUS, "build.success"].collect {
+            Metric metric = new Metric()
+            metric.setMetric(it)
+            metric
+        }
+    }
+
+    def "annotation ids are the same for the same build and metric"() {
+        given:
+        AnnotationFactory first = new AnnotationFactory(jenkins, run, 1L, "scope", "source")
+        AnnotationFactory retried = new AnnotationFactory(jenkins, run, 2L, "scope", "source")
+
+        expect:
+        first.getAnnotationsFor(buildMetrics())*.id == retried.getAnnotationsFor(buildMetrics())*.id
+        first.getAnnotationsFor(buildMetrics())*.id.unique().size() == 3
+    }
+
+    def "per build mode annotates only the build status metric"() {
+        given:
+        AnnotationFactory annotationFactory = new AnnotationFactory(jenkins, run, 1L, "scope", "source")
+
+        when:
+        List<Annotation> annotations = annotationFactory.getAnnotationsFor(buildMetrics(), AnnotationFactory.Mode.PER_BUILD)
+
+        then:
+        annotations*.metric == [BuildMetricFactory.BUILD_STATUS]
+        annotationFactory.getAnnotationsFor(buildMetrics(), AnnotationFactory.Mode.PER_METRIC).size() == 3
+    }
+
+    def "transitions only mode annotates when the result #description"() {
+        given:
+        Run previous = Mock(Run)
+        previous.getResult() >> previousResult
+        run.getPreviousBuild() >> previous
+        AnnotationFactory annotationFactory = new AnnotationFactory(jenkins, run, 1L, "scope", "source")
+
+        expect:
+        annotationFactory.getAnnotationsFor(buildMetrics(), AnnotationFactory.Mode.TRANSITIONS_ONLY).size() == expected
+
+        where:
+        description       | previousResult  | expected
+        "changed"         | Result.FAILURE  | 1
+        "did not change"  | Result.SUCCESS  | 0
+    }
 }
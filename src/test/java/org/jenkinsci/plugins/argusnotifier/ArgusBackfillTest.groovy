@@ -0,0 +1,263 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Annotation
+import com.salesforce.dva.argus.sdk.entity.Metric
+import hudson.model.FreeStyleProject
+import hudson.model.Run
+import org.junit.Rule
+import org.jvnet.hudson.test.JenkinsRule
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.function.BiFunction
+
+class ArgusBackfillTest extends Specification {
+    @Rule public JenkinsRule jenkinsRule = new JenkinsRule()
+
+    private Path directory = Files.createTempDirectory("backfill")
+    private List<String> sent = Collections.synchronizedList([])
+    private boolean cancelAfterEachBatch
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    /**
+     * Set up the notifier without going through the form; system metrics are off so nothing else is sent.
+     */
+    private ArgusNotifier.DescriptorImpl configure(boolean sendForAllBuilds) {
+        ArgusNotifier.DescriptorImpl descriptor = jenkinsRule.jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl)
+        descriptor.@credentialsId = "argus"
+        descriptor.@argusUrl = "https://argus.example.com"
+        descriptor.@scope = "scope"
+        descriptor.@sendForAllBuilds = sendForAllBuilds
+        descriptor.@sendSystemMetrics = false
+        descriptor.@batchSize = 1
+        descriptor.updateConfiguration()
+        descriptor.recordBackfillCutoff()
+        return descriptor
+    }
+
+    /**
+     * A backfill that records the job and build number of every run it sends, one run per batch.
+     */
+    private ArgusBackfill recordingBackfill() {
+        ArgusBackfill backfill
+        backfill = new ArgusBackfill({ ArgusPayload payload, RetryPolicy retryPolicy ->
+            Metric metric = payload.metrics[0]
+            sent.add(metric.tags.project + "#" + metric.tags.build_number)
+            if (cancelAfterEachBatch) {
+                backfill.cancel()
+            }
+            return null
+        } as BiFunction<ArgusPayload, RetryPolicy, ArgusPayload>)
+        return backfill
+    }
+
+    private static void runToEnd(ArgusBackfill backfill) {
+        assert backfill.start(1_000_000)
+        while (backfill.getState() == ArgusBackfill.State.RUNNING) {
+            Thread.sleep(10)
+        }
+    }
+
+    def "a cancelled backfill resumes after the last batch sent without sending a build twice"() {
+        given:
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("history")
+        4.times { jenkinsRule.buildAndAssertSuccess(project) }
+        configure(true)
+        ArgusBackfill backfill = recordingBackfill()
+
+        when:
+        cancelAfterEachBatch = true
+        runToEnd(backfill)
+
+        then:
+        backfill.getState() == ArgusBackfill.State.CANCELLED
+        sent == ["history#1"]
+
+        when:
+        cancelAfterEachBatch = false
+        runToEnd(backfill)
+
+        then:
+        backfill.getState() == ArgusBackfill.State.FINISHED
+        sent == ["history#1", "history#2", "history#3", "history#4"]
+
+        when:
+        runToEnd(backfill)
+
+        then:
+        sent.size() == 4
+    }
+
+    def "a renamed job keeps its progress"() {
+        given:
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("before")
+        3.times { jenkinsRule.buildAndAssertSuccess(project) }
+        configure(true)
+        ArgusBackfill backfill = recordingBackfill()
+        cancelAfterEachBatch = true
+        runToEnd(backfill)
+
+        when:
+        project.renameTo("after")
+        cancelAfterEachBatch = false
+        runToEnd(backfill)
+
+        then:
+        sent == ["before#1", "after#2", "after#3"]
+    }
+
+    def "without Send for all builds only jobs with the post-build action are backfilled"() {
+        given:
+        FreeStyleProject notified = jenkinsRule.createFreeStyleProject("notified")
+        FreeStyleProject other = jenkinsRule.createFreeStyleProject("other")
+        jenkinsRule.buildAndAssertSuccess(notified)
+        jenkinsRule.buildAndAssertSuccess(other)
+        notified.getPublishersList().add(new ArgusNotifier())
+        configure(false)
+
+        when:
+        runToEnd(recordingBackfill())
+
+        then:
+        sent == ["notified#1"]
+    }
+
+    def "the setup time is recorded when the notifier is configured and kept from then on"() {
+        given:
+        Path file = ArgusBackfill.checkpointFile(jenkinsRule.jenkins)
+
+        expect:
+        BackfillCheckpoint.load(file).getCutoffMillis() == Long.MAX_VALUE
+
+        when:
+        configure(true)
+        long cutoff = BackfillCheckpoint.load(file).getCutoffMillis()
+        configure(true)
+
+        then:
+        cutoff <= System.currentTimeMillis()
+        BackfillCheckpoint.load(file).getCutoffMillis() == cutoff
+    }
+
+    def "runs are timestamped with their completion time"() {
+        given:
+        Run run = Mock(Run)
+        run.getStartTimeInMillis() >> 1_000_000L
+        run.getDuration() >> 90_500L
+
+        expect:
+        ArgusBackfill.completionTimestamp(run) == 1090L
+    }
+
+    def "a batch is full once it holds the maximum number of metrics and annotations"() {
+        given:
+        ArgusBackfill.Batch batch = new ArgusBackfill.Batch(5)
+
+        when:
+        batch.add("folder/a", 1, [new Metric(), new Metric()], [new Annotation()])
+
+        then:
+        !batch.isFull()
+        batch.size() == 3
+
+        when:
+        batch.add("folder/a", 2, [new Metric(), new Metric()], [])
+        batch.add("b", 7, [new Metric()], [])
+
+        then:
+        batch.isFull()
+        batch.runs == 3
+        batch.lastBuilds == ["folder/a": 2, b: 7]
+        batch.lastJob == "b"
+
+        when:
+        batch.clear()
+
+        then:
+        batch.isEmpty()
+        batch.size() == 0
+        batch.lastBuilds.isEmpty()
+    }
+
+    def "the checkpoint keeps the last build per job and the cutoff across loads"() {
+        given:
+        Path file = directory.resolve("plugin").resolve(BackfillCheckpoint.CHECKPOINT_FILE)
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(file)
+
+        when:
+        checkpoint.recordCutoff(1000L)
+        BackfillCheckpoint.load(file).recordCutoff(5000L)
+        checkpoint.save(["folder/a": 12, b: 3])
+        checkpoint.save([b: 4])
+        BackfillCheckpoint reloaded = BackfillCheckpoint.load(file)
+
+        then:
+        reloaded.getCutoffMillis() == 1000L
+        reloaded.getLastBuild("folder/a") == 12
+        reloaded.getLastBuild("b") == 4
+        reloaded.getLastBuild("c") == 0
+    }
+
+    def "the cutoff is saved as soon as it is recorded"() {
+        given:
+        Path file = directory.resolve(BackfillCheckpoint.CHECKPOINT_FILE)
+
+        when:
+        BackfillCheckpoint.load(file).recordCutoff(1000L)
+
+        then:
+        BackfillCheckpoint.load(file).getCutoffMillis() == 1000L
+    }
+
+    def "clearing the progress forgets the jobs but keeps the cutoff"() {
+        given:
+        Path file = directory.resolve(BackfillCheckpoint.CHECKPOINT_FILE)
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(file)
+        checkpoint.recordCutoff(1000L)
+        checkpoint.save([a: 5])
+
+        when:
+        checkpoint.clearProgress()
+
+        then:
+        BackfillCheckpoint.load(file).getLastBuild("a") == 0
+        BackfillCheckpoint.load(file).getCutoffMillis() == 1000L
+        checkpoint.getLastBuild("a") == 0
+    }
+
+    def "renaming moves the progress, also of a batch collected under the old name"() {
+        given:
+        Path file = directory.resolve(BackfillCheckpoint.CHECKPOINT_FILE)
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(file)
+        checkpoint.save(["folder/a": 5])
+
+        when:
+        checkpoint.rename("folder/a", "folder/b")
+        checkpoint.rename("folder/b", "c")
+        checkpoint.save(["folder/a": 6])
+        BackfillCheckpoint reloaded = BackfillCheckpoint.load(file)
+
+        then:
+        reloaded.getLastBuild("folder/a") == 0
+        reloaded.getLastBuild("folder/b") == 0
+        reloaded.getLastBuild("c") == 6
+    }
+
+    def "removing a job forgets its progress"() {
+        given:
+        Path file = directory.resolve(BackfillCheckpoint.CHECKPOINT_FILE)
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(file)
+        checkpoint.save([a: 5, b: 2])
+
+        when:
+        checkpoint.remove("a")
+
+        then:
+        BackfillCheckpoint.load(file).getLastBuild("a") == 0
+        BackfillCheckpoint.load(file).getLastBuild("b") == 2
+    }
+}
@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import spock.lang.Specification
+
+class ArgusCircuitBreakerTest extends Specification {
+
+    private ArgusCircuitBreaker circuitBreaker = ArgusCircuitBreaker.forEndpoint("http://argus/" + UUID.randomUUID())
+
+    def setup() {
+        ArgusCircuitBreaker.configure(2, 0)
+    }
+
+    def cleanup() {
+        ArgusCircuitBreaker.configure(ArgusCircuitBreaker.DEFAULT_FAILURE_THRESHOLD,
+                ArgusCircuitBreaker.DEFAULT_OPEN_SECONDS)
+    }
+
+    def "opens after the failure threshold"() {
+        when:
+        circuitBreaker.onFailure()
+
+        then:
+        circuitBreaker.state == ArgusCircuitBreaker.State.CLOSED
+
+        when:
+        circuitBreaker.onFailure()
+
+        then:
+        circuitBreaker.state == ArgusCircuitBreaker.State.OPEN
+    }
+
+    def "short-circuits while open"() {
+        given:
+        ArgusCircuitBreaker.configure(1, 60)
+        circuitBreaker.onFailure()
+
+        expect:
+        !circuitBreaker.allowRequest()
+        circuitBreaker.shortCircuitedCount == 1
+    }
+
+    def "lets one probe through after the open period and closes on success"() {
+        given:
+        circuitBreaker.onFailure()
+        circuitBreaker.onFailure()
+
+        when:
+        boolean probe = circuitBreaker.allowRequest()
+        boolean secondProbe = circuitBreaker.allowRequest()
+        circuitBreaker.onSuccess()
+
+        then:
+        probe
+        !secondProbe
+        circuitBreaker.state == ArgusCircuitBreaker.State.CLOSED
+        circuitBreaker.allowRequest()
+    }
+
+    def "a failed probe opens the circuit again"() {
+        given:
+        circuitBreaker.onFailure()
+        circuitBreaker.onFailure()
+        circuitBreaker.allowRequest()
+
+        when:
+        circuitBreaker.onFailure()
+
+        then:
+        circuitBreaker.state == ArgusCircuitBreaker.State.OPEN
+    }
+}
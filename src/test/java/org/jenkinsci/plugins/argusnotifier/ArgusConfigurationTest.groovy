@@ -0,0 +1,31 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class ArgusConfigurationTest extends Specification {
+    def "configured is #expected for credentials '#credentialsId', URL '#argusUrl' and scope '#scope'"() {
+        expect:
+        ArgusConfiguration.isConfigured(credentialsId, argusUrl, scope) == expected
+
+        where:
+        credentialsId | argusUrl          | scope   | expected
+        "argus"       | "http://argus/ws" | "scope" | true
+        null          | "http://argus/ws" | "scope" | false
+        "argus"       | " "               | "scope" | false
+        "argus"       | "http://argus/ws" | ""      | false
+    }
+
+    def "source '#source' is used as '#expected'"() {
+        expect:
+        ArgusConfiguration.sourceOrNull(source) == expected
+
+        where:
+        source    | expected
+        null      | null
+        ""        | null
+        "  "      | null
+        "jenkins" | "jenkins"
+    }
+}
@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials
+import com.salesforce.dva.argus.sdk.ArgusService
+import com.salesforce.dva.argus.sdk.AuthService
+import com.salesforce.dva.argus.sdk.MetricService
+import com.salesforce.dva.argus.sdk.entity.Metric
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import hudson.util.Secret
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.function.Function
+
+@Unroll
+class ArgusDataSenderTest extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def "#failure.class.simpleName #description is #expected"() {
+        expect:
+        ArgusDataSender.classify(failure) == expected
+
+        where:
+        failure                                                  | description | expected
+        new ArgusHttpTransport.HttpStatusException(400, "url")   | "400"       | ArgusDataSender.Outcome.REJECTED
+        new ArgusHttpTransport.HttpStatusException(413, "url")   | "413"       | ArgusDataSender.Outcome.REJECTED
+        new ArgusHttpTransport.HttpStatusException(401, "url")   | "401"       | ArgusDataSender.Outcome.FAILED
+        new ArgusHttpTransport.HttpStatusException(429, "url")   | "429"       | ArgusDataSender.Outcome.FAILED
+        new ArgusHttpTransport.HttpStatusException(503, "url")   | "503"       | ArgusDataSender.Outcome.FAILED
+        new SocketTimeoutException("timed out")                  | ""          | ArgusDataSender.Outcome.FAILED
+        new IOException("connection reset")                      | ""          | ArgusDataSender.Outcome.FAILED
+        new IllegalArgumentException("cannot serialize")         | ""          | ArgusDataSender.Outcome.FAILED
+        new RuntimeException("brownout")                         | ""          | ArgusDataSender.Outcome.FAILED
+    }
+
+    def "a payload that failed with a RuntimeException goes to the spool"() {
+        given:
+        UsernamePasswordCredentials credentials = Mock(UsernamePasswordCredentials)
+        credentials.getUsername() >> "user"
+        credentials.getPassword() >> Secret.fromString("pass")
+        ArgusConnectionInfo info = new ArgusConnectionInfo("http://argus-brownout/ws", credentials)
+        MetricService metricService = Mock(MetricService)
+        metricService.putMetrics(_) >> { throw new RuntimeException("brownout") }
+        ArgusService service = Mock(ArgusService)
+        service.getAuthService() >> Mock(AuthService)
+        service.getMetricService() >> metricService
+        ArgusSessionManager.@sessions.put(info, new ArgusSession(info, service))
+        Metric metric = new Metric()
+        metric.setMetric("a")
+        ArgusPayload payload = new ArgusPayload(info, [metric], [])
+        ArgusSpool spool = new ArgusSpool(temporaryFolder.newFolder().toPath(), 10, 1)
+        List<ArgusPayload> replayed = []
+
+        when:
+        ArgusPayload unsent = ArgusDataSender.sendWithRetry(payload, new RetryPolicy(1, 0, 0))
+        spool.append(unsent)
+        spool.replay(info, { ArgusPayload spooled ->
+            replayed.add(spooled)
+            return null
+        } as Function<ArgusPayload, ArgusPayload>, 0)
+
+        then:
+        unsent.is(payload)
+        replayed*.metrics*.metric.flatten() == ["a"]
+
+        cleanup:
+        ArgusSessionManager.@sessions.remove(info)
+    }
+
+    def "a server that refuses compressed requests gets the metrics uncompressed through the SDK"() {
+        given:
+        List<String> paths = [].asSynchronized()
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/") { HttpExchange exchange ->
+            paths << exchange.requestURI.path
+            exchange.requestBody.bytes
+            byte[] body = (exchange.requestURI.path == ArgusHttpTransport.LOGIN_PATH ?
+                    '{"accessToken":"token"}' : '').getBytes("UTF-8")
+            exchange.sendResponseHeaders(exchange.requestURI.path == ArgusHttpTransport.LOGIN_PATH ? 200 : 415,
+                    body.length == 0 ? -1 : body.length)
+            if (body.length > 0) {
+                exchange.responseBody.write(body)
+            }
+            exchange.close()
+        }
+        server.start()
+        UsernamePasswordCredentials credentials = Mock(UsernamePasswordCredentials)
+        credentials.getUsername() >> "user"
+        credentials.getPassword() >> Secret.fromString("pass")
+        ArgusConnectionInfo info = new ArgusConnectionInfo("http://127.0.0.1:" + server.address.port, credentials, true)
+        MetricService metricService = Mock(MetricService)
+        ArgusService service = Mock(ArgusService)
+        service.getAuthService() >> Mock(AuthService)
+        service.getMetricService() >> metricService
+        ArgusSessionManager.@sessions.put(info, new ArgusSession(info, service))
+        Metric metric = new Metric()
+        metric.setMetric("a")
+
+        when:
+        ArgusDataSender.Outcome first = ArgusDataSender.putMetrics(info, [metric])
+        ArgusDataSender.Outcome second = ArgusDataSender.putMetrics(info, [metric])
+
+        then:
+        2 * metricService.putMetrics([metric])
+        first == ArgusDataSender.Outcome.SENT
+        second == ArgusDataSender.Outcome.SENT
+        paths == [ArgusHttpTransport.LOGIN_PATH, ArgusHttpTransport.METRICS_PATH]
+
+        cleanup:
+        ArgusSessionManager.@sessions.remove(info)
+        server.stop(0)
+    }
+}
@@ -0,0 +1,221 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.salesforce.dva.argus.sdk.entity.Annotation
+import com.salesforce.dva.argus.sdk.entity.Metric
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import hudson.util.Secret
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+
+class ArgusHttpTransportTest extends Specification {
+
+    private HttpServer server
+    private List<Map> requests = Collections.synchronizedList([])
+    private boolean acceptGzip = true
+    private int gzipRejectStatus = 415
+    private String gzipRejectBody = ''
+    private int unauthorizedResponses = 0
+    private ArgusHttpTransport transport
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext(ArgusHttpTransport.LOGIN_PATH) { HttpExchange exchange ->
+            requests << [path: exchange.requestURI.path]
+            respond(exchange, 200, '{"accessToken":"token","refreshToken":"refresh"}')
+        }
+        server.createContext(ArgusHttpTransport.LOGOUT_PATH) { HttpExchange exchange ->
+            requests << [path: exchange.requestURI.path, auth: exchange.requestHeaders.getFirst("Authorization")]
+            respond(exchange, 200, '')
+        }
+        server.createContext("/collection") { HttpExchange exchange ->
+            boolean gzip = exchange.requestHeaders.getFirst("Content-Encoding") == "gzip"
+            InputStream body = gzip ? new GZIPInputStream(exchange.requestBody) : exchange.requestBody
+            String json = body.text
+            requests << [path: exchange.requestURI.path, gzip: gzip, json: json,
+                         auth: exchange.requestHeaders.getFirst("Authorization")]
+            if (unauthorizedResponses > 0) {
+                unauthorizedResponses--
+                respond(exchange, 401, '')
+            } else if (gzip && !acceptGzip) {
+                respond(exchange, gzipRejectStatus, gzipRejectBody)
+            } else {
+                respond(exchange, 200, '{}')
+            }
+        }
+        server.start()
+
+        UsernamePasswordCredentials credentials = Mock(UsernamePasswordCredentials)
+        credentials.getUsername() >> "user"
+        credentials.getPassword() >> Secret.fromString("pass")
+        transport = new ArgusHttpTransport(
+                new ArgusConnectionInfo("http://127.0.0.1:" + server.address.port, credentials))
+    }
+
+    def cleanup() {
+        server.stop(0)
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) {
+        byte[] bytes = body.getBytes("UTF-8")
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length)
+        if (bytes.length > 0) {
+            exchange.responseBody.write(bytes)
+        }
+        exchange.close()
+    }
+
+    private static Metric metric(String name) {
+        Metric metric = new Metric()
+        metric.scope = "scope"
+        metric.metric = name
+        metric.setDatapoints([(1000L): 1.0d])
+        metric
+    }
+
+    def "metrics are sent as gzip compressed JSON after logging in once"() {
+        when:
+        boolean sent = transport.putMetrics([metric("a"), metric("b")])
+        transport.putMetrics([metric("c")])
+
+        then:
+        sent
+        requests*.path == [ArgusHttpTransport.LOGIN_PATH, ArgusHttpTransport.METRICS_PATH,
+                           ArgusHttpTransport.METRICS_PATH]
+        requests[1].gzip
+        requests[1].auth == "Bearer token"
+        List sent = new ObjectMapper().readValue(requests[1].json as String, List)
+        sent*.metric == ["a", "b"]
+        sent[0].scope == "scope"
+        transport.compressionSupported
+    }
+
+    def "stops sending when the server rejects gzip, leaving the data to the caller"() {
+        given:
+        acceptGzip = false
+        Annotation annotation = new Annotation()
+        annotation.scope = "scope"
+        annotation.metric = "a"
+
+        when:
+        boolean first = transport.putAnnotations([annotation])
+        boolean second = transport.putAnnotations([annotation])
+
+        then:
+        !first
+        !second
+        requests*.path == [ArgusHttpTransport.LOGIN_PATH, ArgusHttpTransport.ANNOTATIONS_PATH]
+        requests[1].gzip
+        !transport.compressionSupported
+    }
+
+    def "stops sending on a bad request about the encoding"() {
+        given:
+        acceptGzip = false
+        gzipRejectStatus = 400
+        gzipRejectBody = '{"message":"Unsupported Content-Encoding: gzip"}'
+
+        when:
+        boolean sent = transport.putMetrics([metric("a")])
+
+        then:
+        !sent
+        requests*.gzip.findAll { it != null } == [true]
+        !transport.compressionSupported
+    }
+
+    def "keeps compressing after a bad request about something else"() {
+        given:
+        acceptGzip = false
+        gzipRejectStatus = 400
+        gzipRejectBody = '{"message":"Metric name must not be empty"}'
+
+        when:
+        transport.putMetrics([metric("a")])
+
+        then:
+        ArgusHttpTransport.HttpStatusException e = thrown()
+        e.getStatus() == 400
+        requests*.path == [ArgusHttpTransport.LOGIN_PATH, ArgusHttpTransport.METRICS_PATH]
+        transport.compressionSupported
+    }
+
+    @Unroll
+    def "status #status with body '#body' means the encoding was rejected: #rejected"() {
+        expect:
+        ArgusHttpTransport.isEncodingRejected(status, body) == rejected
+
+        where:
+        status | body                          || rejected
+        415    | null                          || true
+        400    | "gzip is not supported"       || true
+        400    | "Unknown Content-Encoding"    || true
+        400    | "Invalid metric"              || false
+        400    | null                          || false
+        500    | "could not decompress body"   || false
+    }
+
+    def "logging out sends the token and forgets it"() {
+        given:
+        transport.putMetrics([metric("a")])
+
+        when:
+        transport.logout()
+        transport.logout()
+
+        then:
+        requests*.path == [ArgusHttpTransport.LOGIN_PATH, ArgusHttpTransport.METRICS_PATH,
+                           ArgusHttpTransport.LOGOUT_PATH]
+        requests[2].auth == "Bearer token"
+    }
+
+    def "logs in again when the token is rejected"() {
+        given:
+        unauthorizedResponses = 1
+
+        when:
+        transport.putMetrics([metric("a")])
+
+        then:
+        requests*.path == [ArgusHttpTransport.LOGIN_PATH, ArgusHttpTransport.METRICS_PATH,
+                           ArgusHttpTransport.LOGIN_PATH, ArgusHttpTransport.METRICS_PATH]
+    }
+
+    def "fails when the server keeps returning an error"() {
+        given:
+        unauthorizedResponses = 2
+
+        when:
+        transport.putMetrics([metric("a")])
+
+        then:
+        thrown(IOException)
+    }
+
+    def "the per-thread gzip stream can be reused for several bodies"() {
+        given:
+        ReusableGzipOutputStream gzip = ReusableGzipOutputStream.forCurrentThread()
+
+        expect:
+        ["first body", "second, longer body " * 100].every { String text ->
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+            gzip.start(bytes).withStream { it.write(text.getBytes("UTF-8")) }
+            new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())).getText("UTF-8") == text
+        }
+    }
+
+    def "releasing the per-thread gzip stream hands out a new one"() {
+        given:
+        ReusableGzipOutputStream first = ReusableGzipOutputStream.forCurrentThread()
+
+        when:
+        ReusableGzipOutputStream.releaseForCurrentThread()
+
+        then:
+        !ReusableGzipOutputStream.forCurrentThread().is(first)
+    }
+}
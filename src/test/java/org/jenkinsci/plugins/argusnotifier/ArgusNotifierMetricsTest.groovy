@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.codahale.metrics.MetricRegistry
+import com.salesforce.dva.argus.sdk.entity.Annotation
+import com.salesforce.dva.argus.sdk.entity.Metric
+import spock.lang.Specification
+
+class ArgusNotifierMetricsTest extends Specification {
+
+    private MetricRegistry registry = ArgusNotifierMetrics.registry()
+
+    def "sent payloads are counted and their size and age recorded"() {
+        given:
+        long metricsSent = registry.counter(ArgusNotifierMetrics.METRICS_SENT).count
+        long annotationsSent = registry.counter(ArgusNotifierMetrics.ANNOTATIONS_SENT).count
+        long acks = registry.timer(ArgusNotifierMetrics.COMPLETION_TO_ACK).count
+        ArgusPayload payload = new ArgusPayload(null, [new Metric(), new Metric()], [new Annotation()],
+                System.currentTimeMillis() - 1000)
+
+        when:
+        ArgusNotifierMetrics.onSent(payload)
+
+        then:
+        registry.counter(ArgusNotifierMetrics.METRICS_SENT).count == metricsSent + 2
+        registry.counter(ArgusNotifierMetrics.ANNOTATIONS_SENT).count == annotationsSent + 1
+        registry.timer(ArgusNotifierMetrics.COMPLETION_TO_ACK).count == acks + 1
+        registry.timer(ArgusNotifierMetrics.COMPLETION_TO_ACK).snapshot.max >= 1000_000_000L
+        registry.histogram(ArgusNotifierMetrics.PAYLOAD_METRICS).count > 0
+    }
+
+    def "batch requests record the payloads merged and the items sent"() {
+        given:
+        long batches = registry.histogram(ArgusNotifierMetrics.BATCH_PAYLOADS).count
+        ArgusPayload request = new ArgusPayload(null, [new Metric(), new Metric()], [new Annotation()])
+
+        when:
+        ArgusNotifierMetrics.onBatch(3, request)
+
+        then:
+        registry.histogram(ArgusNotifierMetrics.BATCH_PAYLOADS).count == batches + 1
+        registry.histogram(ArgusNotifierMetrics.BATCH_PAYLOADS).snapshot.max >= 3
+        registry.histogram(ArgusNotifierMetrics.BATCH_ITEMS).snapshot.max >= 3
+    }
+
+    def "failures are counted in total and by exception type"() {
+        given:
+        long failures = registry.counter(ArgusNotifierMetrics.FAILURES).count
+        String byType = MetricRegistry.name(ArgusNotifierMetrics.FAILURES, "java.net.UnknownHostException")
+        long unknownHostFailures = registry.counter(byType).count
+
+        when:
+        ArgusNotifierMetrics.onFailure(new UnknownHostException("argus"))
+        ArgusNotifierMetrics.onFailure(new IOException("broken"))
+
+        then:
+        registry.counter(ArgusNotifierMetrics.FAILURES).count == failures + 2
+        registry.counter(byType).count == unknownHostFailures + 1
+    }
+
+    def "call timers are kept per call type"() {
+        expect:
+        !ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_LOGIN)
+                .is(ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_PUT_METRICS))
+        ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_LOGIN)
+                .is(ArgusNotifierMetrics.callTimer(ArgusNotifierMetrics.CALL_LOGIN))
+    }
+}
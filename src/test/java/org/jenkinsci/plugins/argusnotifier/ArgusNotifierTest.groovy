@@ -35,4 +35,55 @@ class ArgusNotifierTest extends Specification {
         ADMIN_USER | true
         DEV_USER   | false
     }
+
+    def "an unconfigured descriptor publishes a snapshot with the defaults"() {
+        given:
+        ArgusNotifier.DescriptorImpl descriptor = jenkinsRule.jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl)
+
+        when:
+        ArgusConfiguration configuration = descriptor.getConfiguration()
+
+        then:
+        !configuration.isNotifierConfigured()
+        configuration.isSendForAllBuilds()
+        configuration.getAnnotationMode() == AnnotationFactory.Mode.PER_METRIC
+        configuration.getMetricNameFilter().accepts("any.metric")
+        configuration.getSnapshotQuantiles() == SystemMetricFactory.parseQuantiles(SystemMetricFactory.DEFAULT_QUANTILES)
+        configuration.getArgusConnectionInfo().credentials == null
+        configuration.getSendQueueSettings() == new ArgusSendQueue.Settings(ArgusSendQueue.DEFAULT_CAPACITY,
+                ArgusSendQueue.DEFAULT_WORKER_COUNT, ArgusSendQueue.OverflowPolicy.DROP_OLDEST,
+                ArgusSendQueue.DEFAULT_BATCH_SIZE, ArgusSendQueue.DEFAULT_BATCH_LINGER_MILLIS)
+        configuration.getRetryPolicy().maxAttempts == RetryPolicy.DEFAULT_MAX_ATTEMPTS
+        configuration.isSpoolEnabled()
+        configuration.getSpoolMaxMegabytes() == ArgusSpool.DEFAULT_MAX_MEGABYTES
+        configuration.getAdditionalTargets().isEmpty()
+        descriptor.getConfiguration().is(configuration)
+    }
+
+    def "refreshing the credentials keeps the other settings"() {
+        given:
+        ArgusNotifier.DescriptorImpl descriptor = jenkinsRule.jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl)
+        ArgusConfiguration before = descriptor.getConfiguration()
+
+        when:
+        descriptor.refreshCredentials()
+        ArgusConfiguration after = descriptor.getConfiguration()
+
+        then:
+        !after.is(before)
+        after.getMetricNameFilter().is(before.getMetricNameFilter())
+        after.getScope() == before.getScope()
+        after.getArgusConnectionInfo() == before.getArgusConnectionInfo()
+    }
+
+    def "snapshots expire after the time-to-live"() {
+        given:
+        ArgusNotifier.DescriptorImpl descriptor = jenkinsRule.jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl)
+        ArgusConfiguration configuration = descriptor.getConfiguration()
+        long now = System.nanoTime()
+
+        expect:
+        !configuration.isOlderThan(now, Long.MAX_VALUE)
+        configuration.isOlderThan(now, 0L)
+    }
 }
@@ -0,0 +1,227 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Metric
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+import java.util.function.Function
+
+@Unroll
+class ArgusSendQueueTest extends Specification {
+
+    private CountDownLatch release = new CountDownLatch(1)
+    private LinkedBlockingQueue<ArgusPayload> sent = new LinkedBlockingQueue<>()
+    private List<ArgusPayload> unsent = [].asSynchronized()
+    private Function<ArgusPayload, ArgusPayload> blockingSender = { ArgusPayload payload ->
+        try {
+            release.await()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt()
+            return payload
+        }
+        sent.add(payload)
+        return null
+    } as Function<ArgusPayload, ArgusPayload>
+    private Consumer<ArgusPayload> spool = { ArgusPayload payload -> unsent.add(payload) } as Consumer<ArgusPayload>
+
+    private static ArgusSendQueue.Settings settings(int capacity, int workers, ArgusSendQueue.OverflowPolicy policy) {
+        return new ArgusSendQueue.Settings(capacity, workers, policy, 1, 0L)
+    }
+
+    private static ArgusPayload payload(String name) {
+        Metric metric = new Metric()
+        metric.setMetric(name)
+        return new ArgusPayload(null, [metric], [])
+    }
+
+    def "queued payloads are handed to the sender"() {
+        given:
+        ArgusSendQueue queue = new ArgusSendQueue(settings(10, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST), blockingSender, spool)
+        release.countDown()
+
+        when:
+        boolean queued = queue.enqueue(payload("a"))
+
+        then:
+        queued
+        sent.poll(5, TimeUnit.SECONDS).metrics[0].metric == "a"
+
+        cleanup:
+        queue.shutdown()
+    }
+
+    def "#policy keeps #expected when the queue is full"() {
+        given:
+        ArgusSendQueue queue = new ArgusSendQueue(settings(1, 1, policy), blockingSender, spool)
+        queue.enqueue(payload("in-flight"))
+        // wait for the worker to pick up the first payload so the queue slot is free again
+        while (queue.size() > 0) {
+            Thread.sleep(10)
+        }
+        queue.enqueue(payload("old"))
+
+        when:
+        boolean queued = queue.enqueue(payload("new"))
+        List<ArgusPayload> pending = queue.drainPending()
+
+        then:
+        queued == expectedQueued
+        pending*.metrics*.metric.flatten() == [expected]
+        queue.droppedCount == 1
+
+        cleanup:
+        release.countDown()
+        queue.shutdown()
+
+        where:
+        policy                                   | expected | expectedQueued
+        ArgusSendQueue.OverflowPolicy.DROP_OLDEST | "new"    | true
+        ArgusSendQueue.OverflowPolicy.DROP_NEWEST | "old"    | false
+    }
+
+    def "replaceWith lets the in-flight payload finish and moves pending payloads to the new queue"() {
+        given:
+        ArgusSendQueue queue = new ArgusSendQueue(settings(5, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST), blockingSender, spool)
+        queue.enqueue(payload("in-flight"))
+        while (queue.size() > 0) {
+            Thread.sleep(10)
+        }
+        queue.enqueue(payload("pending"))
+        ArgusSendQueue.Settings newSettings = settings(10, 2, ArgusSendQueue.OverflowPolicy.DROP_OLDEST)
+        ArgusSendQueue replacement = null
+        Thread replacing = Thread.start { replacement = queue.replaceWith(newSettings) }
+
+        when:
+        release.countDown()
+        replacing.join(10000)
+
+        then:
+        replacement.settings == newSettings
+        [sent.poll(5, TimeUnit.SECONDS), sent.poll(5, TimeUnit.SECONDS)]*.metrics*.metric.flatten() as Set ==
+                ["in-flight", "pending"] as Set
+        unsent.isEmpty()
+        queue.droppedCount == 0
+
+        cleanup:
+        replacement?.shutdown()
+    }
+
+    def "a payload whose send is interrupted by the shutdown is handed back"() {
+        given:
+        ArgusSendQueue queue = new ArgusSendQueue(settings(5, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST),
+                blockingSender, spool, 100L)
+        queue.enqueue(payload("in-flight"))
+        while (queue.size() > 0) {
+            Thread.sleep(10)
+        }
+        queue.enqueue(payload("pending"))
+
+        when:
+        queue.shutdown()
+        List<ArgusPayload> pending = queue.drainPending()
+
+        then:
+        pending*.metrics*.metric.flatten() as Set == ["in-flight", "pending"] as Set
+        sent.isEmpty()
+        unsent.isEmpty()
+    }
+
+    def "finish sends everything that is queued before the workers stop"() {
+        given:
+        ArgusSendQueue queue = new ArgusSendQueue(settings(5, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST),
+                blockingSender, spool, 100L)
+        ["a", "b", "c"].each { queue.enqueue(payload(it)) }
+        Thread finishing = Thread.start { queue.finish(10000L) }
+
+        when:
+        release.countDown()
+        finishing.join(10000)
+
+        then:
+        !finishing.alive
+        sent*.metrics*.metric.flatten() == ["a", "b", "c"]
+        queue.drainPending().isEmpty()
+        unsent.isEmpty()
+    }
+
+    def "finish falls back to a shutdown after the timeout"() {
+        given:
+        ArgusSendQueue queue = new ArgusSendQueue(settings(5, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST),
+                blockingSender, spool, 100L)
+        queue.enqueue(payload("in-flight"))
+        while (queue.size() > 0) {
+            Thread.sleep(10)
+        }
+        queue.enqueue(payload("pending"))
+
+        when:
+        queue.finish(100L)
+
+        then:
+        queue.drainPending()*.metrics*.metric.flatten() as Set == ["in-flight", "pending"] as Set
+        sent.isEmpty()
+    }
+
+    def "what the sender could not send goes to the unsent consumer"() {
+        given:
+        Function<ArgusPayload, ArgusPayload> failing = { ArgusPayload p -> p } as Function<ArgusPayload, ArgusPayload>
+        ArgusSendQueue queue = new ArgusSendQueue(settings(5, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST),
+                failing, spool)
+
+        when:
+        queue.enqueue(payload("a"))
+        while (unsent.isEmpty()) {
+            Thread.sleep(10)
+        }
+
+        then:
+        unsent*.metrics*.metric.flatten() == ["a"]
+
+        cleanup:
+        queue.shutdown()
+    }
+
+    def "a payload the sender threw on goes to the unsent consumer"() {
+        given:
+        Function<ArgusPayload, ArgusPayload> throwing = { ArgusPayload p -> throw new IllegalStateException("bug") } as
+                Function<ArgusPayload, ArgusPayload>
+        ArgusSendQueue queue = new ArgusSendQueue(settings(5, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST),
+                throwing, spool)
+
+        when:
+        queue.enqueue(payload("a"))
+        while (unsent.isEmpty()) {
+            Thread.sleep(10)
+        }
+
+        then:
+        unsent*.metrics*.metric.flatten() == ["a"]
+
+        cleanup:
+        queue.shutdown()
+    }
+
+    def "payloads are merged into one batch until the batch size is reached"() {
+        given:
+        ArgusSendQueue.Settings batching = new ArgusSendQueue.Settings(10, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST,
+                3, 5000L)
+        ArgusSendQueue queue = new ArgusSendQueue(batching, blockingSender, spool)
+        release.countDown()
+
+        when:
+        queue.enqueue(payload("a"))
+        queue.enqueue(payload("b"))
+        queue.enqueue(payload("c"))
+        ArgusPayload merged = sent.poll(5, TimeUnit.SECONDS)
+
+        then:
+        merged.metrics*.metric == ["a", "b", "c"]
+
+        cleanup:
+        queue.shutdown()
+    }
+}
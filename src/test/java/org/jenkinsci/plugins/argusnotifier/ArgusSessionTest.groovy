@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials
+import com.salesforce.dva.argus.sdk.ArgusService
+import com.salesforce.dva.argus.sdk.AuthService
+import com.salesforce.dva.argus.sdk.exceptions.TokenExpiredException
+import hudson.util.Secret
+import spock.lang.Specification
+
+class ArgusSessionTest extends Specification {
+
+    private ArgusService service = Mock(ArgusService)
+    private AuthService authService = Mock(AuthService)
+    private UsernamePasswordCredentials credentials = Mock(UsernamePasswordCredentials)
+    private ArgusSession session
+
+    def setup() {
+        service.getAuthService() >> authService
+        credentials.getUsername() >> "user"
+        credentials.getPassword() >> Secret.fromString("pass")
+        session = new ArgusSession(new ArgusConnectionInfo("http://argus/ws", credentials), service)
+    }
+
+    def "logs in once for multiple calls"() {
+        when:
+        session.execute({ s -> "first" } as ArgusSession.ArgusCall)
+        String result = session.execute({ s -> "second" } as ArgusSession.ArgusCall)
+
+        then:
+        1 * authService.login("user", "pass")
+        result == "second"
+    }
+
+    def "logs in again and retries when the token has expired"() {
+        given:
+        int calls = 0
+        ArgusSession.ArgusCall<String> call = { s ->
+            if (calls++ == 0) {
+                throw Stub(TokenExpiredException)
+            }
+            return "retried"
+        } as ArgusSession.ArgusCall
+
+        when:
+        String result = session.execute(call)
+
+        then:
+        2 * authService.login("user", "pass")
+        result == "retried"
+    }
+
+    def "close logs out and closes the service"() {
+        given:
+        session.execute({ s -> null } as ArgusSession.ArgusCall)
+
+        when:
+        session.close()
+
+        then:
+        1 * authService.logout()
+        1 * service.close()
+    }
+
+    def "a retired session is closed only once the last user releases it"() {
+        given:
+        session.execute({ s -> null } as ArgusSession.ArgusCall)
+        session.acquire()
+
+        when:
+        session.retire()
+
+        then:
+        0 * service.close()
+        !session.acquire()
+
+        when:
+        session.release()
+
+        then:
+        1 * authService.logout()
+        1 * service.close()
+    }
+
+    def "an idle session is closed when it is retired"() {
+        when:
+        session.retire()
+
+        then:
+        1 * service.close()
+        !session.acquire()
+    }
+}
@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Annotation
+import com.salesforce.dva.argus.sdk.entity.Metric
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.function.Function
+
+class ArgusSpoolTest extends Specification {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder()
+    private Path directory
+
+    def setup() {
+        directory = temporaryFolder.newFolder("spool").toPath()
+    }
+
+    private static ArgusPayload payload(String name, long createdMillis = System.currentTimeMillis()) {
+        Metric metric = new Metric()
+        metric.setScope("scope")
+        metric.setMetric(name)
+        metric.setTags([host: "somehost"])
+        metric.setDatapoints([(42L): 1.0d])
+        Annotation annotation = new Annotation()
+        annotation.setMetric(name)
+        annotation.setId("id-" + name)
+        return new ArgusPayload(null, [metric], [annotation], createdMillis)
+    }
+
+    private static Function<ArgusPayload, ArgusPayload> collectInto(List<ArgusPayload> sent) {
+        return { ArgusPayload p -> sent.add(p); null } as Function<ArgusPayload, ArgusPayload>
+    }
+
+    private long segmentCount() {
+        return Files.list(directory).withCloseable { it.filter { it.fileName.toString().endsWith(".spool") }.count() }
+    }
+
+    def "payloads are replayed in order with their metrics and annotations"() {
+        given:
+        ArgusSpool spool = new ArgusSpool(directory, 10, 1)
+        spool.append(payload("first"))
+        spool.append(payload("second"))
+        List<ArgusPayload> sent = []
+
+        when:
+        int replayed = spool.replay(null, collectInto(sent), 0)
+
+        then:
+        replayed == 2
+        sent*.metrics*.metric.flatten() == ["first", "second"]
+        sent[0].metrics[0].tags == [host: "somehost"]
+        sent[0].metrics[0].datapoints == [(42L): 1.0d]
+        sent[0].annotations[0].id == "id-first"
+        spool.isEmpty()
+    }
+
+    def "replay stops at the first failure and resumes there after a restart"() {
+        given:
+        ArgusSpool spool = new ArgusSpool(directory, 10, 1)
+        spool.append(payload("first"))
+        spool.append(payload("second"))
+        spool.append(payload("third"))
+        int attempts = 0
+        Function<ArgusPayload, ArgusPayload> failOnSecond =
+                { ArgusPayload p -> ++attempts == 2 ? p : null } as Function<ArgusPayload, ArgusPayload>
+        spool.replay(null, failOnSecond, 0)
+        spool.close()
+        List<ArgusPayload> sent = []
+
+        when:
+        int replayed = new ArgusSpool(directory, 10, 1).replay(null, collectInto(sent), 0)
+
+        then:
+        replayed == 2
+        sent*.metrics*.metric.flatten() == ["second", "third"]
+    }
+
+    def "payloads older than the age limit are not replayed"() {
+        given:
+        ArgusSpool spool = new ArgusSpool(directory, 10, 1)
+        spool.append(payload("old", System.currentTimeMillis() - 2 * 60 * 60 * 1000))
+        spool.append(payload("new"))
+        List<ArgusPayload> sent = []
+
+        when:
+        spool.replay(null, collectInto(sent), 0)
+
+        then:
+        sent*.metrics*.metric.flatten() == ["new"]
+    }
+
+    def "new segments continue after existing ones after a restart"() {
+        given:
+        ArgusSpool spool = new ArgusSpool(directory, 10, 1)
+        spool.append(payload("before restart"))
+        spool.close()
+        ArgusSpool restarted = new ArgusSpool(directory, 10, 1)
+        restarted.append(payload("after restart"))
+        List<ArgusPayload> sent = []
+
+        when:
+        restarted.replay(null, collectInto(sent), 0)
+
+        then:
+        sent*.metrics*.metric.flatten() == ["before restart", "after restart"]
+    }
+
+    def "only the unsent part of a record is replayed again, after the records behind it"() {
+        given:
+        ArgusSpool spool = new ArgusSpool(directory, 10, 1)
+        spool.append(payload("first"))
+        spool.append(payload("second"))
+        Function<ArgusPayload, ArgusPayload> annotationsFail = { ArgusPayload p ->
+            new ArgusPayload(null, [], p.annotations, p.createdMillis)
+        } as Function<ArgusPayload, ArgusPayload>
+        spool.replay(null, annotationsFail, 0)
+        List<ArgusPayload> sent = []
+
+        when:
+        spool.replay(null, collectInto(sent), 0)
+
+        then:
+        sent*.metrics*.metric.flatten() == ["second"]
+        sent*.annotations*.metric.flatten() == ["second", "first"]
+        spool.isEmpty()
+    }
+
+    def "the segment being replayed is not dropped by the size limit"() {
+        given:
+        ArgusSpool spool = new ArgusSpool(directory, 1, 1)
+        spool.append(payload("first"))
+        spool.append(payload("second"))
+        ArgusPayload large = payload("large")
+        large.metrics[0].setTags([host: "x" * (2 * 1024 * 1024)])
+        List<Long> segmentsDuringReplay = []
+        List<ArgusPayload> sent = []
+        Function<ArgusPayload, ArgusPayload> appendWhileReplaying = { ArgusPayload p ->
+            if (p.metrics[0].metric == "first") {
+                spool.append(large)
+                segmentsDuringReplay << segmentCount()
+            }
+            sent.add(p)
+            null
+        } as Function<ArgusPayload, ArgusPayload>
+
+        when:
+        spool.replay(null, appendWhileReplaying, 0)
+
+        then:
+        segmentsDuringReplay == [2L]
+        sent*.metrics*.metric.flatten() == ["first", "second", "large"]
+        spool.isEmpty()
+        !Files.exists(directory.resolve("replay.position"))
+    }
+
+    def "the directory is only created when something is spooled"() {
+        given:
+        Path missing = directory.resolve("missing")
+        ArgusSpool spool = new ArgusSpool(missing, 10, 1)
+
+        expect:
+        spool.isEmpty()
+        spool.replay(null, collectInto([]), 0) == 0
+        !Files.exists(missing)
+
+        when:
+        spool.append(payload("first"))
+
+        then:
+        Files.isDirectory(missing)
+        !spool.isEmpty()
+    }
+
+    def "the size is kept up to date on append and replay"() {
+        given:
+        ArgusSpool spool = new ArgusSpool(directory, 10, 1)
+
+        when:
+        spool.append(payload("first"))
+        spool.append(payload("second"))
+        long appended = spool.sizeInBytes()
+
+        then:
+        appended > 0
+        new ArgusSpool(directory, 10, 1).sizeInBytes() == appended
+
+        when:
+        spool.replay(null, collectInto([]), 0)
+
+        then:
+        spool.sizeInBytes() == 0
+    }
+}
@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Annotation
+import com.salesforce.dva.argus.sdk.entity.Metric
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+
+class ArgusTargetPipelineTest extends Specification {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder()
+    private List<ArgusTargetPipeline> pipelines = []
+
+    def cleanup() {
+        pipelines*.shutdown()
+    }
+
+    private ArgusTargetPipeline pipeline(String scope, String includes = null, String excludes = null) {
+        ArgusTarget target = new ArgusTarget("http://argus/ws/", "creds", scope)
+        target.setMetricIncludes(includes)
+        target.setMetricExcludes(excludes)
+        ArgusTargetPipeline pipeline = new ArgusTargetPipeline(target, { new ArgusConnectionInfo(target.argusUrl, null) },
+                new ArgusSendQueue.Settings(10, 1, ArgusSendQueue.OverflowPolicy.DROP_NEWEST, 1, 0L), null, false,
+                { new RetryPolicy(1, 0, 0) })
+        pipelines << pipeline
+        return pipeline
+    }
+
+    private static Metric metric(String scope, String name) {
+        Metric metric = new Metric()
+        metric.setScope(scope)
+        metric.setMetric(name)
+        metric.setTags([host: "jenkins"])
+        metric.setDatapoints([(1L): 1.0d])
+        return metric
+    }
+
+    private static Annotation annotation(String scope, String name) {
+        Annotation annotation = new Annotation()
+        annotation.setScope(scope)
+        annotation.setMetric(name)
+        annotation.setId("id")
+        annotation.setFields([url: "http://jenkins/job/1"])
+        return annotation
+    }
+
+    def "metrics are shared as they are when the target uses the same scope and accepts everything"() {
+        given:
+        List<Metric> metrics = [metric("main", "build.status"), metric("main", "vm.count")]
+
+        expect:
+        pipeline("main").forTarget(metrics).is(metrics)
+    }
+
+    def "metrics are copied with the target scope, sharing tags and datapoints"() {
+        given:
+        Metric original = metric("main", "build.status")
+
+        when:
+        List<Metric> result = pipeline("global").forTarget([original])
+
+        then:
+        result.size() == 1
+        result[0].scope == "global"
+        result[0].metric == "build.status"
+        result[0].tags.is(original.tags)
+        result[0].datapoints.is(original.datapoints)
+        original.scope == "main"
+    }
+
+    def "only metrics and annotations accepted by the target filter are passed on"() {
+        given:
+        ArgusTargetPipeline pipeline = pipeline("main", "build.*", "build.time")
+        List<Metric> metrics = [metric("main", "build.status"), metric("main", "build.time"), metric("main", "vm.count")]
+        List<Annotation> annotations = [annotation("main", "build.status"), annotation("main", "build.time")]
+
+        expect:
+        pipeline.forTarget(metrics)*.metric == ["build.status"]
+        pipeline.forTargetAnnotations(annotations)*.metric == ["build.status"]
+    }
+
+    def "annotations are copied with the target scope"() {
+        when:
+        List<Annotation> result = pipeline("global").forTargetAnnotations([annotation("main", "build.status")])
+
+        then:
+        result*.scope == ["global"]
+        result[0].id == "id"
+        result[0].fields == [url: "http://jenkins/job/1"]
+    }
+
+    def "nothing is queued when the target accepts nothing"() {
+        given:
+        ArgusTargetPipeline pipeline = pipeline("main", "build.*")
+
+        expect:
+        !pipeline.offer(new ArgusPayload(null, [metric("main", "vm.count")], []))
+        pipeline.sendQueue.size() == 0
+    }
+
+    def "spool directory depends on the URL and scope only"() {
+        given:
+        ArgusTarget target = new ArgusTarget("http://argus/ws", "creds", "global")
+        ArgusTarget otherCredentials = new ArgusTarget("http://argus/ws/", "other", "global")
+        otherCredentials.setMetricIncludes("build.*")
+        ArgusTarget otherScope = new ArgusTarget("http://argus/ws", "creds", "regional")
+
+        expect:
+        ArgusTargetPipeline.spoolDirectory(Paths.get("plugin"), target) ==
+                ArgusTargetPipeline.spoolDirectory(Paths.get("plugin"), otherCredentials)
+        ArgusTargetPipeline.spoolDirectory(Paths.get("plugin"), target) !=
+                ArgusTargetPipeline.spoolDirectory(Paths.get("plugin"), otherScope)
+        ArgusTargetPipeline.spoolDirectory(Paths.get("plugin"), target)
+                .startsWith(Paths.get("plugin", ArgusTargetPipeline.TARGETS_DIRECTORY))
+    }
+
+    def "targets with the same URL and scope are duplicates, whatever else differs"() {
+        given:
+        ArgusTarget first = new ArgusTarget("http://argus/ws", "creds", "global")
+        ArgusTarget sameUrlAndScope = new ArgusTarget("http://argus/ws/", "other", "global")
+        ArgusTarget otherScope = new ArgusTarget("http://argus/ws", "creds", "regional")
+
+        expect:
+        ArgusTargetPipeline.findDuplicate([first, otherScope]) == null
+        ArgusTargetPipeline.findDuplicate([first, otherScope, sameUrlAndScope]).is(sameUrlAndScope)
+    }
+
+    def "directories of removed targets are deleted"() {
+        given:
+        Path pluginDirectory = temporaryFolder.root.toPath()
+        ArgusTarget kept = new ArgusTarget("http://argus/ws", "creds", "global")
+        ArgusTarget removed = new ArgusTarget("http://argus/ws", "creds", "regional")
+        Path keptSpool = Files.createDirectories(ArgusTargetPipeline.spoolDirectory(pluginDirectory, kept))
+        Path removedSpool = Files.createDirectories(ArgusTargetPipeline.spoolDirectory(pluginDirectory, removed))
+        Files.write(removedSpool.resolve("segment"), [1, 2, 3] as byte[])
+
+        when:
+        ArgusTargetPipeline.deleteUnusedDirectories(pluginDirectory, [kept])
+
+        then:
+        Files.isDirectory(keptSpool)
+        !Files.exists(removedSpool.parent)
+    }
+}
@@ -79,4 +79,21 @@ class BuildMetricFactoryTest extends Specification {
         "32ds34frg4534ff34fdcdds" | "32ds34frg4534ff34fdcdds"
         ""                        | null
     }
+
+    def "a finished run without a time in queue action uses its duration and no queue time"() {
+        given:
+        folder.fullName >> ""
+        run.getEnvironment(_) >> [:]
+        run.getDuration() >> 90_000L
+        BuildMetricFactory metricFactory = new BuildMetricFactory(jenkins, run, 42L, "testScope")
+
+        when:
+        List<Metric> metrics = metricFactory.buildTimeMetrics
+
+        then:
+        metrics.collectEntries { [it.metric, it.datapoints[42L]] } == [
+                (BuildMetricFactory.BUILD_TIME_METRIC)      : 90.0d,
+                (BuildMetricFactory.QUEUE_TIME_METRIC)      : 0.0d,
+                (BuildMetricFactory.TOTAL_BUILD_TIME_METRIC): 90.0d]
+    }
 }
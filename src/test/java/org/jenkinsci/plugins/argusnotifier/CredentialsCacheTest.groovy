@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials
+import spock.lang.Specification
+
+import java.util.function.Function
+import java.util.function.LongSupplier
+
+class CredentialsCacheTest extends Specification {
+
+    private long now = 0L
+    private Function<String, UsernamePasswordCredentials> loader = Mock()
+    private CredentialsCache cache = new CredentialsCache(loader, 100L, { now } as LongSupplier)
+
+    def "credentials are looked up once and then served from the cache"() {
+        given:
+        UsernamePasswordCredentials credentials = Mock()
+
+        when:
+        def first = cache.getCredentials("argus")
+        now = 99L
+        def second = cache.getCredentials("argus")
+
+        then:
+        1 * loader.apply("argus") >> credentials
+        first.is(credentials)
+        second.is(credentials)
+    }
+
+    def "entries are looked up again once the time-to-live has passed"() {
+        given:
+        UsernamePasswordCredentials old = Mock()
+        UsernamePasswordCredentials renewed = Mock()
+
+        when:
+        cache.getCredentials("argus")
+        now = 100L
+        def result = cache.getCredentials("argus")
+
+        then:
+        2 * loader.apply("argus") >>> [old, renewed]
+        result.is(renewed)
+    }
+
+    def "missing credentials are cached as well"() {
+        when:
+        def first = cache.getCredentials("missing")
+        def second = cache.getCredentials("missing")
+
+        then:
+        1 * loader.apply("missing") >> null
+        first == null
+        second == null
+        cache.size() == 1
+    }
+
+    def "invalidating forces a new lookup"() {
+        given:
+        UsernamePasswordCredentials credentials = Mock()
+
+        when:
+        cache.getCredentials("argus")
+        cache.invalidateAll()
+        cache.getCredentials("argus")
+
+        then:
+        2 * loader.apply("argus") >> credentials
+    }
+
+    def "a lookup that was running while the cache was invalidated is not served afterwards"() {
+        given:
+        UsernamePasswordCredentials stale = Mock()
+        UsernamePasswordCredentials current = Mock()
+        loader.apply("argus") >>> [stale, current]
+        CredentialsCache invalidatedDuringLookup
+        invalidatedDuringLookup = new CredentialsCache({ String id ->
+            UsernamePasswordCredentials loaded = loader.apply(id)
+            if (loaded.is(stale)) {
+                invalidatedDuringLookup.invalidateAll()
+            }
+            loaded
+        } as Function<String, UsernamePasswordCredentials>, 100L, { now } as LongSupplier)
+
+        when:
+        invalidatedDuringLookup.getCredentials("argus")
+        def result = invalidatedDuringLookup.getCredentials("argus")
+
+        then:
+        result.is(current)
+    }
+
+    def "a null id is never looked up"() {
+        when:
+        def result = cache.getCredentials(null)
+
+        then:
+        0 * loader.apply(_)
+        result == null
+        cache.size() == 0
+    }
+}
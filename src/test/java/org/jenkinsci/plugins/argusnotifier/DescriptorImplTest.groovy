@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.argusnotifier
 
+import hudson.util.FormValidation
 import spock.lang.Specification
 import spock.lang.Unroll
 
@@ -32,4 +33,29 @@ class DescriptorImplTest extends Specification {
         null              | null
     }
 
+    def "parseEnum turns #value into #expected"() {
+        expect:
+        ArgusNotifier.DescriptorImpl.parseEnum(ArgusSendQueue.OverflowPolicy.class, "sendQueueOverflowPolicy", value,
+                ArgusSendQueue.OverflowPolicy.DROP_OLDEST) == expected
+
+        where:
+        value         | expected
+        "DROP_NEWEST" | ArgusSendQueue.OverflowPolicy.DROP_NEWEST
+        "DROP_OLDEST" | ArgusSendQueue.OverflowPolicy.DROP_OLDEST
+        "bogus"       | ArgusSendQueue.OverflowPolicy.DROP_OLDEST
+        ""            | ArgusSendQueue.OverflowPolicy.DROP_OLDEST
+        null          | ArgusSendQueue.OverflowPolicy.DROP_OLDEST
+    }
+
+    def "validateEnum reports #value as #kind"() {
+        expect:
+        ArgusNotifier.DescriptorImpl.validateEnum(TagCardinalityGuard.Policy.class, value).kind == kind
+
+        where:
+        value      | kind
+        "ANNOTATE" | FormValidation.Kind.OK
+        ""         | FormValidation.Kind.OK
+        "annotate" | FormValidation.Kind.ERROR
+    }
+
 }
@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class GaugeDeltaTrackerTest extends Specification {
+
+    private GaugeDeltaTracker tracker = new GaugeDeltaTracker()
+
+    def "change from #previous to #current with epsilon #epsilon is sent: #expected"() {
+        given:
+        tracker.startInterval(10)
+        tracker.shouldSend("gauge", previous, epsilon)
+        tracker.startInterval(10)
+
+        expect:
+        tracker.shouldSend("gauge", current, epsilon) == expected
+
+        where:
+        previous   | current    | epsilon | expected
+        1.0d       | 1.0d       | 0.0d    | false
+        1.0d       | 2.0d       | 0.0d    | true
+        1.0d       | 1.05d      | 0.1d    | false
+        1.0d       | 1.2d       | 0.1d    | true
+        Double.NaN | Double.NaN | 0.0d    | false
+    }
+
+    def "unchanged gauges are sent again on the full refresh interval"() {
+        given:
+        List<Boolean> sent = (1..6).collect {
+            tracker.startInterval(3)
+            tracker.shouldSend("gauge", 1.0d, 0.0d)
+        }
+
+        expect:
+        sent == [true, false, false, true, false, false]
+    }
+
+    def "keeps separate values for many gauges"() {
+        given:
+        tracker.startInterval(10)
+        (1..1000).each { tracker.shouldSend("gauge" + it, it, 0.0d) }
+        tracker.startInterval(10)
+
+        expect:
+        tracker.size() == 1000
+        (1..1000).every { !tracker.shouldSend("gauge" + it, it, 0.0d) }
+        tracker.shouldSend("gauge500", 0.0d, 0.0d)
+    }
+
+    def "gauges that were not reported in an interval are forgotten"() {
+        given:
+        tracker.startInterval(10)
+        (1..100).each { tracker.shouldSend("gauge" + it, it, 0.0d) }
+        tracker.startInterval(10)
+        (1..50).each { tracker.shouldSend("gauge" + it, it, 0.0d) }
+
+        when:
+        tracker.startInterval(10)
+
+        then:
+        tracker.size() == 50
+        (1..50).every { !tracker.shouldSend("gauge" + it, it, 0.0d) }
+        tracker.shouldSend("gauge75", 75.0d, 0.0d)
+    }
+}
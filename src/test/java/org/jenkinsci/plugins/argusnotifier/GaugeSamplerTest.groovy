@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import jenkins.model.Jenkins
+import spock.lang.Specification
+
+class GaugeSamplerTest extends Specification {
+
+    private MetricRegistry registry = new MetricRegistry()
+    private Jenkins jenkins = Mock(Jenkins)
+    private double current = 0
+
+    def setup() {
+        jenkins.getRootUrl() >> "samplerhost"
+        registry.register("executors.busy", { current } as Gauge<Double>)
+        registry.register("not.a.number", { "text" } as Gauge<String>)
+    }
+
+    private Map<String, List<Double>> drain(GaugeSampler sampler) {
+        Map<String, List<Double>> drained = [:]
+        sampler.drain { String name, GaugeSampler.SampleBuffer samples ->
+            drained[name] = (0..<samples.size()).collect { samples.value(it) }
+        }
+        return drained
+    }
+
+    def "samples are summarized and the buffers emptied on drain"() {
+        given:
+        GaugeSampler sampler = new GaugeSampler(5, 60)
+        GaugeSampler.SampleBuffer summary = null
+
+        when:
+        [3, 9, 1, 4].eachWithIndex { value, i ->
+            current = value
+            sampler.sample(registry, MetricNameFilter.ACCEPT_ALL, i * 5L)
+        }
+        sampler.drain { String name, GaugeSampler.SampleBuffer samples ->
+            assert samples.min() == 1
+            assert samples.max() == 9
+            assert samples.average() == 4.25
+            assert samples.last() == 4
+            assert samples.timestamp(3) == 15L
+            summary = samples
+        }
+
+        then:
+        summary != null
+        drain(sampler).isEmpty()
+        sampler.gaugeCount() == 0
+    }
+
+    def "full buffer overwrites the oldest samples"() {
+        given:
+        GaugeSampler.SampleBuffer buffer = new GaugeSampler.SampleBuffer(3)
+
+        when:
+        (1..5).each { buffer.add(it, it) }
+
+        then:
+        buffer.size() == 3
+        (0..2).collect { buffer.value(it) } == [3.0d, 4.0d, 5.0d]
+        buffer.min() == 3
+    }
+
+    def "only numeric gauges accepted by the filter are sampled"() {
+        given:
+        GaugeSampler sampler = new GaugeSampler(5, 60)
+        registry.register("vm.count", { 7 } as Gauge<Integer>)
+
+        when:
+        sampler.sample(registry, MetricNameFilter.compile(null, "vm.*"), 1L)
+
+        then:
+        drain(sampler).keySet() == ["executors.busy"] as Set
+    }
+
+    def "summary and datapoint metrics are built from the samples"() {
+        given:
+        GaugeSampler.SampleBuffer buffer = new GaugeSampler.SampleBuffer(4)
+        buffer.add(10L, 2)
+        buffer.add(15L, 6)
+        SystemMetricFactory factory = new SystemMetricFactory(jenkins, 20L, "scope")
+
+        expect:
+        factory.getSampleSummaryMetrics("g", buffer).collectEntries { [(it.metric): it.datapoints[20L]] } ==
+                ["g.min": 2.0d, "g.max": 6.0d, "g.avg": 4.0d, "g": 6.0d]
+        factory.getSampledMetric("g", buffer).datapoints == [(10L): 2.0d, (15L): 6.0d]
+    }
+
+    private List<String> sendInterval(GaugeSampler sampler, GaugeDeltaTracker tracker,
+                                      GaugeSampler.Aggregation aggregation, List<Double> values) {
+        tracker.startInterval(10)
+        values.eachWithIndex { value, i ->
+            current = value
+            sampler.sample(registry, MetricNameFilter.ACCEPT_ALL, i * 5L)
+        }
+        return PeriodicJenkinsMetricsSender.collectMetrics(new MetricRegistry(),
+                new SystemMetricFactory(jenkins, 20L, "scope"), MetricNameFilter.ACCEPT_ALL, sampler, aggregation,
+                tracker, 0.0d)*.metric
+    }
+
+    def "only the sample summaries that changed are sent when sending changed gauges only"() {
+        given:
+        GaugeSampler sampler = new GaugeSampler(5, 60)
+        GaugeDeltaTracker tracker = new GaugeDeltaTracker()
+        GaugeSampler.Aggregation summary = GaugeSampler.Aggregation.SUMMARY
+
+        expect:
+        sendInterval(sampler, tracker, summary, [1.0d, 3.0d]) ==
+                ["executors.busy.min", "executors.busy.max", "executors.busy.avg", "executors.busy"]
+        sendInterval(sampler, tracker, summary, [1.0d, 3.0d]) == []
+        sendInterval(sampler, tracker, summary, [2.0d, 3.0d]) == ["executors.busy.min", "executors.busy.avg"]
+    }
+
+    def "sampled series are sent when any sample changed when sending changed gauges only"() {
+        given:
+        GaugeSampler sampler = new GaugeSampler(5, 60)
+        GaugeDeltaTracker tracker = new GaugeDeltaTracker()
+        GaugeSampler.Aggregation datapoints = GaugeSampler.Aggregation.DATAPOINTS
+
+        expect:
+        sendInterval(sampler, tracker, datapoints, [1.0d, 3.0d]) == ["executors.busy"]
+        sendInterval(sampler, tracker, datapoints, [3.0d, 3.0d]) == []
+        sendInterval(sampler, tracker, datapoints, [1.0d, 3.0d]) == ["executors.busy"]
+    }
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class HyperLogLogTest extends Specification {
+
+    def "an empty estimator estimates zero"() {
+        expect:
+        new HyperLogLog().estimate() == 0L
+    }
+
+    def "duplicates are not counted twice"() {
+        given:
+        HyperLogLog hyperLogLog = new HyperLogLog()
+
+        when:
+        3.times { (1..50).each { hyperLogLog.add(String.valueOf(it)) } }
+
+        then:
+        Math.abs(hyperLogLog.estimate() - 50) <= 2
+    }
+
+    def "#count distinct values are estimated within 10%"() {
+        given:
+        HyperLogLog hyperLogLog = new HyperLogLog()
+
+        when:
+        (1..count).each { hyperLogLog.add("build-" + it) }
+
+        then:
+        Math.abs(hyperLogLog.estimate() - count) <= count * 0.1
+
+        where:
+        count << [100, 1000, 10000, 100000]
+    }
+
+    def "null values are ignored"() {
+        given:
+        HyperLogLog hyperLogLog = new HyperLogLog()
+
+        when:
+        hyperLogLog.add(null)
+
+        then:
+        hyperLogLog.estimate() == 0L
+    }
+
+    def "an estimator stays sparse for a few values and switches to all registers later"() {
+        given:
+        HyperLogLog sparse = new HyperLogLog()
+        HyperLogLog dense = new HyperLogLog()
+
+        when:
+        (1..50).each { sparse.add("build-" + it) }
+        (1..500).each { dense.add("build-" + it) }
+
+        then:
+        sparse.sparse
+        Math.abs(sparse.estimate() - 50) <= 2
+        !dense.sparse
+        Math.abs(dense.estimate() - 500) <= 50
+    }
+
+    def "precision #precision is rejected"() {
+        when:
+        new HyperLogLog(precision)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        precision << [3, 17]
+    }
+}
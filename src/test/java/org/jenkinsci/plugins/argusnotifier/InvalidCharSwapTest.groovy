@@ -14,14 +14,36 @@ class InvalidCharSwapTest extends Specification {
         output == expectedOutput
 
         where:
-        input     | expectedOutput
-        "blah+"   | "blah-"
-        "++++"    | "----"
-        "blah%2F" | "blah-"
-        "%2F%2F"  | "--"
-        "-%2F+"   | "---"
-        "-%2F-"   | "---"
-        ".%2F-"   | ".--"
-        "aA-_./"  | "aA-_./"
+        input            | expectedOutput
+        "blah+"          | "blah-"
+        "++++"           | "----"
+        "blah%2F"        | "blah-"
+        "%2F%2F"         | "--"
+        "-%2F+"          | "---"
+        "-%2F-"          | "---"
+        ".%2F-"          | ".--"
+        "aA-_./"         | "aA-_./"
+        "%2f"            | "-2f"
+        "%"              | "-"
+        "a b\u00e9"      | "a-b-"
+        "x\ud83d\ude00y" | "x-y"
+        ""               | ""
+    }
+
+    def "valid input is returned as is"() {
+        given:
+        String input = "folder.job-name_1/x"
+
+        expect:
+        InvalidCharSwap.swapWithDash(input).is(input)
+    }
+
+    def "sanitized names are cached up to the cache size"() {
+        when:
+        (0..InvalidCharSwap.CACHE_SIZE).each { InvalidCharSwap.swapWithDash("job $it") }
+
+        then:
+        InvalidCharSwap.cacheSize() <= InvalidCharSwap.CACHE_SIZE
+        InvalidCharSwap.swapWithDash("job 1") == "job-1"
     }
 }
@@ -27,5 +27,24 @@ class JenkinsFormatterTest extends Specification {
         "$SOMEHOST:80"                 | SOMEHOST
         "$SOMEHOST/jenkins"            | SOMEHOST
         "https://$SOMEHOST:80/jenkins" | SOMEHOST
+        null                           | null
+    }
+
+    def 'host info is reused until the root url changes'() {
+        given:
+        Jenkins otherJenkins = Mock(Jenkins)
+        jenkins.getRootUrl() >> "https://$SOMEHOST/"
+        otherJenkins.getRootUrl() >> "https://otherhost/"
+
+        when:
+        JenkinsFormatter.HostInfo first = JenkinsFormatter.getHostInfo(jenkins)
+        JenkinsFormatter.HostInfo second = JenkinsFormatter.getHostInfo(jenkins)
+        JenkinsFormatter.HostInfo changed = JenkinsFormatter.getHostInfo(otherJenkins)
+
+        then:
+        second.is(first)
+        first.hostTag == [host: SOMEHOST]
+        changed.hostName == "otherhost"
+        changed.hostTag == [host: "otherhost"]
     }
 }
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Metric
+import spock.lang.Specification
+
+class LabelMetricFactoryTest extends Specification {
+
+    private LabelMetricFactory factory = new LabelMetricFactory([host: "jenkins"], "scope", 600L)
+
+    private static Map<String, Double> byLabel(List<Metric> metrics, String name) {
+        return metrics.findAll { it.metric == name }.collectEntries { [it.tags.label, it.datapoints[600L]] }
+    }
+
+    def "queue items are counted per label with the oldest wait"() {
+        given:
+        LabelMetricFactory.LabelScan scan = new LabelMetricFactory.LabelScan()
+        scan.addQueueItem("linux", true, false, 300_000L)
+        scan.addQueueItem("linux", true, false, 500_000L)
+        scan.addQueueItem("linux", false, true, 100_000L)
+        scan.addQueueItem(null, true, false, 590_000L)
+
+        when:
+        List<Metric> metrics = factory.getLabelMetrics(scan, 600_000L)
+
+        then:
+        byLabel(metrics, LabelMetricFactory.QUEUE_BUILDABLE_METRIC) == [any: 1.0d, linux: 2.0d]
+        byLabel(metrics, LabelMetricFactory.QUEUE_BLOCKED_METRIC) == [any: 0.0d, linux: 1.0d]
+        byLabel(metrics, LabelMetricFactory.QUEUE_OLDEST_WAIT_METRIC) == [any: 10.0d, linux: 500.0d]
+        metrics.find { it.metric == LabelMetricFactory.QUEUE_OLDEST_WAIT_METRIC }.units == "seconds"
+    }
+
+    def "items in their quiet period are not counted"() {
+        given:
+        LabelMetricFactory.LabelScan scan = new LabelMetricFactory.LabelScan()
+        scan.addQueueItem("linux", false, false, 0L)
+
+        expect:
+        factory.getLabelMetrics(scan, 600_000L).isEmpty()
+    }
+
+    def "executors count towards every label of their node"() {
+        given:
+        LabelMetricFactory.LabelScan scan = new LabelMetricFactory.LabelScan()
+        scan.addExecutors(["linux", "docker"], 1, 3, 0)
+        scan.addExecutors(["linux"], 0, 0, 2)
+        scan.addExecutors([], 2, 0, 0)
+
+        when:
+        List<Metric> metrics = factory.getLabelMetrics(scan, 600_000L)
+
+        then:
+        byLabel(metrics, LabelMetricFactory.EXECUTORS_BUSY_METRIC) == [docker: 1.0d, linux: 1.0d, none: 2.0d]
+        byLabel(metrics, LabelMetricFactory.EXECUTORS_IDLE_METRIC) == [docker: 3.0d, linux: 3.0d, none: 0.0d]
+        byLabel(metrics, LabelMetricFactory.EXECUTORS_OFFLINE_METRIC) == [docker: 0.0d, linux: 2.0d, none: 0.0d]
+        byLabel(metrics, LabelMetricFactory.QUEUE_OLDEST_WAIT_METRIC) == [docker: 0.0d, linux: 0.0d, none: 0.0d]
+    }
+
+    def "items without a label and nodes without labels are counted apart"() {
+        given:
+        LabelMetricFactory.LabelScan scan = new LabelMetricFactory.LabelScan()
+        scan.addQueueItem(null, true, false, 600_000L)
+        scan.addExecutors([], 0, 2, 0)
+
+        when:
+        List<Metric> metrics = factory.getLabelMetrics(scan, 600_000L)
+
+        then:
+        byLabel(metrics, LabelMetricFactory.QUEUE_BUILDABLE_METRIC) == [any: 1.0d, none: 0.0d]
+        byLabel(metrics, LabelMetricFactory.EXECUTORS_IDLE_METRIC) == [any: 0.0d, none: 2.0d]
+    }
+
+    def "a label sent last time that is gone now is sent with 0"() {
+        given:
+        LabelMetricFactory.LabelScan scan = new LabelMetricFactory.LabelScan()
+        scan.addExecutors(["linux"], 1, 0, 0)
+        Set<String> labels = scan.labels()
+        scan.addVanished(["linux", "windows"])
+
+        when:
+        List<Metric> metrics = factory.getLabelMetrics(scan, 600_000L)
+
+        then:
+        labels == ["linux"] as Set
+        metrics.size() == 12
+        metrics.findAll { it.tags.label == "windows" }.every { it.datapoints[600L] == 0.0d }
+        byLabel(metrics, LabelMetricFactory.EXECUTORS_BUSY_METRIC) == [linux: 1.0d, windows: 0.0d]
+    }
+
+    def "metrics carry the host and label tags and the scope"() {
+        given:
+        LabelMetricFactory.LabelScan scan = new LabelMetricFactory.LabelScan()
+        scan.addQueueItem("linux && docker", true, false, 600_000L)
+
+        when:
+        Metric metric = factory.getLabelMetrics(scan, 600_000L)[0]
+
+        then:
+        metric.scope == "scope"
+        metric.tags == [host: "jenkins", label: "linux----docker"]
+    }
+}
@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class MetricNameFilterTest extends Specification {
+
+    def "#name accepted is #accepted for includes '#includes' and excludes '#excludes'"() {
+        when:
+        MetricNameFilter filter = MetricNameFilter.compile(includes, excludes)
+
+        then:
+        filter.accepts(name) == accepted
+
+        where:
+        includes                  | excludes    | name                 | accepted
+        null                      | null        | "vm.count"           | true
+        ""                        | " \n "      | "vm.count"           | true
+        "vm.*"                    | null        | "vm.count"           | true
+        "vm.*"                    | null        | "vmx.count"          | false
+        "vm.*"                    | null        | "jenkins.queue.size" | false
+        "vm.*\njenkins.queue.*"   | null        | "jenkins.queue.size" | true
+        "vm.*, jenkins.queue.*"   | null        | "jenkins.queue.size" | true
+        "vm.count"                | null        | "vm.count"           | true
+        "vm.count"                | null        | "vm.count.total"     | false
+        "vm.count"                | null        | "vm"                 | false
+        "*"                       | null        | "anything"           | true
+        "vm.*"                    | "vm.gc.*"   | "vm.gc.time"         | false
+        "vm.*"                    | "vm.gc.*"   | "vm.memory.used"     | true
+        null                      | "vm.count"  | "vm.count"           | false
+        null                      | "vm.count"  | "vm.counts"          | true
+        null                      | "*"         | "anything"           | false
+    }
+
+    def "accept all filter accepts everything"() {
+        expect:
+        MetricNameFilter.ACCEPT_ALL.accepts("anything")
+        MetricNameFilter.ACCEPT_ALL.accepts("")
+    }
+}
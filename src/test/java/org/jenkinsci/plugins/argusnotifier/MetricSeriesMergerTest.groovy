@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Metric
+import spock.lang.Specification
+
+class MetricSeriesMergerTest extends Specification {
+
+    private static Metric metric(String name, Map<String, String> tags, Map<Long, Double> datapoints,
+                                 String scope = "scope") {
+        Metric metric = new Metric()
+        metric.setScope(scope)
+        metric.setMetric(name)
+        metric.setDisplayName(name + " display")
+        metric.setUnits("seconds")
+        metric.setTags(tags)
+        metric.setDatapoints(datapoints)
+        return metric
+    }
+
+    def "datapoints of the same series are merged into one metric"() {
+        given:
+        List<Metric> metrics = [
+                metric("queue.size", [host: "a"], [(1L): 1.0d]),
+                metric("queue.size", [host: "b"], [(1L): 5.0d]),
+                metric("queue.size", [host: "a"], [(2L): 2.0d]),
+                metric("queue.size", [host: "a"], [(3L): 3.0d], "other scope")]
+
+        when:
+        List<Metric> merged = MetricSeriesMerger.merge(metrics)
+
+        then:
+        merged.size() == 3
+        merged[0].tags == [host: "a"]
+        merged[0].scope == "scope"
+        merged[0].datapoints == [(1L): 1.0d, (2L): 2.0d]
+        merged[0].displayName == "queue.size display"
+        merged[0].units == "seconds"
+        merged[1].datapoints == [(1L): 5.0d]
+        merged[2].scope == "other scope"
+    }
+
+    def "later datapoints win for the same timestamp and the input is not modified"() {
+        given:
+        Metric first = metric("m", [:], [(1L): 1.0d])
+        Metric second = metric("m", [:], [(1L): 2.0d])
+
+        when:
+        List<Metric> merged = MetricSeriesMerger.merge([first, second])
+
+        then:
+        merged*.datapoints == [[(1L): 2.0d]]
+        first.datapoints == [(1L): 1.0d]
+    }
+
+    def "metrics of distinct series are returned as they are"() {
+        given:
+        List<Metric> metrics = [metric("a", [:], [(1L): 1.0d]), metric("b", [:], [(1L): 1.0d])]
+
+        expect:
+        MetricSeriesMerger.merge(metrics).is(metrics)
+    }
+}
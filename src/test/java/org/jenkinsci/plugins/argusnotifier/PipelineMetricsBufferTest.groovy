@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Metric
+import hudson.model.Result
+import spock.lang.Specification
+
+class PipelineMetricsBufferTest extends Specification {
+
+    private PipelineMetricsBuffer buffer = new PipelineMetricsBuffer("jenkins", "folder.job", "42")
+
+    def "a closed stage becomes a time and a status metric with the build tags and the stage"() {
+        given:
+        buffer.addStage("Build it", 90_000L, Result.UNSTABLE)
+
+        when:
+        List<Metric> metrics = buffer.drain("scope", "abc123", 100L)
+
+        then:
+        metrics*.metric == [PipelineMetricsBuffer.STAGE_TIME_METRIC, PipelineMetricsBuffer.STAGE_STATUS_METRIC]
+        metrics*.scope == ["scope", "scope"]
+        metrics[0].datapoints == [(100L): 90.0d]
+        metrics[0].units == "seconds"
+        metrics[1].datapoints == [(100L): 1.0d]
+        metrics[0].tags == [host: "jenkins", project: "folder.job", build_number: "42", build_status: "UNSTABLE",
+                            git_commit: "abc123", stage: "Build-it"]
+    }
+
+    def "steps are aggregated per stage, step and result"() {
+        given:
+        buffer.addStep("Test", "sh", 1_000L, Result.SUCCESS)
+        buffer.addStep("Test", "sh", 2_500L, Result.SUCCESS)
+        buffer.addStep("Test", "sh", 500L, Result.FAILURE)
+        buffer.addStep(null, "echo", 10L, Result.SUCCESS)
+
+        when:
+        List<Metric> metrics = buffer.drain("scope", "", 100L)
+        Map<String, Double> times = metrics.findAll { it.metric == PipelineMetricsBuffer.STEP_TIME_METRIC }
+                .collectEntries { [it.tags.stage + "/" + it.tags.step + "/" + it.tags.build_status, it.datapoints[100L]] }
+        Map<String, Double> counts = metrics.findAll { it.metric == PipelineMetricsBuffer.STEP_COUNT_METRIC }
+                .collectEntries { [it.tags.stage + "/" + it.tags.step + "/" + it.tags.build_status, it.datapoints[100L]] }
+
+        then:
+        buffer.stepCount == 0
+        times == ["Test/sh/SUCCESS": 3.5d, "Test/sh/FAILURE": 0.5d, "none/echo/SUCCESS": 0.01d]
+        counts == ["Test/sh/SUCCESS": 2.0d, "Test/sh/FAILURE": 1.0d, "none/echo/SUCCESS": 1.0d]
+        !metrics[0].tags.containsKey("git_commit")
+    }
+
+    def "draining empties the buffer"() {
+        given:
+        buffer.addStage("Build", 1L, Result.SUCCESS)
+        buffer.addStep("Build", "sh", 1L, Result.SUCCESS)
+
+        expect:
+        buffer.stepCount == 1
+        !buffer.empty
+        buffer.drain("scope", null, 1L).size() == 4
+        buffer.empty
+        buffer.drain("scope", null, 2L).isEmpty()
+    }
+
+    def "the git commit is remembered once it is known"() {
+        when:
+        buffer.gitCommitHash = ""
+
+        then:
+        buffer.gitCommitHash == null
+
+        when:
+        buffer.gitCommitHash = "abc123"
+        buffer.gitCommitHash = null
+
+        then:
+        buffer.gitCommitHash == "abc123"
+    }
+}
@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import hudson.model.FreeStyleBuild
+import org.jenkinsci.plugins.workflow.flow.FlowExecution
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner
+import org.jenkinsci.plugins.workflow.graph.FlowNode
+import org.junit.Rule
+import org.jvnet.hudson.test.JenkinsRule
+import spock.lang.Specification
+
+class PipelineStageListenerTest extends Specification {
+    @Rule public JenkinsRule jenkinsRule = new JenkinsRule()
+
+    private FlowExecution execution = Mock(FlowExecution)
+    private FlowNode node = Mock(FlowNode)
+    private ArgusNotifier.DescriptorImpl descriptor
+
+    def setup() {
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject("pipeline"))
+        FlowExecutionOwner owner = Mock(FlowExecutionOwner)
+        owner.getExecutable() >> build
+        execution.getOwner() >> owner
+        node.getExecution() >> execution
+        node.getParents() >> []
+        descriptor = jenkinsRule.jenkins.getDescriptorByType(ArgusNotifier.DescriptorImpl)
+    }
+
+    def cleanup() {
+        PipelineStageListener.buffers.clear()
+    }
+
+    def "a new head of a running Pipeline starts a buffer that completion closes"() {
+        given:
+        execution.isComplete() >> false
+
+        when:
+        PipelineStageListener.onNewHead(descriptor, node)
+
+        then:
+        PipelineStageListener.buffers.containsKey(execution)
+        !PipelineStageListener.buffers.get(execution).closed
+
+        when:
+        new PipelineStageListener.CompletionListener().onCompleted(execution)
+        PipelineStageListener.onNewHead(descriptor, node)
+
+        then:
+        PipelineStageListener.buffers.get(execution).closed
+        PipelineStageListener.buffers.get(execution).empty
+    }
+
+    def "a head reported after the Pipeline completed does not bring its buffer back"() {
+        given:
+        execution.isComplete() >> true
+
+        when:
+        new PipelineStageListener.CompletionListener().onCompleted(execution)
+        PipelineStageListener.onNewHead(descriptor, node)
+
+        then:
+        !PipelineStageListener.buffers.containsKey(execution)
+    }
+}
@@ -0,0 +1,39 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class RetryPolicyTest extends Specification {
+
+    def "attempt #attempt waits at most #maxDelay ms"() {
+        given:
+        RetryPolicy retryPolicy = new RetryPolicy(10, 100, 1000)
+
+        when:
+        List<Long> delays = (1..50).collect { retryPolicy.delayMillis(attempt) }
+
+        then:
+        delays.every { it >= 0 && it <= maxDelay }
+
+        where:
+        attempt | maxDelay
+        1       | 100
+        2       | 200
+        4       | 800
+        5       | 1000
+        40      | 1000
+    }
+
+    def "#maxAttempts attempts allow a retry after attempt #attempt: #expected"() {
+        expect:
+        new RetryPolicy(maxAttempts, 0, 0).canRetry(attempt) == expected
+
+        where:
+        maxAttempts | attempt | expected
+        1           | 1       | false
+        3           | 1       | true
+        3           | 2       | true
+        3           | 3       | false
+    }
+}
@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Metric
+import hudson.EnvVars
+import hudson.model.EnvironmentContributingAction
+import hudson.model.Job
+import hudson.model.Result
+import hudson.model.Run
+import jenkins.model.Jenkins
+import spock.lang.Specification
+
+class RunSnapshotTest extends Specification {
+
+    private static final String COMMIT = "abcdef123"
+    private Jenkins jenkins = Mock(Jenkins)
+    private Run run = Mock(Run)
+
+    def setup() {
+        Job parent = Mock(Job)
+        parent.getFullName() >> "folder/job"
+        run.getParent() >> parent
+        run.getNumber() >> 42
+        run.getResult() >> Result.SUCCESS
+        run.getUrl() >> "job/folder/job/job/42/"
+        jenkins.getRootUrl() >> "https://snapshothost/"
+    }
+
+    def "snapshot holds the resolved run values"() {
+        when:
+        RunSnapshot snapshot = RunSnapshot.of(jenkins, run)
+
+        then:
+        1 * run.getEnvironment(_) >> new EnvVars([(TagFactory.Tag.GIT_COMMIT.toString()): COMMIT])
+        snapshot.hostName == "snapshothost"
+        snapshot.projectName == "folder.job"
+        snapshot.buildNumber == "42"
+        snapshot.result == "SUCCESS"
+        snapshot.contextualResult == "SUCCESS"
+        snapshot.runUrl == "https://snapshothost/job/folder/job/job/42/"
+        snapshot.gitCommitHash == COMMIT
+        snapshot.tags[TagFactory.Tag.GIT_COMMIT.lower()] == COMMIT
+        snapshot.tags[TagFactory.Tag.PROJECT.lower()] == "folder.job"
+    }
+
+    def "environment is resolved once for all metrics and annotations of a run"() {
+        given:
+        RunSnapshot snapshot = RunSnapshot.of(jenkins, run)
+        BuildMetricFactory buildMetricFactory = new BuildMetricFactory(run, snapshot, 1L, "scope")
+        AnnotationFactory annotationFactory = new AnnotationFactory(snapshot, 1L, "scope", null)
+
+        when:
+        List<Metric> metrics = buildMetricFactory.getBuildStatusMetrics()
+        annotationFactory.getAnnotationsFor(metrics)
+
+        then:
+        0 * run.getEnvironment(_)
+        metrics.every { it.tags.is(snapshot.tags) || it.tags == snapshot.tags }
+    }
+
+    def "a recorded snapshot takes the commit from the run's actions without resolving the environment"() {
+        given:
+        EnvironmentContributingAction action = Mock(EnvironmentContributingAction)
+        run.getActions(EnvironmentContributingAction) >> [action]
+        action.buildEnvironment(run, _) >> { Run r, EnvVars env ->
+            env.put(TagFactory.Tag.GIT_COMMIT.toString(), COMMIT)
+        }
+
+        when:
+        RunSnapshot snapshot = RunSnapshot.ofRecorded(jenkins, run)
+
+        then:
+        0 * run.getEnvironment(_)
+        snapshot.gitCommitHash == COMMIT
+        snapshot.tags[TagFactory.Tag.GIT_COMMIT.lower()] == COMMIT
+        snapshot.projectName == "folder.job"
+    }
+
+    def "every value is taken from the formatter exactly once"() {
+        given:
+        JenkinsRunFormatter formatter = Mock(JenkinsRunFormatter)
+
+        when:
+        RunSnapshot snapshot = RunSnapshot.of(formatter)
+
+        then:
+        1 * formatter.getJenkinsHostName() >> "snapshothost"
+        1 * formatter.getProjectName() >> "folder.job"
+        1 * formatter.getBuildNumberString() >> "42"
+        1 * formatter.getResult() >> "SUCCESS"
+        1 * formatter.getContextualResult() >> "SUCCESS"
+        1 * formatter.getRunUrl() >> "https://snapshothost/job/folder/job/job/42/"
+        1 * formatter.getGitCommitHash() >> COMMIT
+        1 * formatter.isStatusTransition() >> false
+        0 * formatter._
+        snapshot.tags[TagFactory.Tag.GIT_COMMIT.lower()] == COMMIT
+    }
+}
@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Metric
+import spock.lang.Specification
+
+class RunningBuildMetricFactoryTest extends Specification {
+
+    private RunningBuildMetricFactory factory = new RunningBuildMetricFactory("jenkins", "scope", 600L)
+
+    def "build started metric carries the build tags with a running status"() {
+        when:
+        Metric metric = factory.getBuildStartedMetric(
+                new RunningBuildMetricFactory.RunningBuild("folder.job", "42", 0L))
+
+        then:
+        metric.metric == RunningBuildMetricFactory.BUILD_STARTED_METRIC
+        metric.scope == "scope"
+        metric.datapoints == [(600L): 1.0d]
+        metric.tags == [host: "jenkins", project: "folder.job", build_number: "42",
+                        build_status: RunningBuildMetricFactory.RUNNING]
+    }
+
+    def "builds of a Jenkins without a host name are tagged without a host"() {
+        given:
+        RunningBuildMetricFactory withoutHost = new RunningBuildMetricFactory(null, "scope", 600L)
+
+        when:
+        Metric metric = withoutHost.getBuildStartedMetric(
+                new RunningBuildMetricFactory.RunningBuild("folder.job", "42", 0L))
+
+        then:
+        metric.tags == [project: "folder.job", build_number: "42", build_status: RunningBuildMetricFactory.RUNNING]
+    }
+
+    def "heartbeat has the running time of each build and builds in progress per job and label"() {
+        given:
+        RunningBuildMetricFactory.ExecutorScan scan = new RunningBuildMetricFactory.ExecutorScan([
+                new RunningBuildMetricFactory.RunningBuild("a", "1", 100_000L),
+                new RunningBuildMetricFactory.RunningBuild("a", "2", 400_000L),
+                new RunningBuildMetricFactory.RunningBuild("b", "7", 500_000L)
+        ], ["linux && docker": 2, (RunningBuildMetricFactory.ANY_LABEL): 1])
+
+        when:
+        List<Metric> metrics = factory.getHeartbeatMetrics(scan, 600_000L, new RunningBuildMetricFactory.ReportedKeys())
+
+        then:
+        metrics.findAll { it.metric == RunningBuildMetricFactory.BUILD_RUNNING_TIME_METRIC }
+                .collect { [it.tags.project, it.tags.build_number, it.datapoints[600L]] } ==
+                [["a", "1", 500.0d], ["a", "2", 200.0d], ["b", "7", 100.0d]]
+        metrics.findAll { it.metric == RunningBuildMetricFactory.JOB_BUILDS_IN_PROGRESS_METRIC }
+                .collectEntries { [it.tags.project, it.datapoints[600L]] } == [a: 2.0d, b: 1.0d]
+        metrics.findAll { it.metric == RunningBuildMetricFactory.LABEL_BUILDS_IN_PROGRESS_METRIC }
+                .collectEntries { [it.tags.label, it.datapoints[600L]] } == ["linux----docker": 2.0d, any: 1.0d]
+        metrics.find { it.metric == RunningBuildMetricFactory.LABEL_BUILDS_IN_PROGRESS_METRIC }.tags.host == "jenkins"
+    }
+
+    def "a build with a start time in the future does not get a negative running time"() {
+        given:
+        RunningBuildMetricFactory.ExecutorScan scan = new RunningBuildMetricFactory.ExecutorScan(
+                [new RunningBuildMetricFactory.RunningBuild("a", "1", 700_000L)], [:])
+
+        expect:
+        factory.getHeartbeatMetrics(scan, 600_000L, new RunningBuildMetricFactory.ReportedKeys())[0]
+                .datapoints[600L] == 0.0d
+    }
+
+    def "nothing running means no heartbeat metrics"() {
+        expect:
+        factory.getHeartbeatMetrics(new RunningBuildMetricFactory.ExecutorScan([], [:]), 600_000L,
+                new RunningBuildMetricFactory.ReportedKeys()).isEmpty()
+    }
+
+    def "jobs and labels of the previous heartbeat without builds now are sent as 0"() {
+        given:
+        RunningBuildMetricFactory.ReportedKeys reported = new RunningBuildMetricFactory.ReportedKeys()
+        factory.getHeartbeatMetrics(new RunningBuildMetricFactory.ExecutorScan([
+                new RunningBuildMetricFactory.RunningBuild("a", "1", 100_000L),
+                new RunningBuildMetricFactory.RunningBuild("b", "7", 500_000L)
+        ], [linux: 2]), 600_000L, reported)
+
+        when:
+        List<Metric> metrics = factory.getHeartbeatMetrics(new RunningBuildMetricFactory.ExecutorScan([
+                new RunningBuildMetricFactory.RunningBuild("b", "7", 500_000L)
+        ], [windows: 1]), 660_000L, reported)
+        List<Metric> next = factory.getHeartbeatMetrics(new RunningBuildMetricFactory.ExecutorScan([], [:]),
+                720_000L, reported)
+
+        then:
+        metrics.findAll { it.metric == RunningBuildMetricFactory.JOB_BUILDS_IN_PROGRESS_METRIC }
+                .collectEntries { [it.tags.project, it.datapoints[600L]] } == [b: 1.0d, a: 0.0d]
+        metrics.findAll { it.metric == RunningBuildMetricFactory.LABEL_BUILDS_IN_PROGRESS_METRIC }
+                .collectEntries { [it.tags.label, it.datapoints[600L]] } == [windows: 1.0d, linux: 0.0d]
+        next.collect { [it.metric, it.tags.project ?: it.tags.label, it.datapoints[600L]] } == [
+                [RunningBuildMetricFactory.JOB_BUILDS_IN_PROGRESS_METRIC, "b", 0.0d],
+                [RunningBuildMetricFactory.LABEL_BUILDS_IN_PROGRESS_METRIC, "windows", 0.0d]
+        ]
+    }
+}
@@ -1,11 +1,17 @@
 package org.jenkinsci.plugins.argusnotifier
 
+import com.codahale.metrics.Counter
+import com.codahale.metrics.Histogram
+import com.codahale.metrics.Meter
+import com.codahale.metrics.Timer
+import com.codahale.metrics.UniformReservoir
 import com.salesforce.dva.argus.sdk.entity.Metric
 import jenkins.model.Jenkins
 import spock.lang.Specification
 import spock.lang.Unroll
 
 import java.time.OffsetDateTime
+import java.util.concurrent.TimeUnit
 
 @Unroll
 class SystemMetricFactoryTest extends Specification {
@@ -60,4 +66,84 @@ class SystemMetricFactoryTest extends Specification {
         "scope"  | TEST_SCOPE
         "metric" | METRIC_NAME
     }
+
+    def "counter is sent as its count"() {
+        given:
+        Counter counter = new Counter()
+        counter.inc(3)
+
+        when:
+        List<Metric> metrics = systemMetricFactory.getCounterMetrics(METRIC_NAME, counter)
+
+        then:
+        metrics*.metric == [METRIC_NAME]
+        metrics[0].getDatapoints()[time] == 3.0
+    }
+
+    def "meter is sent as count and rates"() {
+        given:
+        Meter meter = new Meter()
+        meter.mark(2)
+
+        when:
+        List<Metric> metrics = systemMetricFactory.getMeterMetrics(METRIC_NAME, meter)
+
+        then:
+        metrics*.metric == ["count", "m1_rate", "m5_rate", "m15_rate", "mean_rate"].collect { "${METRIC_NAME}.${it}".toString() }
+        metrics[0].getDatapoints()[time] == 2.0
+        metrics[1].getUnits() == "per second"
+    }
+
+    def "histogram is sent as count, statistics and quantiles"() {
+        given:
+        Histogram histogram = new Histogram(new UniformReservoir())
+        (1..100).each { histogram.update(it) }
+
+        when:
+        Map<String, Double> values = systemMetricFactory.getHistogramMetrics(METRIC_NAME, histogram)
+                .collectEntries { [(it.metric - "${METRIC_NAME}."): it.getDatapoints()[time]] }
+
+        then:
+        values.keySet() == ["count", "min", "max", "mean", "stddev", "p50", "p95", "p99"] as Set
+        values["count"] == 100.0
+        values["min"] == 1.0
+        values["max"] == 100.0
+    }
+
+    def "timer durations are sent in seconds"() {
+        given:
+        Timer timer = new Timer()
+        timer.update(2, TimeUnit.SECONDS)
+
+        when:
+        List<Metric> metrics = systemMetricFactory.getTimerMetrics(METRIC_NAME, timer)
+        Metric max = metrics.find { it.metric == "${METRIC_NAME}.max".toString() }
+
+        then:
+        metrics.size() == 12
+        max.getDatapoints()[time] == 2.0
+        max.getUnits() == "seconds"
+    }
+
+    def "quantiles #quantiles are sent as #suffixes"() {
+        given:
+        SystemMetricFactory factory =
+                new SystemMetricFactory(jenkins, time, TEST_SCOPE, SystemMetricFactory.parseQuantiles(quantiles))
+
+        when:
+        List<String> names = factory.getHistogramMetrics("h", new Histogram(new UniformReservoir()))*.metric
+
+        then:
+        names.findAll { it.startsWith("h.p") } == suffixes
+
+        where:
+        quantiles         | suffixes
+        "0.5,0.95,0.99"   | ["h.p50", "h.p95", "h.p99"]
+        "0.999,0.0999"    | ["h.p99_9", "h.p9_99"]
+        "0.9,0.09"        | ["h.p90", "h.p9"]
+        "0.5,0.50"        | ["h.p50"]
+        " 0.75 , bogus,2" | ["h.p75"]
+        ""                | []
+        null              | []
+    }
 }
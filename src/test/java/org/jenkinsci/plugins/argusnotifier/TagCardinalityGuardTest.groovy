@@ -0,0 +1,216 @@
+package org.jenkinsci.plugins.argusnotifier
+
+import com.salesforce.dva.argus.sdk.entity.Annotation
+import com.salesforce.dva.argus.sdk.entity.Metric
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.nio.file.Path
+
+class TagCardinalityGuardTest extends Specification {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    private TagCardinalityGuard guard = new TagCardinalityGuard()
+
+    private static Metric metric(String name, String buildNumber, String project = "job") {
+        Metric metric = new Metric()
+        metric.setScope("scope")
+        metric.setMetric(name)
+        metric.setTags(TagFactory.buildStatusTags("jenkins", project, buildNumber, "SUCCESS", "abc" + buildNumber))
+        metric.setDatapoints([(1L): 1.0d])
+        return metric
+    }
+
+    private static Annotation annotation(Metric metric) {
+        Annotation annotation = new Annotation()
+        annotation.setScope("scope")
+        annotation.setMetric(metric.getMetric())
+        annotation.setTags(metric.getTags())
+        annotation.setFields([URL                                   : "http://jenkins/job/1",
+                              (AnnotationFactory.BUILD_NUMBER_LABEL): metric.tags.build_number])
+        return annotation
+    }
+
+    private static TagCardinalityGuard.Settings settings(TagCardinalityGuard.Policy buildNumber,
+                                                         TagCardinalityGuard.Policy gitCommit) {
+        return new TagCardinalityGuard.Settings(10, [(TagFactory.Tag.BUILD_NUMBER): buildNumber,
+                                                     (TagFactory.Tag.GIT_COMMIT)  : gitCommit])
+    }
+
+    private void send(int builds, TagCardinalityGuard.Settings settings) {
+        (1..builds).each { guard.apply([metric("build.status", String.valueOf(it))], [], settings) }
+    }
+
+    def "tags are left alone below the threshold"() {
+        given:
+        Metric metric = metric("build.status", "1")
+
+        when:
+        guard.apply([metric], [], settings(TagCardinalityGuard.Policy.DROP, TagCardinalityGuard.Policy.DROP))
+
+        then:
+        metric.tags.build_number == "1"
+        metric.tags.git_commit == "abc1"
+    }
+
+    def "above the threshold a dropped tag is removed from the metric and its annotation"() {
+        given:
+        TagCardinalityGuard.Settings settings =
+                settings(TagCardinalityGuard.Policy.DROP, TagCardinalityGuard.Policy.KEEP)
+        send(20, settings)
+        Metric metric = metric("build.status", "21")
+        Annotation annotation = annotation(metric)
+
+        when:
+        guard.apply([metric], [annotation], settings)
+
+        then:
+        !metric.tags.containsKey("build_number")
+        metric.tags.git_commit == "abc21"
+        metric.tags.project == "job"
+        !annotation.tags.containsKey("build_number")
+        annotation.fields == [URL: "http://jenkins/job/1", (AnnotationFactory.BUILD_NUMBER_LABEL): "21"]
+    }
+
+    def "above the threshold an annotated tag is moved into the annotation fields"() {
+        given:
+        TagCardinalityGuard.Settings settings =
+                settings(TagCardinalityGuard.Policy.KEEP, TagCardinalityGuard.Policy.ANNOTATE)
+        send(20, settings)
+        Metric metric = metric("build.status", "21")
+        Annotation annotation = annotation(metric)
+
+        when:
+        guard.apply([metric], [annotation], settings)
+
+        then:
+        !metric.tags.containsKey("git_commit")
+        metric.tags.build_number == "21"
+        annotation.tags == metric.tags
+        annotation.fields == [URL: "http://jenkins/job/1", (AnnotationFactory.BUILD_NUMBER_LABEL): "21",
+                              git_commit: "abc21"]
+    }
+
+    def "an annotated build number is not copied next to the Build Number field"() {
+        given:
+        TagCardinalityGuard.Settings settings =
+                settings(TagCardinalityGuard.Policy.ANNOTATE, TagCardinalityGuard.Policy.KEEP)
+        send(20, settings)
+        Metric metric = metric("build.status", "21")
+        Annotation annotation = annotation(metric)
+
+        when:
+        guard.apply([metric], [annotation], settings)
+
+        then:
+        !annotation.tags.containsKey("build_number")
+        annotation.fields == [URL: "http://jenkins/job/1", (AnnotationFactory.BUILD_NUMBER_LABEL): "21"]
+    }
+
+    def "projects are counted separately"() {
+        given:
+        TagCardinalityGuard.Settings settings =
+                settings(TagCardinalityGuard.Policy.DROP, TagCardinalityGuard.Policy.DROP)
+        send(20, settings)
+        Metric other = metric("build.status", "21", "other-job")
+
+        when:
+        guard.apply([other], [], settings)
+
+        then:
+        other.tags.build_number == "21"
+    }
+
+    def "saved estimates are loaded again, so a limited tag stays limited"() {
+        given:
+        TagCardinalityGuard.Settings settings =
+                settings(TagCardinalityGuard.Policy.DROP, TagCardinalityGuard.Policy.KEEP)
+        Path file = temporaryFolder.getRoot().toPath().resolve("plugin").resolve(TagCardinalityGuard.ESTIMATES_FILE)
+        send(20, settings)
+        guard.save(file)
+        TagCardinalityGuard restarted = new TagCardinalityGuard()
+        Metric metric = metric("build.status", "21")
+
+        when:
+        restarted.load(file)
+        restarted.apply([metric], [], settings)
+
+        then:
+        !metric.tags.containsKey("build_number")
+        restarted.getEstimates().find { it.tag == "build_number" }.cardinality > 10
+    }
+
+    def "only limited tags are saved"() {
+        given:
+        Path file = temporaryFolder.getRoot().toPath().resolve(TagCardinalityGuard.ESTIMATES_FILE)
+        send(20, settings(TagCardinalityGuard.Policy.DROP, TagCardinalityGuard.Policy.KEEP))
+        Properties saved = new Properties()
+
+        when:
+        guard.save(file)
+        file.withInputStream { saved.load(it) }
+
+        then:
+        saved.stringPropertyNames() == ["BUILD_NUMBER|job"] as Set
+    }
+
+    def "a deleted or renamed job starts over"() {
+        given:
+        TagCardinalityGuard.Settings settings =
+                settings(TagCardinalityGuard.Policy.DROP, TagCardinalityGuard.Policy.DROP)
+        (1..20).each { guard.apply([metric("build.status", String.valueOf(it), "folder.job")], [], settings) }
+        Metric metric = metric("build.status", "21", "folder.job")
+
+        when:
+        guard.forgetProject("folder/job")
+        guard.apply([metric], [], settings)
+
+        then:
+        metric.tags.build_number == "21"
+        guard.getEstimates().collect { [it.project, it.tag, it.cardinality] } ==
+                [["folder.job", "build_number", 1L], ["folder.job", "git_commit", 1L]]
+    }
+
+    def "nothing is written while the estimates are unchanged"() {
+        given:
+        Path file = temporaryFolder.getRoot().toPath().resolve(TagCardinalityGuard.ESTIMATES_FILE)
+
+        when:
+        guard.save(file)
+
+        then:
+        !file.toFile().exists()
+    }
+
+    def "a missing estimates file loads nothing"() {
+        when:
+        guard.load(temporaryFolder.getRoot().toPath().resolve(TagCardinalityGuard.ESTIMATES_FILE))
+
+        then:
+        guard.getEstimates().isEmpty()
+    }
+
+    def "all metrics of a project share its estimate"() {
+        given:
+        TagCardinalityGuard.Settings settings =
+                settings(TagCardinalityGuard.Policy.DROP, TagCardinalityGuard.Policy.DROP)
+        send(20, settings)
+        Metric other = metric("build.time", "21")
+
+        when:
+        guard.apply([other], [], settings)
+
+        then:
+        !other.tags.containsKey("build_number")
+    }
+
+    def "estimates are kept even when every tag is kept"() {
+        when:
+        send(5, TagCardinalityGuard.Settings.KEEP_ALL)
+
+        then:
+        guard.getEstimates().collect { [it.project, it.tag, it.cardinality] } ==
+                [["job", "build_number", 5L], ["job", "git_commit", 5L]]
+    }
+}